@@ -0,0 +1,99 @@
+package edu.grinnell.csc207.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-click AACCategory calls that produce the images for a grid.
+ *
+ * @author Slok Rajbhandari
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AACCategoryBenchmark {
+
+  // +------------+--------------------------------------------------
+  // | Parameters |
+  // +------------+
+
+  /**
+   * The number of items in the category.
+   */
+  @Param({"9", "100", "10000"})
+  int items;
+
+  // +-------+-------------------------------------------------------
+  // | State |
+  // +-------+
+
+  /**
+   * The category (an AACCategory; see Aac).
+   */
+  Object category;
+
+  String lastImage;
+
+  // +-------+-------------------------------------------------------
+  // | Setup |
+  // +-------+
+
+  @Setup
+  public void setup() throws Throwable {
+    this.category = (Object) Aac.NEW_CATEGORY.invokeExact("benchmark");
+    for (int i = 0; i < this.items; i++) {
+      this.lastImage = Vocabularies.itemImage(0, i);
+      Aac.ADD_ITEM.invokeExact(this.category, this.lastImage, "item " + i);
+    } // for
+  } // setup()
+
+  // +------------+--------------------------------------------------
+  // | Benchmarks |
+  // +------------+
+
+  @Benchmark
+  public String[] getImageLocs() throws Throwable {
+    return (String[]) Aac.CATEGORY_IMAGE_LOCS.invokeExact(this.category);
+  } // getImageLocs()
+
+  @Benchmark
+  public String[] getImages() throws Throwable {
+    return (String[]) Aac.CATEGORY_IMAGES.invokeExact(this.category);
+  } // getImages()
+
+  /**
+   * Re-add an item and then list the images, as after an edit.
+   */
+  @Benchmark
+  public String[] addThenGetImageLocs() throws Throwable {
+    MethodHandle add = Aac.ADD_ITEM;
+    add.invokeExact(this.category, this.lastImage, "edited");
+    return (String[]) Aac.CATEGORY_IMAGE_LOCS.invokeExact(this.category);
+  } // addThenGetImageLocs()
+
+  /**
+   * Remove an item and add it back, then list the images. The item
+   * moves to the end, and the others keep their order.
+   */
+  @Benchmark
+  public String[] removeAddThenGetImageLocs() throws Throwable {
+    Aac.REMOVE_ITEM.invokeExact(this.category, this.lastImage);
+    Aac.ADD_ITEM.invokeExact(this.category, this.lastImage, "edited");
+    return (String[]) Aac.CATEGORY_IMAGE_LOCS.invokeExact(this.category);
+  } // removeAddThenGetImageLocs()
+} // class AACCategoryBenchmark
@@ -0,0 +1,211 @@
+package edu.grinnell.csc207.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Loading, saving and navigating generated vocabularies with AACMappings.
+ *
+ * load, navigate and writeToFile use mappings parsed in full from the
+ * text file, as AACMappings(String) did before categories were loaded
+ * lazily, so their results compare with older baselines. The *Lazy
+ * benchmarks use AACMappings(String, long), which indexes the file and
+ * reads each category when it is first used, within a memory budget
+ * that evicts the least recently used categories. The *Compiled
+ * benchmarks map a vocabulary compiled with MappedVocabulary.
+ *
+ * @author Slok Rajbhandari
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AACMappingsBenchmark {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The memory budget of the lazily loaded mappings: 1 MiB, so that the
+   * larger vocabularies do not fit and categories are evicted.
+   */
+  static final long BUDGET = 1L << 20;
+
+  // +------------+--------------------------------------------------
+  // | Parameters |
+  // +------------+
+
+  /**
+   * The number of categories on the homepage.
+   */
+  @Param({"10", "100"})
+  int categories;
+
+  /**
+   * The number of items in each category.
+   */
+  @Param({"10", "1000"})
+  int items;
+
+  // +-------+-------------------------------------------------------
+  // | State |
+  // +-------+
+
+  Path source;
+
+  /**
+   * The source compiled by MappedVocabulary.
+   */
+  Path compiled;
+
+  Path target;
+
+  /**
+   * The parsed mappings (an AACMappings; see Aac).
+   */
+  Object mappings;
+
+  /**
+   * The lazily loaded mappings.
+   */
+  Object lazyMappings;
+
+  /**
+   * The mappings in the compiled vocabulary.
+   */
+  Object compiledMappings;
+
+  // +-------+-------------------------------------------------------
+  // | Setup |
+  // +-------+
+
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    this.source = Vocabularies.write(this.categories, this.items);
+    this.target = Files.createTempFile("vocabulary-out", ".txt");
+    this.target.toFile().deleteOnExit();
+    this.compiled = Files.createTempFile("vocabulary", ".vocab");
+    this.compiled.toFile().deleteOnExit();
+    Aac.COMPILE.invokeExact(this.source.toString(), this.compiled.toString());
+    this.mappings = (Object) Aac.NEW_MAPPINGS.invokeExact(this.source.toString(), false);
+    this.lazyMappings = (Object) Aac.NEW_LAZY_MAPPINGS.invokeExact(this.source.toString(), BUDGET);
+    this.compiledMappings = this.loadCompiled();
+  } // setup()
+
+  /**
+   * Start every save from an empty file.
+   */
+  @Setup(Level.Invocation)
+  public void clearTarget() throws Exception {
+    Files.deleteIfExists(this.target);
+  } // clearTarget()
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    Files.deleteIfExists(this.source);
+    Files.deleteIfExists(this.compiled);
+    Files.deleteIfExists(this.target);
+  } // tearDown()
+
+  // +------------+--------------------------------------------------
+  // | Benchmarks |
+  // +------------+
+
+  /**
+   * Parse the whole text file.
+   */
+  @Benchmark
+  public Object load() throws Throwable {
+    return (Object) Aac.NEW_MAPPINGS.invokeExact(this.source.toString(), false);
+  } // load()
+
+  /**
+   * Index the text file, reading only the homepage.
+   */
+  @Benchmark
+  public Object loadLazy() throws Throwable {
+    return (Object) Aac.NEW_LAZY_MAPPINGS.invokeExact(this.source.toString(), BUDGET);
+  } // loadLazy()
+
+  /**
+   * Map the compiled vocabulary.
+   */
+  @Benchmark
+  public Object loadCompiled() throws Throwable {
+    Object vocabulary = (Object) Aac.NEW_VOCABULARY.invokeExact(this.compiled.toString());
+    return (Object) Aac.NEW_MAPPED_MAPPINGS.invokeExact(vocabulary);
+  } // loadCompiled()
+
+  @Benchmark
+  public File writeToFile() throws Throwable {
+    Aac.WRITE_TO_FILE.invokeExact(this.mappings, this.target.toString());
+    return this.target.toFile();
+  } // writeToFile()
+
+  /**
+   * Visit every category: open it, speak three of its items, list its
+   * images and go back to the homepage.
+   */
+  @Benchmark
+  public void navigate(Blackhole blackhole) throws Throwable {
+    visitAll(this.mappings, blackhole);
+  } // navigate(Blackhole)
+
+  /**
+   * Visit every category of the lazily loaded mappings, which reads the
+   * categories that have been evicted again.
+   */
+  @Benchmark
+  public void navigateLazy(Blackhole blackhole) throws Throwable {
+    visitAll(this.lazyMappings, blackhole);
+  } // navigateLazy(Blackhole)
+
+  /**
+   * Visit every category of the compiled vocabulary.
+   */
+  @Benchmark
+  public void navigateCompiled(Blackhole blackhole) throws Throwable {
+    visitAll(this.compiledMappings, blackhole);
+  } // navigateCompiled(Blackhole)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Visit every category of some mappings: open it, speak three of its
+   * items, list its images and go back to the homepage.
+   */
+  void visitAll(Object mappings, Blackhole blackhole) throws Throwable {
+    for (int c = 0; c < this.categories; c++) {
+      blackhole.consume((String) Aac.GET_TEXT.invokeExact(mappings,
+          Vocabularies.categoryImage(c)));
+      blackhole.consume((String[]) Aac.MAPPINGS_IMAGE_LOCS.invokeExact(mappings));
+      for (int i = 0; i < this.items; i += Math.max(1, this.items / 3)) {
+        blackhole.consume((String) Aac.GET_TEXT.invokeExact(mappings,
+            Vocabularies.itemImage(c, i)));
+      } // for
+      Aac.RESET.invokeExact(mappings);
+    } // for
+  } // visitAll(Object, Blackhole)
+} // class AACMappingsBenchmark
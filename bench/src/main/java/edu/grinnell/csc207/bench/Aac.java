@@ -0,0 +1,129 @@
+package edu.grinnell.csc207.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Access to the AAC classes for the benchmarks. JMH will not generate
+ * code for benchmarks in the default package, and classes in a named
+ * package cannot refer to the default package, so we reach AACCategory,
+ * AACMappings and MappedVocabulary through method handles. The handles are constants,
+ * so the JIT inlines the calls and they cost no more than direct ones.
+ *
+ * @author Slok Rajbhandari
+ */
+final class Aac {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** new AACCategory(String) */
+  static final MethodHandle NEW_CATEGORY;
+
+  /** AACCategory.addItem(String, String) */
+  static final MethodHandle ADD_ITEM;
+
+  /** AACCategory.removeItem(String) */
+  static final MethodHandle REMOVE_ITEM;
+
+  /** AACCategory.getImageLocs() */
+  static final MethodHandle CATEGORY_IMAGE_LOCS;
+
+  /** AACCategory.getImages() */
+  static final MethodHandle CATEGORY_IMAGES;
+
+  /** new AACMappings(String, boolean): parses the whole file */
+  static final MethodHandle NEW_MAPPINGS;
+
+  /** new AACMappings(String, long): reads categories lazily */
+  static final MethodHandle NEW_LAZY_MAPPINGS;
+
+  /** new AACMappings(MappedVocabulary) */
+  static final MethodHandle NEW_MAPPED_MAPPINGS;
+
+  /** new MappedVocabulary(String) */
+  static final MethodHandle NEW_VOCABULARY;
+
+  /** MappedVocabulary.compile(String, String) */
+  static final MethodHandle COMPILE;
+
+  /** AACMappings.getText(String) */
+  static final MethodHandle GET_TEXT;
+
+  /** AACMappings.getImageLocs() */
+  static final MethodHandle MAPPINGS_IMAGE_LOCS;
+
+  /** AACMappings.reset() */
+  static final MethodHandle RESET;
+
+  /** AACMappings.writeToFile(String) */
+  static final MethodHandle WRITE_TO_FILE;
+
+  static {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> category = Class.forName("AACCategory");
+      Class<?> mappings = Class.forName("AACMappings");
+      Class<?> vocabulary = Class.forName("MappedVocabulary");
+      NEW_CATEGORY = erase(lookup.findConstructor(category,
+          MethodType.methodType(void.class, String.class)));
+      ADD_ITEM = erase(lookup.findVirtual(category, "addItem",
+          MethodType.methodType(void.class, String.class, String.class)));
+      REMOVE_ITEM = erase(lookup.findVirtual(category, "removeItem",
+          MethodType.methodType(void.class, String.class)));
+      CATEGORY_IMAGE_LOCS = erase(lookup.findVirtual(category, "getImageLocs",
+          MethodType.methodType(String[].class)));
+      CATEGORY_IMAGES = erase(lookup.findVirtual(category, "getImages",
+          MethodType.methodType(String[].class)));
+      NEW_MAPPINGS = erase(lookup.findConstructor(mappings,
+          MethodType.methodType(void.class, String.class, boolean.class)));
+      NEW_LAZY_MAPPINGS = erase(lookup.findConstructor(mappings,
+          MethodType.methodType(void.class, String.class, long.class)));
+      NEW_MAPPED_MAPPINGS = erase(lookup.findConstructor(mappings,
+          MethodType.methodType(void.class, vocabulary)));
+      NEW_VOCABULARY = erase(lookup.findConstructor(vocabulary,
+          MethodType.methodType(void.class, String.class)));
+      COMPILE = lookup.findStatic(vocabulary, "compile",
+          MethodType.methodType(void.class, String.class, String.class));
+      GET_TEXT = erase(lookup.findVirtual(mappings, "getText",
+          MethodType.methodType(String.class, String.class)));
+      MAPPINGS_IMAGE_LOCS = erase(lookup.findVirtual(mappings, "getImageLocs",
+          MethodType.methodType(String[].class)));
+      RESET = erase(lookup.findVirtual(mappings, "reset",
+          MethodType.methodType(void.class)));
+      WRITE_TO_FILE = erase(lookup.findVirtual(mappings, "writeToFile",
+          MethodType.methodType(void.class, String.class)));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    } // try/catch
+  } // static
+
+  // +-------------+-------------------------------------------------
+  // | Constructor |
+  // +-------------+
+
+  private Aac() {
+  } // Aac()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Replace the AAC class in a handle's type with Object, so that
+   * callers can use invokeExact without naming the class.
+   */
+  static MethodHandle erase(MethodHandle handle) {
+    MethodType type = handle.type();
+    if (type.parameterCount() > 0 && type.parameterType(0).getPackageName().isEmpty()
+        && !type.parameterType(0).isPrimitive()) {
+      type = type.changeParameterType(0, Object.class);
+    } // if
+    if (!type.returnType().isPrimitive() && type.returnType().getPackageName().isEmpty()) {
+      type = type.changeReturnType(Object.class);
+    } // if
+    return handle.asType(type);
+  } // erase(MethodHandle)
+} // class Aac
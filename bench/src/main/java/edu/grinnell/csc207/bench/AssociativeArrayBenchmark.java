@@ -0,0 +1,138 @@
+package edu.grinnell.csc207.bench;
+
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.KeyNotFoundException;
+import edu.grinnell.csc207.util.NullKeyException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-key operations on an AssociativeArray of a given size. Each
+ * call uses the next key in turn, so the whole table is touched.
+ *
+ * @author Slok Rajbhandari
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssociativeArrayBenchmark {
+
+  // +------------+--------------------------------------------------
+  // | Parameters |
+  // +------------+
+
+  /**
+   * The number of pairs in the array.
+   */
+  @Param({"10", "1000", "100000", "1000000"})
+  int size;
+
+  // +-------+-------------------------------------------------------
+  // | State |
+  // +-------+
+
+  AssociativeArray<String, String> map;
+
+  String[] keys;
+
+  String[] missing;
+
+  int cursor;
+
+  // +-------+-------------------------------------------------------
+  // | Setup |
+  // +-------+
+
+  @Setup
+  public void setup() throws NullKeyException {
+    this.keys = new String[this.size];
+    this.missing = new String[this.size];
+    this.map = new AssociativeArray<>();
+    for (int i = 0; i < this.size; i++) {
+      this.keys[i] = "img/food/icons8-symbol" + i + "-96.png";
+      this.missing[i] = "img/food/icons8-absent" + i + "-96.png";
+      this.map.set(this.keys[i], "text " + i);
+    } // for
+  } // setup()
+
+  /**
+   * Advance to the next key.
+   */
+  int next() {
+    int i = this.cursor;
+    this.cursor = (i + 1 == this.size) ? 0 : i + 1;
+    return i;
+  } // next()
+
+  // +------------+--------------------------------------------------
+  // | Benchmarks |
+  // +------------+
+
+  @Benchmark
+  public String get() throws KeyNotFoundException {
+    return this.map.get(this.keys[this.next()]);
+  } // get()
+
+  @Benchmark
+  public void setExisting() throws NullKeyException {
+    int i = this.next();
+    this.map.set(this.keys[i], this.keys[i]);
+  } // setExisting()
+
+  @Benchmark
+  public boolean hasKey() {
+    return this.map.hasKey(this.keys[this.next()]);
+  } // hasKey()
+
+  @Benchmark
+  public boolean hasKeyMissing() {
+    return this.map.hasKey(this.missing[this.next()]);
+  } // hasKeyMissing()
+
+  /**
+   * Remove a key and add it back, so the size stays constant.
+   */
+  @Benchmark
+  public void removeAndSet() throws NullKeyException {
+    String key = this.keys[this.next()];
+    this.map.remove(key);
+    this.map.set(key, key);
+  } // removeAndSet()
+
+  /**
+   * Remove a run of keys and add them back, as when curating a board,
+   * then walk the whole array. Shows that lookups and iteration stay
+   * fast while tombstones build up between compactions.
+   */
+  @Benchmark
+  public int bulkRemoveAndSet() throws NullKeyException {
+    int run = Math.min(64, this.size);
+    int start = this.cursor;
+    for (int i = 0; i < run; i++) {
+      this.map.remove(this.keys[this.next()]);
+    } // for
+    this.cursor = start;
+    for (int i = 0; i < run; i++) {
+      String key = this.keys[this.next()];
+      this.map.set(key, key);
+    } // for
+    int[] count = { 0 };
+    this.map.forEach((key, value) -> count[0]++);
+    return count[0];
+  } // bulkRemoveAndSet()
+} // class AssociativeArrayBenchmark
@@ -0,0 +1,27 @@
+package edu.grinnell.csc207.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks named on the command line (all of them by
+ * default) with the GC profiler enabled, so every result includes the
+ * allocation rate next to throughput and latency percentiles. Takes the
+ * usual JMH options, e.g. "-rf json -rff baseline.json".
+ *
+ * @author Slok Rajbhandari
+ */
+public class BenchmarkMain {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    Options options = new OptionsBuilder()
+        .parent(commandLine)
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  } // main(String[])
+} // class BenchmarkMain
@@ -0,0 +1,58 @@
+package edu.grinnell.csc207.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generated vocabularies in the AACMappings text format.
+ *
+ * @author Slok Rajbhandari
+ */
+final class Vocabularies {
+
+  private Vocabularies() {
+  } // Vocabularies()
+
+  /**
+   * The image location of a category.
+   */
+  static String categoryImage(int category) {
+    return "img/category" + category + "/folder.png";
+  } // categoryImage(int)
+
+  /**
+   * The image location of an item.
+   */
+  static String itemImage(int category, int item) {
+    return "img/category" + category + "/icons8-symbol" + item + "-96.png";
+  } // itemImage(int, int)
+
+  /**
+   * Write a vocabulary with the given shape to a temporary file.
+   *
+   * @param categories
+   *   The number of categories.
+   * @param items
+   *   The number of items in each category.
+   *
+   * @return the path to the file, which is deleted on exit.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  static Path write(int categories, int items) throws IOException {
+    Path file = Files.createTempFile("vocabulary", ".txt");
+    file.toFile().deleteOnExit();
+    try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for (int c = 0; c < categories; c++) {
+        writer.write(categoryImage(c) + " category number " + c + "\n");
+        for (int i = 0; i < items; i++) {
+          writer.write(">" + itemImage(c, i) + " item " + i + " of category " + c + "\n");
+        } // for
+      } // for
+    } // try
+    return file;
+  } // write(int, int)
+} // class Vocabularies
@@ -1,8 +1,9 @@
 import javax.swing.JFrame; 
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.ImageIcon;
+import javax.swing.JScrollBar;
 import javax.swing.JButton; 
+import javax.swing.SwingUtilities;
 
 import java.awt.BorderLayout;
 import java.awt.Container;
@@ -11,6 +12,11 @@ import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.Scanner;
 
@@ -29,106 +35,397 @@ import javax.speech.synthesis.SynthesizerModeDesc;
 public class AAC implements ActionListener {
 
 	private JFrame frame; 
-	//private JButton[][] grid; 
+	private ImageGrid grid; 
+	private JButton up;
+	private JButton backArrow;
+	private JButton nextArrow;
 	private static Synthesizer synthesizer;
 	private int startIndex;
 	private int endIndex;
 	private static final int NUM_ACROSS = 3;
 	private static final int NUM_DOWN = 3;
+	private static final int FRAME_SIZE = 500;
+	private static final int MAX_RESULTS = 4*NUM_ACROSS*NUM_DOWN;
+	private static final String RESULT = "result ";
+	private static final int MAX_CELLS = 12;
+	//set with java -Daac.latency=true AAC, to report how long each click takes to paint
+	private static final boolean REPORT_LATENCY = Boolean.getBoolean("aac.latency");
+	private int across;
+	private int down;
+	//whether the grid scrolls by rows rather than turning pages
+	private boolean scrolling;
+	private JPanel center;
+	private JScrollBar scrollBar;
 	private String[] images;
+	private SearchIndex.Hit[] results;
 	private AACMappings aacMappings;
+	private AutosaveService autosave;
+	//why Save and Add are turned off, or null if the vocabulary can be changed
+	private String readOnly;
+	private ThumbnailAtlas thumbnails;
+	private IconCache icons;
+	private IconLoader loader;
 	private Scanner input;
 
 
 	/**
 	 * Creates the AAC display for the file provided
 	 * @param filename the name of the file that contains the 
-	 * images and text that will be in the AAC
+	 * images and text that will be in the AAC, or of a directory
+	 * of such files
 	 */
 	public AAC(String filename){ 
-		this.aacMappings = new AACMappings(filename);
+		this(filename, NUM_ACROSS, NUM_DOWN, false);
+	}
+
+	/**
+	 * Creates the AAC display for the file provided, with a grid of the
+	 * given size
+	 * @param filename the name of the file that contains the 
+	 * images and text that will be in the AAC, or of a directory
+	 * of such files
+	 * @param across the number of images across
+	 * @param down the number of images down
+	 * @param scrolling whether to scroll through the images by rows
+	 * rather than turn pages
+	 */
+	public AAC(String filename, int across, int down, boolean scrolling){ 
+		this.across = across;
+		this.down = down;
+		this.scrolling = scrolling;
+		useThumbnails(cellSize(across, down));
+		if (Files.isDirectory(Paths.get(filename))) {
+			try {
+				this.aacMappings = MappingsLoader.loadDirectory(Paths.get(filename));
+			}
+			catch (IOException e) {
+				System.err.println("Could not list " + filename + ": " + e.getMessage());
+				this.aacMappings = AACMappings.loadAll(new ArrayList<>());
+			}
+		}
+		else {
+			this.aacMappings = new AACMappings(filename, CategoryCache.DEFAULT_BUDGET);
+		}
+		if(this.aacMappings.canSave()) {
+			try {
+				this.aacMappings.openJournal();
+			}
+			catch (IOException e) {
+				System.err.println("Changes will be saved by rewriting the file: " + e.getMessage());
+			}
+			this.autosave = new AutosaveService(this.aacMappings);
+			try {
+				this.aacMappings.watch(SwingUtilities::invokeLater, this::refresh);
+			}
+			catch (IOException e) {
+				System.err.println("Changes to " + filename + " will need a restart: " + e.getMessage());
+			}
+		}
+		else {
+			//no one file holds a vocabulary merged from a directory, so there is nowhere to save changes
+			this.readOnly = filename + " is a directory of vocabularies: it can be used but not changed,"
+					+ " so Save and Add are turned off";
+			System.err.println(this.readOnly);
+		}
 		this.images = this.aacMappings.getImageLocs();
-		this.startIndex = 0;
-		this.endIndex = Math.min(NUM_ACROSS*NUM_DOWN, this.images.length);
+		goTo(0);
 		frame=new JFrame();
-		frame.setPreferredSize(new Dimension(500,500));
-		loadImages(NUM_ACROSS,NUM_DOWN);
+		if(this.readOnly != null) {
+			frame.setTitle(filename + " (read-only)");
+		}
+		frame.setPreferredSize(new Dimension(FRAME_SIZE,FRAME_SIZE));
+		buildFrame();
+		loadImages(this.across,this.down);
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		frame.pack(); 
 		frame.setVisible(true);
 		input = new Scanner(System.in);
+		//thumbnails made while running are written to the atlas on exit
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				this.thumbnails.save();
+			}
+			catch (IOException e) {
+				System.err.println("Could not save thumbnails: " + e.getMessage());
+			}
+		}, "thumbnails"));
+		//the saving and journal threads are daemons, so changes still queued are saved on exit
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				if(this.autosave != null) {
+					this.autosave.close();
+				}
+				this.aacMappings.close();
+			}
+			catch (IOException e) {
+				System.err.println("Could not save changes: " + e.getMessage());
+			}
+		}, "mappings"));
+		if(REPORT_LATENCY) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				System.err.println(String.format("Painted %d clicks in %.1f ms on average, %.1f ms at most",
+						this.grid.getMeasured(), this.grid.getMeanLatencyNanos() / 1e6,
+						this.grid.getMaxLatencyNanos() / 1e6));
+			}, "latency"));
+		}
 	}
 
 	/**
-	 * Loads the images in the screen in a width by length grid
-	 * @param width the number of images across to display
-	 * @param length the number of images down to display
+	 * Returns the size that images are scaled down to: about the size of a
+	 * grid cell, leaving room for the bars around the grid and the edges
+	 * of the buttons
+	 * @return the width and height of a thumbnail, in pixels
 	 */
-	public void loadImages(int width, int length) {
+	static int cellSize() {
+		return cellSize(NUM_ACROSS, NUM_DOWN);
+	}
+
+	/**
+	 * Returns the size that images are scaled down to for a grid of the
+	 * given size
+	 * @param across the number of images across
+	 * @param down the number of images down
+	 * @return the width and height of a thumbnail, in pixels
+	 */
+	static int cellSize(int across, int down) {
+		return Math.min(FRAME_SIZE / across, FRAME_SIZE / down) * 3 / 4;
+	}
+
+	/**
+	 * Takes images from the atlas of thumbnails of the given size, saving
+	 * the thumbnails made so far in the atlas used until now
+	 * @param size the width and height of a thumbnail, in pixels
+	 */
+	private void useThumbnails(int size) {
+		if(this.thumbnails != null) {
+			this.loader.close();
+			try {
+				this.thumbnails.save();
+			}
+			catch (IOException e) {
+				System.err.println("Could not save thumbnails: " + e.getMessage());
+			}
+		}
+		this.thumbnails = new ThumbnailAtlas(ThumbnailAtlas.defaultPath(size, size), size, size);
+		this.icons = new IconCache(IconCache.DEFAULT_BUDGET, this.thumbnails);
+		this.loader = new IconLoader(this.icons, SwingUtilities::invokeLater);
+	}
+
+	/**
+	 * Moves to the images starting at the given index. When scrolling, the
+	 * index is rounded down to the start of a row, and kept low enough that
+	 * the grid stays full
+	 * @param index the index of the first image to show
+	 */
+	private void goTo(int index) {
+		if(this.scrolling) {
+			int rows = (this.images.length + this.across - 1) / this.across;
+			index = Math.min(index / this.across, Math.max(0, rows - this.down)) * this.across;
+		}
+		this.startIndex = Math.max(0, index);
+		this.endIndex = Math.min(this.startIndex + this.across*this.down, this.images.length);
+	}
+
+	/**
+	 * Lays out the frame once: the options along the top, the arrows on
+	 * either side, the grid and the acknowledgement. Moving around only
+	 * changes what the grid shows and which buttons are enabled
+	 */
+	private void buildFrame() {
 		Container pane = frame.getContentPane();
-		pane.removeAll();
 
 		//add options to go to home screen
 		JPanel panel1 = new JPanel();
-		panel1.setLayout(new GridLayout(1,3));
-
-		JButton home = new JButton(new ImageIcon("img/home.png"));
-		home.setActionCommand("");
-		home.addActionListener(this);
-		panel1.add(home);
-		JButton save = new JButton(new ImageIcon("img/save.png"));
-		save.setActionCommand("save");
-		save.addActionListener(this);
+		panel1.setLayout(new GridLayout(1,6));
+		panel1.add(button(new JButton(this.icons.get("img/home.png")), ""));
+		JButton save = button(new JButton(this.icons.get("img/save.png")), "save");
+		save.setEnabled(this.autosave != null);
 		panel1.add(save);
-		JButton add = new JButton(new ImageIcon("img/plus.png"));
-		add.setActionCommand("add");
-		add.addActionListener(this);
+		JButton add = button(new JButton(this.icons.get("img/plus.png")), "add");
+		add.setEnabled(this.autosave != null);
 		panel1.add(add);
-
+		//say why, on the buttons themselves, rather than only on the console
+		save.setToolTipText(this.readOnly);
+		add.setToolTipText(this.readOnly);
+		panel1.add(button(new JButton("Search"), "search"));
+		this.up = button(new JButton("Up"), "up");
+		panel1.add(this.up);
+		panel1.add(button(new JButton("Grid"), "grid"));
 		pane.add(panel1, BorderLayout.PAGE_START);
 
+		//the grid, with a scroll bar beside it when scrolling
+		this.center = new JPanel(new BorderLayout());
+		this.scrollBar = new JScrollBar(JScrollBar.VERTICAL);
+		this.scrollBar.addAdjustmentListener(e -> scrollTo(e.getValue()));
+		this.center.add(this.scrollBar, BorderLayout.LINE_END);
+		//turning the mouse wheel over the grid scrolls it too
+		this.center.addMouseWheelListener(e -> {
+			if(this.scrolling) {
+				this.scrollBar.setValue(this.scrollBar.getValue() + e.getWheelRotation());
+			}
+		});
+		pane.add(this.center, BorderLayout.CENTER);
 
-		//if on page 2+, add back button
-		if(startIndex > 0) {
-			JButton backArrow = new JButton(new ImageIcon("img/back-to.png"));
-			backArrow.setActionCommand("back");
-			backArrow.addActionListener(this);
-			pane.add(backArrow, BorderLayout.LINE_START);
-		}
-
-		//add images
-		JPanel panel = new JPanel();
-		panel.setLayout(new GridLayout(width,length)); 
-		int currImage = startIndex;
-		for(int y=0; y<length; y++){
-			for(int x=0; x<width; x++){
-				if(currImage < this.images.length) {
-					ImageIcon img = new ImageIcon(images[currImage]);
-					JButton button = new JButton(img);
-					button.setActionCommand(images[currImage]);
-					button.addActionListener(this);
-					panel.add(button); 
-					currImage++;
+		this.backArrow = button(new JButton(this.icons.get("img/back-to.png")), "back");
+		pane.add(this.backArrow, BorderLayout.LINE_START);
+		this.nextArrow = button(new JButton(this.icons.get("img/next.png")), "next");
+		pane.add(this.nextArrow, BorderLayout.LINE_END);
 
-				}
+		JLabel ack = new JLabel("All provided icons are from icons8: icons8.com");
+		pane.add(ack,BorderLayout.PAGE_END);
+	}
+
+	/**
+	 * Makes this AAC listen to a button
+	 * @param button the button
+	 * @param actionCommand what the button does
+	 * @return the button
+	 */
+	private JButton button(JButton button, String actionCommand) {
+		button.setActionCommand(actionCommand);
+		button.addActionListener(this);
+		return button;
+	}
+
+	/**
+	 * Loads the images in the screen in a width by length grid. Only the
+	 * cells whose image changed are redrawn; the grid is only rebuilt if
+	 * its size changed
+	 * @param width the number of images across to display
+	 * @param length the number of images down to display
+	 */
+	public void loadImages(int width, int length) {
+		Container pane = frame.getContentPane();
+		//images still decoding for the last page are no longer needed
+		this.loader.cancel();
+
+		//the grid is only rebuilt if its size or thumbnails changed
+		if(this.grid == null || this.grid.getColumns() != width || this.grid.getRows() != length
+				|| this.grid.loader != this.loader) {
+			if(this.grid != null) {
+				this.center.remove(this.grid);
 			}
+			this.grid = new ImageGrid(length, width, this, this.loader, REPORT_LATENCY
+					? nanos -> System.err.println(String.format("Painted in %.1f ms", nanos / 1e6))
+					: null);
+			this.center.add(this.grid, BorderLayout.CENTER);
+			pane.revalidate();
 		}
-		pane.add(panel,BorderLayout.CENTER);
 
-		//if have later pages, add next button
-		if(endIndex < images.length) {
-			JButton nextArrow = new JButton(new ImageIcon("img/next.png"));
-			nextArrow.setActionCommand("next");
-			nextArrow.addActionListener(this);
-			pane.add(nextArrow,BorderLayout.LINE_END);
+		//the scroll bar moves a row at a time, or a screenful when clicked beside the thumb
+		this.scrollBar.setVisible(this.scrolling);
+		if(this.scrolling) {
+			int rows = (this.images.length + width - 1) / width;
+			this.scrollBar.setValues(this.startIndex / width, Math.min(length, rows), 0, rows);
+			this.scrollBar.setBlockIncrement(length);
 		}
 
-		JLabel ack = new JLabel("All provided icons are from icons8: icons8.com");
-		pane.add(ack,BorderLayout.PAGE_END);
-		pane.revalidate();
+		//if in a category, the up button goes back one level
+		this.up.setEnabled(this.results == null && !this.aacMappings.getCurrentCategory().equals(""));
+		//the arrows go to the pages before and after this one, if there are any
+		this.backArrow.setEnabled(startIndex > 0);
+		this.nextArrow.setEnabled(endIndex < images.length);
+
+		//search results are told apart by their place in the list
+		String[] commands = this.images;
+		if(this.results != null) {
+			commands = new String[this.images.length];
+			for(int i = 0; i < commands.length; i++) {
+				commands[i] = RESULT + i;
+			}
+		}
+		this.grid.show(this.images, commands, startIndex);
+		prefetch(width*length);
 		pane.requestFocusInWindow();
 	}
 
+	/**
+	 * Shows the images from the given row on, after the scroll bar moved
+	 * @param row the first row to show
+	 */
+	private void scrollTo(int row) {
+		if(!this.scrolling || row * this.across == this.startIndex) {
+			return;
+		}
+		this.grid.clicked();
+		goTo(row * this.across);
+		loadImages(this.across,this.down);
+	}
+
+	/**
+	 * Asks for the size of the grid, and whether to scroll through the
+	 * images or turn pages
+	 */
+	private void configureGrid() {
+		int newAcross;
+		int newDown;
+		System.out.println("How many images across (1-" + MAX_CELLS + ")");
+		String answer = input.nextLine().trim();
+		try {
+			newAcross = Integer.parseInt(answer);
+			System.out.println("How many images down (1-" + MAX_CELLS + ")");
+			answer = input.nextLine().trim();
+			newDown = Integer.parseInt(answer);
+		}
+		catch (NumberFormatException e) {
+			System.out.println("Not a number: " + answer);
+			return;
+		}
+		if(newAcross < 1 || newAcross > MAX_CELLS || newDown < 1 || newDown > MAX_CELLS) {
+			System.out.println("The grid can be 1 to " + MAX_CELLS + " images across and down");
+			return;
+		}
+		System.out.println("Scroll instead of turning pages (y/n)");
+		this.scrolling = input.nextLine().trim().toLowerCase().startsWith("y");
+		//smaller cells need smaller thumbnails, which are kept in an atlas of their own
+		if(cellSize(newAcross, newDown) != cellSize(this.across, this.down)) {
+			useThumbnails(cellSize(newAcross, newDown));
+		}
+		this.across = newAcross;
+		this.down = newDown;
+	}
+
+	/**
+	 * Decodes the images the user is likely to see next in the background:
+	 * the pages before and after this one and, on the homepage, the first
+	 * page of each category shown
+	 * @param pageSize the number of images on a page
+	 */
+	private void prefetch(int pageSize) {
+		for(int i = this.endIndex; i < Math.min(this.endIndex + pageSize, this.images.length); i++) {
+			this.loader.prefetch(this.images[i]);
+		}
+		for(int i = Math.max(0, this.startIndex - pageSize); i < this.startIndex; i++) {
+			this.loader.prefetch(this.images[i]);
+		}
+		if(this.results == null && this.aacMappings.getCurrentCategory().equals("")) {
+			for(int i = this.startIndex; i < this.endIndex; i++) {
+				String category = this.images[i];
+				//listing a category may read it, so that is done in the background too
+				this.loader.prefetch(() -> {
+					String[] imageLocs = this.aacMappings.getImageLocs(category);
+					return Arrays.copyOf(imageLocs, Math.min(pageSize, imageLocs.length));
+				});
+			}
+		}
+	}
+
+	/**
+	 * Redraws the current category after the mappings file was changed
+	 * by someone else, staying on the same page of images if it still exists
+	 */
+	public void refresh() {
+		if (this.results != null) {
+			return;
+		}
+		this.images = this.aacMappings.getImageLocs();
+		if (this.startIndex >= this.images.length) {
+			this.startIndex = 0;
+		}
+		goTo(this.startIndex);
+		loadImages(this.across,this.down);
+	}
+
 	public static void main(String[] args) {
 
 		try {
@@ -153,7 +450,21 @@ public class AAC implements ActionListener {
 		catch (Exception e) {
 			e.printStackTrace();
 		}
-		new AAC("AACMappings.txt");
+		//e.g. java AAC AACMappings.txt 4 3 scroll
+		try {
+			int across = args.length > 1 ? Integer.parseInt(args[1]) : NUM_ACROSS;
+			int down = args.length > 2 ? Integer.parseInt(args[2]) : NUM_DOWN;
+			if(across >= 1 && across <= MAX_CELLS && down >= 1 && down <= MAX_CELLS) {
+				new AAC(args.length > 0 ? args[0] : "AACMappings.txt", across, down,
+						args.length > 3 && args[3].equals("scroll"));
+				return;
+			}
+		}
+		catch (NumberFormatException e) {
+			//fall through to the usage message
+		}
+		System.err.println("Usage: java AAC [file] [across] [down] [scroll], with 1 to "
+				+ MAX_CELLS + " images across and down");
 	}
 
 	/**
@@ -163,20 +474,27 @@ public class AAC implements ActionListener {
 	 */
 	public void actionPerformed(ActionEvent e) {
 		String actionCommand = e.getActionCommand();
+		this.grid.clicked();
 		System.out.println("Button clicked: "+actionCommand);
+		if(this.results != null && actionCommand.startsWith(RESULT)) {
+			//go to the result's category, then act as if it was clicked there
+			SearchIndex.Hit hit = this.results[Integer.parseInt(actionCommand.substring(RESULT.length()))];
+			this.aacMappings.show(hit);
+			actionCommand = hit.getImageLoc();
+		}
+		if(!actionCommand.equals("back") && !actionCommand.equals("next") && !actionCommand.equals("grid")) {
+			this.results = null;
+		}
 		if(actionCommand.equals("back")) {
-			this.startIndex -= NUM_ACROSS*NUM_DOWN;
-			this.endIndex -= NUM_ACROSS*NUM_DOWN;
+			goTo(this.startIndex - this.across*this.down);
 		}
 		else if(actionCommand.equals("next")) {
-			this.startIndex += NUM_ACROSS*NUM_DOWN;
-			this.endIndex = Math.min(endIndex + NUM_ACROSS*NUM_DOWN, this.images.length);
+			goTo(this.startIndex + this.across*this.down);
 		}
 		else if(actionCommand.equals("save")) {
-			this.aacMappings.writeToFile("AACMappingsNew.txt");
+			this.autosave.saveNow();  // Saved off the event thread
 			this.images = this.aacMappings.getImageLocs();
-			this.startIndex = 0;
-			this.endIndex = Math.min(NUM_ACROSS*NUM_DOWN, this.images.length);
+			goTo(0);
 		}
 		else if(actionCommand.equals("add")) {
 			System.out.println("What is the image location");
@@ -185,23 +503,47 @@ public class AAC implements ActionListener {
 			String text = input.nextLine().trim();
 			this.aacMappings.add(imageLoc, text);
 			this.images = this.aacMappings.getImageLocs();
-			this.startIndex = 0;
-			this.endIndex = Math.min(NUM_ACROSS*NUM_DOWN, this.images.length);
+			goTo(0);
+		}
+		else if(actionCommand.equals("search")) {
+			System.out.println("What are you looking for");
+			String query = input.nextLine().trim();
+			SearchIndex.Hit[] hits = this.aacMappings.search(query, MAX_RESULTS);
+			if(hits.length == 0) {
+				System.out.println("Nothing matches " + query);
+				this.images = this.aacMappings.getImageLocs();
+			}
+			else {
+				this.results = hits;
+				this.images = new String[hits.length];
+				for(int i = 0; i < hits.length; i++) {
+					this.images[i] = hits[i].getImageLoc();
+				}
+			}
+			goTo(0);
+		}
+		else if(actionCommand.equals("grid")) {
+			configureGrid();
+			goTo(this.startIndex);
+		}
+		else if(actionCommand.equals("up")) {
+			this.aacMappings.back();
+			this.images = this.aacMappings.getImageLocs();
+			goTo(0);
 		}
 		else if(actionCommand.equals("")) {
 			this.aacMappings.reset();
 			this.images = this.aacMappings.getImageLocs();
-			this.startIndex = 0;
-			this.endIndex = Math.min(NUM_ACROSS*NUM_DOWN, this.images.length);
+			goTo(0);
 		}
 		else {
-			if(this.aacMappings.getCurrentCategory().equals("")) {
+			if(this.aacMappings.getCurrentCategory().equals("")
+					|| this.aacMappings.isCategory(actionCommand)) {
 				try {
 					this.aacMappings.getText(actionCommand);
 				} catch (Exception enfe) {};
 				this.images = this.aacMappings.getImageLocs();
-				this.startIndex = 0;
-				this.endIndex = Math.min(NUM_ACROSS*NUM_DOWN, this.images.length);
+				goTo(0);
 			}
 			else {
 				try {
@@ -215,7 +557,7 @@ public class AAC implements ActionListener {
 				}
 			}
 		}
-		loadImages(NUM_ACROSS,NUM_DOWN);
+		loadImages(this.across,this.down);
 
 	}
 
@@ -1,9 +1,9 @@
+import java.lang.ref.SoftReference;
 import java.util.NoSuchElementException;
 
-import edu.grinnell.csc207.util.AssociativeArray;
-import edu.grinnell.csc207.util.KeyNotFoundException;
+import edu.grinnell.csc207.util.AssociativeMap;
+import edu.grinnell.csc207.util.ImagePathMap;
 import edu.grinnell.csc207.util.NullKeyException;
-import edu.grinnell.csc207.util.KVPair;
 
 /**
  * Represents the mappings for a single category of items that should
@@ -17,7 +17,9 @@ public class AACCategory implements AACPage {
      * Fields
      */
     String categoryName;   // The name of the category
-    AssociativeArray<String, String> imageToTextMap;   // Maps image locations to associated text
+    AssociativeMap<String, String> imageToTextMap;   // Maps image locations to associated text
+    SoftReference<String[]> imageLocs;   // Cached image locations, in display order; null when stale
+    AssociativeMap<String, AACPage> subpages;   // Pages of the items that are nested categories; null if none
 
     /**
      * Constructor
@@ -25,10 +27,36 @@ public class AACCategory implements AACPage {
      * @param name the name of the category
      */
     public AACCategory(String name) {
+        this(name, new ImagePathMap<>());  // Use a mutable map keyed by interned image paths
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Creates a category with the given name that stores its items in the
+     * given map, e.g. a PersistentAssociativeArray for cheap snapshots.
+     * @param name the name of the category
+     * @param imageToTextMap the map of image locations to text
+     */
+    public AACCategory(String name, AssociativeMap<String, String> imageToTextMap) {
         this.categoryName = name;  // Set the category name
-        this.imageToTextMap = new AssociativeArray<>();  // Initialize the image to text map
+        this.imageToTextMap = imageToTextMap;  // Initialize the image to text map
     }  // end of constructor
 
+    /**
+     * Returns a copy of this category, and of the categories nested in it,
+     * that later changes to this category do not affect. Copying the items
+     * is O(1) when they are held in a PersistentAssociativeArray and O(n)
+     * otherwise.
+     * @return the snapshot
+     */
+    public AACCategory snapshot() {
+        AACCategory copy = new AACCategory(this.categoryName, this.imageToTextMap.clone());
+        if (this.subpages != null) {
+            this.subpages.forEach((imageLoc, page) -> copy.setSubpage(imageLoc, page.snapshot()));
+        }
+        return copy;
+    }  // end of snapshot method
+
     /**
      * Adds the mapping of the image location to the text of the category.
      * @param imageLoc the image location
@@ -37,11 +65,60 @@ public class AACCategory implements AACPage {
     public void addItem(String imageLoc, String text) {
         try {
             this.imageToTextMap.set(imageLoc, text);  // Add the image location and text to the map
+            this.imageLocs = null;  // The cached image locations are now stale
         } catch (NullKeyException nke) {
             System.err.println("Please enter a valid image location.");  // Handle invalid image location
         }
     }  // end of addItem method
 
+    /**
+     * Removes an image and its text from the category. The other images
+     * keep their order.
+     * @param imageLoc the image location
+     */
+    public void removeItem(String imageLoc) {
+        if (this.imageToTextMap.hasKey(imageLoc)) {
+            this.imageToTextMap.remove(imageLoc);
+            this.imageLocs = null;  // The cached image locations are now stale
+            if (this.subpages != null) {
+                this.subpages.remove(imageLoc);  // Along with anything nested under it
+            }
+        }
+    }  // end of removeItem method
+
+    /**
+     * Returns the page that opens when an item is selected.
+     * @param imageLoc the image location
+     * @return the nested page, or null if the item is not a category
+     */
+    public AACPage getSubpage(String imageLoc) {
+        return (this.subpages == null) ? null : this.subpages.getOrNull(imageLoc);
+    }  // end of getSubpage method
+
+    /**
+     * Makes an item of this category a category itself.
+     * @param imageLoc the image location of the item
+     * @param page the nested page
+     */
+    public void setSubpage(String imageLoc, AACPage page) {
+        if (this.subpages == null) {
+            this.subpages = new ImagePathMap<>();  // Most categories have none
+        }
+        try {
+            this.subpages.set(imageLoc, page);
+        } catch (NullKeyException nke) {
+            System.err.println("Please enter a valid image location.");
+        }
+    }  // end of setSubpage method
+
+    /**
+     * Releases the unused capacity of the category's map. Called once
+     * loading is finished, since most categories do not change after that.
+     */
+    public void trimToSize() {
+        this.imageToTextMap.trimToSize();
+    }  // end of trimToSize method
+
     /**
      * Returns the name of the category.
      * @return the name of the category
@@ -55,26 +132,29 @@ public class AACCategory implements AACPage {
      * @return the image locations as an array
      */
     public String[] getImages() {
-        String images = "";  // Initialize an empty string to store image locations
-        for (KVPair<String, String> pair : this.imageToTextMap) {
-            images += pair.getKey() + "\n";  // Add image locations to the string
-        }
-        return images.split("\n");  // Return image locations as an array
+        return this.getImageLocs();
     }  // end of getImages method
 
     /**
-     * Returns an array of all the images in the category.
+     * Returns an array of all the images in the category. The array is
+     * cached and shared by every caller, who must not change it; a change
+     * to the category replaces it rather than changing it, so a caller can
+     * keep it. The cache is held by a SoftReference, so the Strings of a
+     * category that has not been shown lately can be collected, and are
+     * built again when next needed.
      * @return the image locations as an array
      */
     @Override
     public String[] getImageLocs() {
-        String[] imageLocs = new String[this.imageToTextMap.size()];  // Initialize array to hold image locations
-        int index = 0;  // Index for the array
-        for (KVPair<String, String> pair : this.imageToTextMap) {
-            imageLocs[index] = pair.getKey();  // Add each image location (key) to the array
-            index++;  // Increment the index
+        String[] imageLocs = (this.imageLocs == null) ? null : this.imageLocs.get();
+        if (imageLocs == null) {
+            String[] locs = new String[this.imageToTextMap.size()];  // Initialize array to hold image locations
+            int[] index = { 0 };  // Index for the array
+            this.imageToTextMap.forEach((imageLoc, text) -> locs[index[0]++] = imageLoc);
+            this.imageLocs = new SoftReference<>(locs);
+            imageLocs = locs;
         }
-        return imageLocs;  // Return the array of image locations
+        return imageLocs;  // Shared, not copied
     }  // end of getImageLocs method
 
     /**
@@ -83,11 +163,7 @@ public class AACCategory implements AACPage {
      * @return the text associated with the image
      */
     public String getText(String imageLoc) {
-        try {
-            return this.imageToTextMap.get(imageLoc);  // Retrieve the text for the image location
-        } catch (KeyNotFoundException kne) {
-            return "Not Found.";  // Handle case where image is not found
-        }  // end of try-catch
+        return this.imageToTextMap.getOrDefault(imageLoc, "Not Found.");  // Retrieve the text, or "Not Found." if the image is missing
     }  // end of getText method
 
     /**
@@ -109,8 +185,8 @@ public class AACCategory implements AACPage {
      */
     @Override
     public String select(String imageLoc) {
-        String text = this.getText(imageLoc);  // Get the text associated with the image location
-        if (text.equals("Not Found.")) {
+        String text = this.imageToTextMap.getOrNull(imageLoc);  // Get the text associated with the image location
+        if (text == null) {
             throw new NoSuchElementException("Image not found in the category.");  // Handle image not found
         }
         return text;  // Return the text associated with the image
@@ -1,13 +1,23 @@
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Scanner;
-import edu.grinnell.csc207.util.AssociativeArray;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import edu.grinnell.csc207.util.AssociativeMap;
+import edu.grinnell.csc207.util.ImagePathMap;
 import edu.grinnell.csc207.util.KVPair;
-import edu.grinnell.csc207.util.KeyNotFoundException;
 import edu.grinnell.csc207.util.NullKeyException;
+import edu.grinnell.csc207.util.PersistentAssociativeArray;
 import java.io.PrintWriter;
 
 public class AACMappings {
@@ -21,91 +31,606 @@ public class AACMappings {
      * @author Samuel A. Rebelsky
      */
   
+    /**
+     * Constants
+     */
+    static final String SEPARATOR = " ";   // Joins the image locations on the path to a nested category
+
     /**
      * Fields
      */
-    AssociativeArray<String, AACCategory> categoryMappings;  // Maps category images to AACCategory objects
-    AACCategory homepage;   // Represents the homepage category
-    AACCategory currentCategory;  // Tracks the currently selected category
-    File dataFile;   // File containing the mappings
+    AssociativeMap<String, AACPage> categoryMappings;  // Maps category images to their pages
+    AACPage homepage;   // Represents the homepage category
+    AACPage currentCategory;  // Tracks the currently selected category
+    String currentLoc;   // Path of the selected category (see SEPARATOR); null on the homepage
+    ArrayDeque<AACPage> parents = new ArrayDeque<>();   // The pages above the selected category, nearest first
+    File dataFile;   // File containing the mappings; null if merged from several files
+    boolean persistent;   // Whether maps are PersistentAssociativeArrays rather than ImagePathMaps
+    MappingsJournal journal;   // Records changes; null unless openJournal has been called
+    MappingsWatcher watcher;   // Reloads changes others make to the data file; null unless watched
+    List<Runnable> changeListeners = new CopyOnWriteArrayList<>();   // Told after each add or remove
+    List<String> conflicts = new ArrayList<>();   // Categories dropped when merging files (see MappingsLoader)
+    SearchIndex searchIndex;   // Finds items by their text; null until the first search
+    List<SharedChannel> channels = new ArrayList<>();   // Files the lazy categories read from; given back by release()
 
     /**
      * Constructor
      * Initializes the AACMappings by reading from a file and creating mappings for categories and images.
+     * If a compiled copy of the file (see MappedVocabulary) sits next to it and is up to date,
+     * that copy is mapped instead, which skips parsing.
      * @param filename contains the categories and their associated image file paths.
      */
     public AACMappings(String filename) {
-        this.categoryMappings = new AssociativeArray<>();  // Initializing category mappings
-        this.homepage = new AACCategory("");  // Initializing homepage category
-        this.currentCategory = this.homepage;  // Setting current category to homepage
+        this.categoryMappings = this.newMap();  // Initializing category mappings
         this.dataFile = new File(filename);  // Initializing data file
+        if (!this.openCompiled(filename)) {
+            this.load(filename);
+        }
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Initializes the AACMappings from a text file, reading only the homepage at first.
+     * Each category's items are read the first time the category is used, and categories
+     * that have gone unused longest are dropped again once more than the budget is loaded.
+     * Edited categories are always kept. The file stays open for the categories to read
+     * from until close() is called. As with AACMappings(filename), an up-to-date compiled
+     * copy of the file is mapped instead.
+     * @param filename contains the categories and their associated image file paths.
+     * @param memoryBudget the most bytes of the file to keep loaded at once
+     */
+    public AACMappings(String filename, long memoryBudget) {
+        this.categoryMappings = this.newMap();  // Initializing category mappings
+        this.dataFile = new File(filename);  // Initializing data file
+        if (!this.openCompiled(filename)) {
+            this.index(filename, new CategoryCache(memoryBudget));
+        }
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Initializes the AACMappings from a text file, reading only the homepage at first,
+     * with categories that share an existing cache.
+     * @param filename contains the categories and their associated image file paths.
+     * @param cache the cache that keeps the categories within budget
+     */
+    AACMappings(String filename, CategoryCache cache) {
+        this.categoryMappings = this.newMap();  // Initializing category mappings
+        this.dataFile = new File(filename);  // Initializing data file
+        this.index(filename, cache);
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Initializes the AACMappings from a text file, optionally holding every map in a
+     * PersistentAssociativeArray so that snapshot() is cheap. Never uses a compiled copy.
+     * @param filename contains the categories and their associated image file paths.
+     * @param persistent true to use persistent maps, false to use ImagePathMaps
+     */
+    public AACMappings(String filename, boolean persistent) {
+        this.persistent = persistent;
+        this.categoryMappings = this.newMap();  // Initializing category mappings
+        this.dataFile = new File(filename);  // Initializing data file
+        this.load(filename);
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Uses a memory-mapped vocabulary. Items stay in the mapped file until they
+     * are looked up, and new items are kept on the heap.
+     * @param vocabulary the mapped vocabulary
+     */
+    public AACMappings(MappedVocabulary vocabulary) {
+        this.categoryMappings = this.newMap();
+        this.dataFile = vocabulary.getPath().toFile();
+        this.open(vocabulary);
+    }  // end of constructor
 
+    /**
+     * Constructor
+     * Creates empty mappings with no data file.
+     */
+    AACMappings() {
+        this.categoryMappings = this.newMap();
+        this.homepage = this.newCategory("");
+        this.currentCategory = this.homepage;
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Creates a snapshot of another set of mappings.
+     * @param source the mappings to copy
+     */
+    private AACMappings(AACMappings source) {
+        this.persistent = source.persistent;
+        this.dataFile = source.dataFile;
+        this.watcher = source.watcher;  // So that writing the snapshot is not taken for an edit
+        for (SharedChannel channel : source.channels) {
+            this.channels.add(channel.retain());  // Its lazy categories may be read after the source lets go
+        }
+        this.categoryMappings = this.newMap();
+        this.homepage = source.homepage.snapshot();
+        this.currentCategory = this.homepage;
+        for (KVPair<String, AACPage> entry : source.categoryMappings) {
+            try {
+                this.categoryMappings.set(entry.getKey(), entry.getValue().snapshot());
+            } catch (NullKeyException nke) {
+                nke.printStackTrace();
+            }
+        }  // end of for loop
+        if (source.currentLoc != null) {
+            this.enter(source.currentLoc);  // Keep the same category selected
+        }
+    }  // end of constructor
+
+    /**
+     * Returns a copy of these mappings that later changes do not affect, e.g.
+     * to hand to another thread. With persistent maps or a mapped vocabulary
+     * each category is copied in O(1), so the snapshot costs O(number of categories).
+     * Call release() on the snapshot once done with it, so that the files its
+     * lazy categories read from can be closed.
+     * @return the snapshot
+     */
+    public synchronized AACMappings snapshot() {
+        return new AACMappings(this);
+    }  // end of snapshot method
+
+    /**
+     * Loads a vocabulary split across several text files, parsing them in parallel
+     * (see MappingsLoader). The result has no single data file, so it can only be
+     * saved with writeToFile.
+     * @param files the files; when two define the same category, the earlier one wins
+     * @return the merged mappings
+     */
+    public static AACMappings loadAll(List<Path> files) {
+        return MappingsLoader.load(files);
+    }  // end of loadAll method
+
+    /**
+     * Returns the categories that were dropped because an earlier file already
+     * had a category with the same image location.
+     * @return a description of each conflict; empty unless loaded from several files
+     */
+    public List<String> getConflicts() {
+        return this.conflicts;
+    }  // end of getConflicts method
+
+    /**
+     * Creates an empty map of the kind these mappings use.
+     * @return the new map
+     */
+    <V> AssociativeMap<String, V> newMap() {
+        if (this.persistent) {
+            return new PersistentAssociativeArray<>();
+        }
+        return new ImagePathMap<>();
+    }  // end of newMap method
+
+    /**
+     * Creates an empty category backed by the kind of map these mappings use.
+     * @param name the name of the category
+     * @return the new category
+     */
+    AACCategory newCategory(String name) {
+        return new AACCategory(name, this.newMap());
+    }  // end of newCategory method
+
+    /**
+     * Uses the compiled copy of a text file, if it is up to date.
+     * @param filename the text file
+     * @return true if the compiled copy is used
+     */
+    boolean openCompiled(String filename) {
+        Path compiled = MappedVocabulary.compiledPath(filename);
+        if (MappedVocabulary.isFresh(compiled, this.dataFile.toPath())) {
+            try {
+                this.open(new MappedVocabulary(compiled.toString()));
+                return true;
+            } catch (IOException e) {
+                System.err.println("Ignoring " + compiled + ": " + e.getMessage());  // Fall back to the text file
+            }
+        }
+        return false;
+    }  // end of openCompiled method
+
+    /**
+     * Reads the categories and items of a text file.
+     * @param filename the text file
+     */
+    void load(String filename) {
+        this.homepage = this.newCategory("");  // Initializing homepage category
+        this.currentCategory = this.homepage;  // Setting current category to homepage
+
+        MappingsParser parser = new MappingsParser(new MappingsParser.Handler() {
+            AACCategory category = null;  // The category being read
+            ArrayList<AACPage> pages = new ArrayList<>();   // The page at each depth above the line being read
+            String[] imageLocs = new String[4];   // The last item read at each depth
+
+            public void category(String imageLoc, String text, long offset, int lineNumber) {
+                if (this.category != null) {
+                    this.category.trimToSize();  // Loaded categories rarely change, so drop spare capacity
+                }
+                this.category = AACMappings.this.newCategory(imageLoc);
+                try {
+                    AACMappings.this.categoryMappings.set(imageLoc, this.category);  // Setting category
+                } catch (NullKeyException nke) {
+                    nke.printStackTrace();
+                }
+                AACMappings.this.homepage.addItem(imageLoc, text);  // Adding category to homepage
+                this.pages.clear();
+                this.pages.add(this.category);
+            }  // category(String, String, long, int)
+
+            public void item(int depth, String imageLoc, String text, long offset, int lineNumber) {
+                while (this.pages.size() > depth) {
+                    this.pages.remove(this.pages.size() - 1);  // Back up to this item's category
+                }
+                if (this.pages.size() < depth) {
+                    AACPage parent = this.pages.get(depth - 2);
+                    AACCategory nested = AACMappings.this.newCategory(this.imageLocs[depth - 1]);
+                    parent.setSubpage(this.imageLocs[depth - 1], nested);  // The item above has items of its own
+                    this.pages.add(nested);
+                }
+                this.pages.get(depth - 1).addItem(imageLoc, text);
+                if (depth == this.imageLocs.length) {
+                    this.imageLocs = Arrays.copyOf(this.imageLocs, depth * 2);
+                }
+                this.imageLocs[depth] = imageLoc;
+            }  // item(int, String, String, long, int)
+
+            public void skipped(long offset) {
+                // Nothing is skipped
+            }  // skipped(long)
+
+            public void malformed(int lineNumber, String line, String problem) {
+                System.err.println(filename + ":" + lineNumber + ": " + problem + ": " + line);
+            }  // malformed(int, String, String)
+
+            public void finished(long offset) {
+                if (this.category != null) {
+                    this.category.trimToSize();
+                }
+            }  // finished(long)
+        });
         try {
-            Scanner reader = new Scanner(new FileReader(this.dataFile));
-            String categoryImage = null;
-            String categoryText;
-            String imagePath;
-            String text;
-            String currentLine;
-            String[] tokens;
-
-            // Reading the file line by line
-            while (reader.hasNextLine()) {
-                currentLine = reader.nextLine();
-                tokens = currentLine.split(" ", 2);  // Splitting line into tokens
-
-                if (currentLine.startsWith(">")) {
-                    // Process image inside a category
-                    imagePath = tokens[0].substring(1);  // Removing ">"
-                    text = tokens[1];
-                    try {
-                        this.categoryMappings.get(categoryImage).addItem(imagePath, text);
-                    } catch (KeyNotFoundException knfe) {
-                        knfe.printStackTrace();
-                    }
-                } else {
-                    // Process a new category
-                    imagePath = tokens[0];  // First token is image path
-                    categoryText = tokens[1];  // Second token is category text
+            parser.parse(this.dataFile.toPath());
+        } catch (NoSuchFileException e) {
+            System.err.println("File not found");
+        } catch (IOException e) {
+            System.err.println("Error reading file");
+        }  // end of try-catch
+    }  // end of load method
+
+    /**
+     * Reads the homepage of a text file, and records where each category's lines are
+     * so that its items can be read when they are needed. The file is kept open for the
+     * categories to read from, until release() is called.
+     * @param filename the text file
+     * @param cache the cache that keeps the categories within budget
+     */
+    void index(String filename, CategoryCache cache) {
+        this.homepage = this.newCategory("");  // Initializing homepage category
+        this.currentCategory = this.homepage;  // Setting current category to homepage
+        Path path = this.dataFile.toPath();
+        SharedChannel channel;
+        try {
+            channel = new SharedChannel(path);  // Kept open for the categories to read from
+            this.channels.add(channel);
+        } catch (NoSuchFileException e) {
+            System.err.println("File not found");
+            return;
+        } catch (IOException e) {
+            System.err.println("Error reading file");
+            return;
+        }  // end of try-catch
+
+        MappingsParser parser = new MappingsParser(new MappingsParser.Handler() {
+            String imageLoc = null;  // The category being indexed
+            long start;   // Position of its line
+            int firstLine;   // Number of its line
+
+            public void category(String imageLoc, String text, long offset, int lineNumber) {
+                this.close(offset);
+                this.imageLoc = imageLoc;
+                this.start = offset;
+                this.firstLine = lineNumber;
+                AACMappings.this.homepage.addItem(imageLoc, text);  // Adding category to homepage
+            }  // category(String, String, long, int)
+
+            public void item(int depth, String imageLoc, String text, long offset, int lineNumber) {
+                // Items are skipped
+            }  // item(int, String, String, long, int)
+
+            public void skipped(long offset) {
+                // Read along with the category
+            }  // skipped(long)
+
+            public void malformed(int lineNumber, String line, String problem) {
+                System.err.println(filename + ":" + lineNumber + ": " + problem + ": " + line);
+            }  // malformed(int, String, String)
+
+            public void finished(long offset) {
+                this.close(offset);
+            }  // finished(long)
+
+            void close(long end) {
+                if (this.imageLoc != null) {
+                    LazyCategory category = new LazyCategory(path, channel, this.imageLoc, this.start, end,
+                        this.firstLine, cache);
                     try {
-                        this.categoryMappings.set(imagePath, new AACCategory(imagePath)); // Setting category
+                        AACMappings.this.categoryMappings.set(this.imageLoc, category);  // Setting category
                     } catch (NullKeyException nke) {
                         nke.printStackTrace();
                     }
-                    this.homepage.addItem(imagePath, categoryText); // Adding category to homepage
-                    categoryImage = imagePath;
-                }  // end of if-else
-            }  // end of while loop
-
-            reader.close();  // Closing reader
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found");
+                }
+            }  // close(long)
+        }, 0);
+        try {
+            parser.parse(channel.channel());
+        } catch (IOException e) {
+            System.err.println("Error reading file");
         }  // end of try-catch
-    }  // end of constructor
+    }  // end of index method
+
+    /**
+     * Uses the categories of a mapped vocabulary.
+     * @param vocabulary the mapped vocabulary
+     */
+    void open(MappedVocabulary vocabulary) {
+        this.homepage = vocabulary.getHomepage();
+        this.currentCategory = this.homepage;
+        String[] categories = this.homepage.getImageLocs();
+        for (int i = 0; i < categories.length; i++) {
+            try {
+                this.categoryMappings.set(categories[i], vocabulary.getCategory(i));
+            } catch (NullKeyException nke) {
+                nke.printStackTrace();
+            }
+        }  // end of for loop
+    }  // end of open method
 
     /**
      * Adds a new image and its corresponding text to the current category or to the homepage if no category is selected.
+     * A new image on the homepage is a new category, which is then selected.
      * @param imageLoc the location of the image
      * @param text the text associated with the image
      */
-    public void add(String imageLoc, String text) {
+    public synchronized void add(String imageLoc, String text) {
         if (this.currentCategory.equals(this.homepage)) {
-            AACCategory newCategory = new AACCategory(text);  // Create new category
-            try {
-                this.categoryMappings.set(imageLoc, newCategory);  // Add category to mappings
-            } catch (NullKeyException ne) {}
-            this.homepage.addItem(imageLoc, text);  // Add category to homepage
-            this.currentCategory = newCategory;  // Set current category to new category
+            this.currentCategory = this.addCategory(imageLoc, text);  // Set current category to new category
+            this.currentLoc = imageLoc;
         } else {
-            this.currentCategory.addItem(imageLoc, text);  // Add item to current category
+            this.addItem(this.currentLoc, imageLoc, text);  // Add item to current category
         }  // end of if-else
+        this.changed();
     }  // end of add method
 
+    /**
+     * Removes an image and its text from the current category, along with any categories
+     * nested under it. On the homepage, removes the whole category that the image stands for.
+     * @param imageLoc the location of the image
+     */
+    public synchronized void remove(String imageLoc) {
+        if (this.currentCategory.equals(this.homepage)) {
+            this.removeCategory(imageLoc);
+        } else {
+            this.removeItem(this.currentLoc, imageLoc);
+        }  // end of if-else
+        this.changed();
+    }  // end of remove method
+
+    /**
+     * Registers a listener to be told after each add or remove, e.g. to
+     * schedule a save. Listeners run on the thread that made the change,
+     * while these mappings are locked, so they should only hand work off.
+     * @param listener the listener
+     */
+    public void addChangeListener(Runnable listener) {
+        this.changeListeners.add(listener);
+    }  // end of addChangeListener method
+
+    /**
+     * Tells the change listeners that the mappings have changed.
+     */
+    void changed() {
+        for (Runnable listener : this.changeListeners) {
+            listener.run();
+        }
+    }  // end of changed method
+
+    /**
+     * Adds a new, empty category and records it in the journal. A path with more than
+     * one image location adds a nested category: the last image location is added to
+     * the category the rest of the path leads to, and opens the new category.
+     * @param imageLoc the path of the category (see SEPARATOR)
+     * @param text the name of the category
+     * @return the new category
+     */
+    AACPage addCategory(String imageLoc, String text) {
+        AACCategory newCategory = this.newCategory(text);  // Create new category
+        int last = imageLoc.lastIndexOf(SEPARATOR);
+        if (last >= 0) {
+            AACPage parent = this.edit(imageLoc.substring(0, last));
+            if (parent == null) {
+                System.err.println("No category to add " + imageLoc + " to");
+                return newCategory;
+            }
+            String loc = imageLoc.substring(last + SEPARATOR.length());
+            parent.addItem(loc, text);
+            parent.setSubpage(loc, newCategory);
+            if (this.journal != null) {
+                this.journal.addCategory(imageLoc, text);
+            }
+            if (this.searchIndex != null) {
+                this.searchIndex.remove(imageLoc);  // Along with whatever the old category held
+                this.searchIndex.add(imageLoc.substring(0, last), loc, text);
+            }
+            return newCategory;
+        }
+        try {
+            this.categoryMappings.set(imageLoc, newCategory);  // Add category to mappings
+        } catch (NullKeyException ne) {}
+        this.homepage.addItem(imageLoc, text);  // Add category to homepage
+        if (this.journal != null) {
+            this.journal.addCategory(imageLoc, text);
+        }
+        if (this.searchIndex != null) {
+            this.searchIndex.remove(imageLoc);  // Along with whatever the old category held
+            this.searchIndex.add(null, imageLoc, text);
+        }
+        return newCategory;
+    }  // end of addCategory method
+
+    /**
+     * Adds an item to a category and records it in the journal.
+     * @param categoryLoc the path of the category (see SEPARATOR)
+     * @param imageLoc the location of the item's image
+     * @param text the text associated with the item
+     */
+    void addItem(String categoryLoc, String imageLoc, String text) {
+        AACPage category = this.edit(categoryLoc);
+        if (category == null) {
+            System.err.println("No category " + categoryLoc + " to add " + imageLoc + " to");
+            return;
+        }
+        category.addItem(imageLoc, text);
+        if (this.journal != null) {
+            this.journal.addItem(categoryLoc, imageLoc, text);
+        }
+        if (this.searchIndex != null) {
+            this.searchIndex.add(categoryLoc, imageLoc, text);
+        }
+    }  // end of addItem method
+
+    /**
+     * Removes a category from the homepage and records it in the journal.
+     * @param imageLoc the location of the category's image
+     */
+    void removeCategory(String imageLoc) {
+        int last = imageLoc.lastIndexOf(SEPARATOR);
+        if (last >= 0) {
+            this.removeItem(imageLoc.substring(0, last), imageLoc.substring(last + SEPARATOR.length()));
+            return;  // A nested category
+        }
+        this.homepage.removeItem(imageLoc);  // Remove the category's image
+        this.categoryMappings.remove(imageLoc);  // Drop the category itself
+        if (this.journal != null) {
+            this.journal.removeCategory(imageLoc);
+        }
+        if (this.searchIndex != null) {
+            this.searchIndex.remove(imageLoc);
+        }
+    }  // end of removeCategory method
+
+    /**
+     * Removes an item, and anything nested under it, from a category and records it in
+     * the journal.
+     * @param categoryLoc the path of the category (see SEPARATOR)
+     * @param imageLoc the location of the item's image
+     */
+    void removeItem(String categoryLoc, String imageLoc) {
+        AACPage category = this.edit(categoryLoc);
+        if (category != null) {
+            category.removeItem(imageLoc);
+            if (this.journal != null) {
+                this.journal.removeItem(categoryLoc, imageLoc);
+            }
+            if (this.searchIndex != null) {
+                this.searchIndex.remove(categoryLoc + SEPARATOR + imageLoc);
+            }
+        }
+    }  // end of removeItem method
+
+    /**
+     * Finds the category at the end of a path, in O(depth): the first image location
+     * on the path is a category on the homepage, and each later one an item of the
+     * category before it that opens a nested category.
+     * @param path the image locations joined by SEPARATOR
+     * @return the category, or null if there is none
+     */
+    AACPage resolve(String path) {
+        int end = path.indexOf(SEPARATOR);
+        AACPage page = this.categoryMappings.getOrNull((end < 0) ? path : path.substring(0, end));
+        while (page != null && end >= 0) {
+            int start = end + SEPARATOR.length();
+            end = path.indexOf(SEPARATOR, start);
+            page = page.getSubpage((end < 0) ? path.substring(start) : path.substring(start, end));
+        }
+        return page;
+    }  // end of resolve method
+
+    /**
+     * Finds the category at the end of a path in order to change it. If the category is
+     * nested in a LazyCategory, that category is pinned, since the nested one would be
+     * dropped, along with the change, if it were unloaded.
+     * @param path the image locations joined by SEPARATOR
+     * @return the category, or null if there is none
+     */
+    AACPage edit(String path) {
+        AACPage page = this.resolve(path);
+        int end = path.indexOf(SEPARATOR);
+        if (page != null && end >= 0) {
+            AACPage top = this.categoryMappings.getOrNull(path.substring(0, end));
+            if (top instanceof LazyCategory) {
+                ((LazyCategory) top).pin();
+            }
+        }
+        return page;
+    }  // end of edit method
+
+    /**
+     * Selects the category at the end of a path, starting from the homepage.
+     * @param path the image locations joined by SEPARATOR
+     */
+    void enter(String path) {
+        this.reset();
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (!this.descend(path.substring(start, end))) {
+                return;  // The rest of the path no longer exists
+            }
+            start = end + SEPARATOR.length();
+        }  // end of while loop
+    }  // end of enter method
+
+    /**
+     * Selects the category an image on the current page opens, if it opens one.
+     * @param imageLoc the location of the image
+     * @return true if a category was selected
+     */
+    boolean descend(String imageLoc) {
+        AACPage next = (this.currentCategory == this.homepage) ? this.categoryMappings.getOrNull(imageLoc)
+            : this.currentCategory.getSubpage(imageLoc);
+        if (next == null) {
+            return false;
+        }
+        this.parents.push(this.currentCategory);
+        this.currentCategory = next;
+        this.currentLoc = (this.currentLoc == null) ? imageLoc : this.currentLoc + SEPARATOR + imageLoc;
+        return true;
+    }  // end of descend method
+
+    /**
+     * Determines whether selecting an image on the current page opens a category.
+     * @param imageLoc the location of the image
+     * @return true if the image stands for a category
+     */
+    public synchronized boolean isCategory(String imageLoc) {
+        if (this.currentCategory == this.homepage) {
+            return this.categoryMappings.hasKey(imageLoc);
+        }
+        return this.currentCategory.getSubpage(imageLoc) != null;
+    }  // end of isCategory method
+
     /**
      * Returns the current category's name.
      * @return the name of the current category
      */
-    public String getCurrentCategory() {
+    public synchronized String getCurrentCategory() {
         return this.currentCategory.getCategory();  // Return current category's name
     }  // end of getCurrentCategory method
 
@@ -113,56 +638,271 @@ public class AACMappings {
      * Provides an array of all image locations in the current category.
      * @return an array of image locations
      */
-    public String[] getImageLocs() {
-        return this.currentCategory.getImages();  // Return all image locations in the current category
+    public synchronized String[] getImageLocs() {
+        return this.currentCategory.getImageLocs();  // Return all image locations in the current category
+    }  // end of getImageLocs method
+
+    /**
+     * Provides the image locations in a category without selecting it, e.g. to
+     * prefetch its images. A LazyCategory that has not been read is read without
+     * holding the lock, so other threads can keep using the mappings, and the items
+     * are not kept, so the CategoryCache neither loads nor evicts anything.
+     * @param categoryLoc the path of the category (see SEPARATOR)
+     * @return the image locations, or an empty array if there is no such category
+     */
+    public String[] getImageLocs(String categoryLoc) {
+        LazyCategory unread;
+        synchronized (this) {
+            AACPage category = this.resolve(categoryLoc);
+            if (category == null) {
+                return new String[0];
+            }
+            if (!(category instanceof LazyCategory)) {
+                return category.getImageLocs();
+            }
+            unread = (LazyCategory) category;
+            if (unread.isLoaded()) {
+                return unread.items.getImageLocs();  // Not a use, so the cache order is unchanged
+            }
+            unread.channel.retain();  // Stays open even if the watcher swaps the category meanwhile
+        }
+        try {
+            return unread.read().getImageLocs();  // Reads with positional reads, so needs no lock
+        } finally {
+            unread.channel.release();
+        }
     }  // end of getImageLocs method
 
     /**
      * Retrieves the text associated with a selected image.
-     * If the image corresponds to a category, the category is selected, and no text is spoken.
+     * If the image corresponds to a category, the category is selected, and no text is spoken;
+     * back() returns to the page the image was on.
      * @param imageLoc the location of the image
      * @return the text associated with the image or category
      * @throws Exception if the image is not found
      */
-    public String getText(String imageLoc) throws Exception {
-        String result = this.currentCategory.getText(imageLoc);  // Get text for image location
-        if (result.equals("Not Found")) {
-            throw new Exception();  // Throw error if image is not found
-        }
-        if (this.currentCategory.equals(this.homepage)) {
-            try {
-                this.currentCategory = this.categoryMappings.get(imageLoc);  // Switch to category
-            } catch (KeyNotFoundException kne) {
-                throw new Exception();  // Throw error if category is not found
-            }
+    public synchronized String getText(String imageLoc) throws Exception {
+        String result = this.currentCategory.select(imageLoc);  // Get text for image location; throws if it is not found
+        if (!this.descend(imageLoc) && this.currentCategory == this.homepage) {
+            throw new Exception();  // Throw error if category is not found
         }
         return result;  // Return the associated text
     }  // end of getText method
 
+    /**
+     * Returns to the category the current category is nested in, or to the homepage
+     * from a category on the homepage. Does nothing on the homepage.
+     */
+    public synchronized void back() {
+        if (this.parents.isEmpty()) {
+            return;
+        }
+        this.currentCategory = this.parents.pop();
+        int last = this.currentLoc.lastIndexOf(SEPARATOR);
+        this.currentLoc = (last < 0) ? null : this.currentLoc.substring(0, last);
+    }  // end of back method
+
+    /**
+     * Finds the items, in any category at any depth, whose text contains the words
+     * of a query (see SearchIndex). The first search indexes every item, reading
+     * categories that are not loaded; later searches use the index, which is kept
+     * up to date as items are added and removed.
+     * @param query the words to look for
+     * @param limit the most hits to return
+     * @return the best hits, best first
+     */
+    public synchronized SearchIndex.Hit[] search(String query, int limit) {
+        if (this.searchIndex == null) {
+            this.searchIndex = new SearchIndex(this);
+        }
+        return this.searchIndex.search(query, limit);
+    }  // end of search method
+
+    /**
+     * Selects the category a search hit is in, so that getText on its image
+     * location opens it or returns its text, and back() leads up from there.
+     * @param hit the hit
+     */
+    public synchronized void show(SearchIndex.Hit hit) {
+        if (hit.getCategoryLoc() == null) {
+            this.reset();
+        } else {
+            this.enter(hit.getCategoryLoc());
+        }
+    }  // end of show method
+
     /**
      * Resets the current category to the homepage.
      */
-    public void reset() {
+    public synchronized void reset() {
         this.currentCategory = this.homepage;  // Reset to homepage
+        this.currentLoc = null;
+        this.parents.clear();
     }  // end of reset method
 
+    /**
+     * Replays the changes journaled since the data file was last written, and
+     * records every later change in the journal (see MappingsJournal) instead of
+     * rewriting the whole file.
+     * @throws IOException if the journal cannot be read or opened
+     */
+    public synchronized void openJournal() throws IOException {
+        this.requireDataFile();
+        this.journal = new MappingsJournal(this, this.dataFile.toPath());
+    }  // end of openJournal method
+
+    /**
+     * Watches the data file, and applies any change someone else makes to it
+     * (see MappingsWatcher).
+     * @param applyOn where to apply changes, e.g. SwingUtilities::invokeLater
+     * @param refresh called, on the same executor, after a change to the current category
+     * @throws IOException if the file cannot be watched
+     */
+    public synchronized void watch(Executor applyOn, Runnable refresh) throws IOException {
+        this.requireDataFile();
+        this.watcher = new MappingsWatcher(this, applyOn, refresh);
+    }  // end of watch method
+
+    /**
+     * Saves every change made so far. With a journal this only forces the
+     * journal to disk; otherwise a snapshot is written over the data file.
+     * Either way the mappings stay unlocked while the file system is busy,
+     * so other threads can keep making changes.
+     * @throws IOException if the changes cannot be saved
+     */
+    public void save() throws IOException {
+        MappingsJournal journal;
+        AACMappings snapshot = null;
+        synchronized (this) {
+            journal = this.journal;
+            if (journal == null) {
+                this.requireDataFile();
+                snapshot = this.snapshot();
+            }
+        }
+        if (journal != null) {
+            journal.force();
+        } else {
+            try {
+                snapshot.write(this.dataFile.toPath());
+            } finally {
+                snapshot.release();
+            }
+        }
+    }  // end of save method
+
+    /**
+     * Determines whether the mappings can be saved, journaled and watched, which needs a
+     * single data file. Mappings merged from several files can only be written with
+     * writeToFile.
+     * @return true if there is a data file to save to
+     */
+    public synchronized boolean canSave() {
+        return this.dataFile != null;
+    }  // end of canSave method
+
+    /**
+     * Checks that there is a single data file to save to.
+     * @throws IOException if the mappings were merged from several files
+     */
+    void requireDataFile() throws IOException {
+        if (this.dataFile == null) {
+            throw new IOException("Mappings merged from several files can only be saved with writeToFile");
+        }
+    }  // end of requireDataFile method
+
+    /**
+     * Saves every change and closes the journal, if there is one, stops watching the data file,
+     * and closes the file the lazy categories read from. Categories that have not been read
+     * cannot be read afterwards.
+     * @throws IOException if the changes cannot be saved
+     */
+    public void close() throws IOException {
+        MappingsJournal journal;
+        synchronized (this) {
+            journal = this.journal;
+            this.journal = null;  // Later changes are only saved by save()
+            if (this.watcher != null && this.watcher.mappings == this) {
+                this.watcher.close();  // Not a snapshot's: snapshots share the watcher
+            }
+        }
+        if (journal != null) {
+            journal.close();  // Waits for a compaction, which needs the lock
+        }
+        this.release();
+    }  // end of close method
+
+    /**
+     * Gives back these mappings' references to the files their lazy categories read from
+     * (see SharedChannel), e.g. once a snapshot has been written. A file is closed once
+     * nothing else reads from it.
+     */
+    synchronized void release() {
+        for (SharedChannel channel : this.channels) {
+            channel.release();
+        }
+        this.channels.clear();
+    }  // end of release method
+
     /**
      * Writes the current AACMappings to a file, including all categories and their associated images and text.
+     * The file is replaced, never appended to. As with save(), a snapshot is written, so the mappings
+     * stay unlocked while the file is written and the file holds them as they were at one moment.
      * @param filename the file to write the imageToTextMap to
      */
     public void writeToFile(String filename) {
-        try (FileWriter writer = new FileWriter(filename, true)) {
-            AACCategory currentCategory;
-            // Write each category and its images to the file
-            for (KVPair<String, AACCategory> categoryEntry : this.categoryMappings) {
-                writer.write(categoryEntry.getKey() + " " + this.homepage.getText(categoryEntry.getKey()) + "\n");  // Write category
-                currentCategory = categoryEntry.getValue();  // Get current category
-                for (KVPair<String, String> imagePair : currentCategory.imageToTextMap) {
-                    writer.write(">" + imagePair.getKey() + " " + imagePair.getValue() + "\n");  // Write image and text
-                }
-            }
+        AACMappings snapshot = this.snapshot();
+        try {
+            snapshot.write(new File(filename).toPath());
         } catch (IOException e) {
             System.err.println("Error writing to file");
-        }  // end of try-catch
+        } finally {
+            snapshot.release();
+        }  // end of try-catch-finally
     }  // end of writeToFile method
+
+    /**
+     * Writes the current AACMappings, in the same format as writeToFile, to a stream such as
+     * a GZIPOutputStream or System.out. The stream is flushed but not closed. As with
+     * writeToFile, a snapshot is written.
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        AACMappings snapshot = this.snapshot();
+        try {
+            MappingsExporter.local().export(snapshot, out);
+        } finally {
+            snapshot.release();
+        }
+    }  // end of writeTo method
+
+    /**
+     * Writes the current AACMappings to a temporary file next to the target, forces it to
+     * disk and then renames it over the target, so a crash leaves either the old file or
+     * the new one. A target ending in ".vocab" is written as a compiled vocabulary, which
+     * MappedVocabulary.write replaces in the same way.
+     * @param target the file to write
+     * @throws IOException if the file cannot be written
+     */
+    void write(Path target) throws IOException {
+        if (target.getFileName().toString().endsWith(MappedVocabulary.EXTENSION)) {
+            MappedVocabulary.write(this, target.toString());
+            return;
+        }
+        Path directory = target.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                MappingsExporter.local().export(this, channel);
+                channel.force(true);
+            }
+            if (this.watcher != null && target.toAbsolutePath().equals(this.watcher.file)) {
+                this.watcher.expect(temp);  // Our own change, not to be reloaded
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);  // Only left behind if something failed
+        }
+    }  // end of write method
 }  // end of AACMappings class
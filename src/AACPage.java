@@ -18,9 +18,18 @@ public interface AACPage {
 	 */
 	public void addItem(String imageLoc, String text);
 	
+	/**
+	 * Removes the image location and its text from the page. The
+	 * other images keep their order. Does nothing if the image
+	 * is not on the page
+	 * @param imageLoc the location of the image
+	 */
+	public void removeItem(String imageLoc);
+	
 	/**
 	 * Returns an array of all the images to be displayed on
-	 * the page
+	 * the page. The array may be shared with other callers, so
+	 * it must not be changed
 	 * @return the array of image locations; if there are no images,
 	 * it should return an empty array
 	 */
@@ -54,5 +63,33 @@ public interface AACPage {
 	 */
 	public boolean hasImage(String imageLoc);
 	
+	/**
+	 * Returns a copy of this page that later changes to this
+	 * page do not affect
+	 * @return the copy of the page
+	 */
+	public AACPage snapshot();
+	
+	/**
+	 * Returns the page that opens when the image is selected, if the
+	 * image stands for a nested category
+	 * @param imageLoc the location of the image
+	 * @return the nested page, or null if the image only has text to speak
+	 */
+	public default AACPage getSubpage(String imageLoc) {
+		return null;
+	}
+	
+	/**
+	 * Makes an image already on the page open the given page when it
+	 * is selected
+	 * @param imageLoc the location of the image
+	 * @param page the nested page
+	 * @throws UnsupportedOperationException if the page cannot hold
+	 * nested categories
+	 */
+	public default void setSubpage(String imageLoc, AACPage page) {
+		throw new UnsupportedOperationException(getCategory() + " cannot hold nested categories");
+	}
 	
 }
@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves a set of AACMappings in the background once edits stop coming.
+ *
+ * Every change restarts a quiet period; the save runs when the quiet
+ * period passes without another change, so a burst of edits costs one
+ * save. So that a steady stream of edits is still saved, no change waits
+ * longer than the maximum delay. Saves run on a dedicated thread and
+ * AACMappings.save() only holds the mappings' lock long enough to take a
+ * snapshot, so the Swing event thread never waits for the file system.
+ *
+ * The service also reports how long the last save took and how many
+ * changes are waiting to be saved, e.g. for a status display.
+ *
+ * @author Slok Rajbhandari
+ */
+public class AutosaveService {
+    /**
+     * Constants
+     */
+    static final long DEFAULT_QUIET_MS = 1000;   // Pause in editing that triggers a save
+    static final long DEFAULT_MAX_DELAY_MS = 10000;   // Longest a change waits to be saved
+
+    /**
+     * Fields
+     */
+    AACMappings mappings;   // The mappings to save
+    long quietMillis;   // Pause in editing that triggers a save
+    long maxDelayMillis;   // Longest a change waits to be saved
+    ScheduledExecutorService saver;   // The thread that saves
+    ScheduledFuture<?> scheduled;   // The save scheduled most recently, or null
+    long firstPending;   // When the oldest unsaved change was made, from System.nanoTime()
+    int pendingChanges;   // Changes made since the last save started
+    long saves;   // Saves completed
+    long lastSaveNanos = -1;   // How long the last save took; -1 before the first
+    IOException lastError;   // Why the last save failed; null if it succeeded
+
+    /**
+     * Constructor
+     * Creates a service that saves after DEFAULT_QUIET_MS without a change.
+     * @param mappings the mappings to save
+     */
+    public AutosaveService(AACMappings mappings) {
+        this(mappings, DEFAULT_QUIET_MS, DEFAULT_MAX_DELAY_MS);
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Creates a service and registers it to hear of every change to the mappings.
+     * @param mappings the mappings to save
+     * @param quietMillis the pause in editing that triggers a save
+     * @param maxDelayMillis the longest a change may wait to be saved
+     */
+    public AutosaveService(AACMappings mappings, long quietMillis, long maxDelayMillis) {
+        this.mappings = mappings;
+        this.quietMillis = quietMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.saver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mappings.addChangeListener(this::changed);
+    }  // end of constructor
+
+    /**
+     * Records a change and (re)schedules the save for the end of the quiet
+     * period, or sooner if the oldest unsaved change would wait too long.
+     */
+    public synchronized void changed() {
+        long now = System.nanoTime();
+        if (this.pendingChanges++ == 0) {
+            this.firstPending = now;
+        }
+        long deadline = this.firstPending + TimeUnit.MILLISECONDS.toNanos(this.maxDelayMillis);
+        long delay = Math.min(TimeUnit.MILLISECONDS.toNanos(this.quietMillis), Math.max(0, deadline - now));
+        this.schedule(delay);
+    }  // end of changed method
+
+    /**
+     * Saves as soon as possible, without waiting for the save to finish.
+     */
+    public synchronized void saveNow() {
+        this.schedule(0);
+    }  // end of saveNow method
+
+    /**
+     * Returns the number of changes made since the last save started.
+     * @return the number of unsaved changes
+     */
+    public synchronized int getPendingChanges() {
+        return this.pendingChanges;
+    }  // end of getPendingChanges method
+
+    /**
+     * Returns how long the last save took.
+     * @return the time in nanoseconds, or -1 if nothing has been saved yet
+     */
+    public synchronized long getLastSaveNanos() {
+        return this.lastSaveNanos;
+    }  // end of getLastSaveNanos method
+
+    /**
+     * Returns the number of saves that have completed.
+     * @return the number of saves
+     */
+    public synchronized long getSaves() {
+        return this.saves;
+    }  // end of getSaves method
+
+    /**
+     * Returns why the last save failed.
+     * @return the error, or null if the last save succeeded
+     */
+    public synchronized IOException getLastError() {
+        return this.lastError;
+    }  // end of getLastError method
+
+    /**
+     * Saves any unsaved changes and stops the saving thread.
+     * @throws IOException if the final save fails
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.scheduled != null) {
+                this.scheduled.cancel(false);
+                this.scheduled = null;
+            }
+        }
+        this.saver.shutdown();
+        try {
+            this.saver.awaitTermination(1, TimeUnit.MINUTES);  // Let a save in progress finish
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.mappings.save();
+    }  // end of close method
+
+    /**
+     * Replaces the scheduled save with one after the given delay.
+     * @param delayNanos the delay in nanoseconds
+     */
+    void schedule(long delayNanos) {
+        if (this.saver.isShutdown()) {
+            return;  // Closing; close() saves
+        }
+        if (this.scheduled != null) {
+            this.scheduled.cancel(false);  // A save already running is not interrupted
+        }
+        this.scheduled = this.saver.schedule(this::save, delayNanos, TimeUnit.NANOSECONDS);
+    }  // end of schedule method
+
+    /**
+     * Saves the mappings and records how it went. Runs on the saving thread.
+     */
+    void save() {
+        int saving;
+        synchronized (this) {
+            saving = this.pendingChanges;
+            this.pendingChanges = 0;
+        }
+        long start = System.nanoTime();
+        IOException error = null;
+        try {
+            this.mappings.save();
+        } catch (IOException e) {
+            error = e;
+            System.err.println("Autosave failed: " + e.getMessage());
+        }
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            this.lastError = error;
+            if (error == null) {
+                this.saves++;
+                this.lastSaveNanos = elapsed;
+            } else if (saving > 0) {
+                if (this.pendingChanges == 0) {
+                    this.firstPending = start;
+                }
+                this.pendingChanges += saving;  // Still unsaved; tried again after the next change
+            }
+        }
+    }  // end of save method
+}  // end of AutosaveService class
@@ -0,0 +1,104 @@
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.NullKeyException;
+
+/**
+ * Keeps the loaded LazyCategories within a memory budget by unloading
+ * the ones that have gone unused longest. Sizes are measured in bytes of
+ * the mappings file, which is roughly proportional to the memory the
+ * items take once loaded.
+ *
+ * Recency is kept in an AssociativeArray, which preserves insertion order
+ * and removes in O(1): using a category moves it to the end, so the
+ * least recently used category is always first. Pinned (edited)
+ * categories are not tracked, so they are never unloaded, but they still
+ * count against the budget.
+ *
+ * @author Slok Rajbhandari
+ */
+public class CategoryCache {
+    /**
+     * Constants
+     */
+    static final long DEFAULT_BUDGET = 16L << 20;   // 16 MiB of mappings text
+
+    /**
+     * Fields
+     */
+    long budget;   // The most bytes to keep loaded
+    long loadedBytes;   // The bytes currently loaded
+    AssociativeArray<LazyCategory, LazyCategory> recent;   // Unpinned loaded categories, least recently used first
+
+    /**
+     * Constructor
+     * Creates a cache with the given budget.
+     * @param budget the most bytes of categories to keep loaded
+     */
+    public CategoryCache(long budget) {
+        this.budget = budget;
+        this.recent = new AssociativeArray<>();
+    }  // end of constructor
+
+    /**
+     * Returns the number of bytes of categories currently loaded.
+     * @return the loaded bytes
+     */
+    public long getLoadedBytes() {
+        return this.loadedBytes;
+    }  // end of getLoadedBytes method
+
+    /**
+     * Records that a category has just been loaded, and unloads others
+     * if that puts the cache over budget.
+     * @param category the category
+     */
+    void loaded(LazyCategory category) {
+        this.loadedBytes += category.size();
+        this.used(category);
+        this.evict(category);
+    }  // end of loaded method
+
+    /**
+     * Records that a category has just been used.
+     * @param category the category
+     */
+    void used(LazyCategory category) {
+        this.recent.remove(category);
+        try {
+            this.recent.set(category, category);  // Move to the end
+        } catch (NullKeyException nke) {
+            // Cannot happen: category is never null
+        }
+    }  // end of used method
+
+    /**
+     * Records that a category has been unloaded.
+     * @param category the category
+     */
+    void unloaded(LazyCategory category) {
+        this.recent.remove(category);
+        this.loadedBytes -= category.size();
+    }  // end of unloaded method
+
+    /**
+     * Records that a category has been edited and must stay loaded.
+     * @param category the category
+     */
+    void pinned(LazyCategory category) {
+        this.recent.remove(category);
+    }  // end of pinned method
+
+    /**
+     * Unloads the least recently used categories until the cache is
+     * within budget.
+     * @param keep a category not to unload
+     */
+    void evict(LazyCategory keep) {
+        while (this.loadedBytes > this.budget && this.recent.size() > 0) {
+            LazyCategory oldest = this.recent.iterator().next().getKey();
+            if (oldest == keep) {
+                break;  // Only the category in use is left
+            }
+            oldest.unload();
+        }  // end of while loop
+    }  // end of evict method
+}  // end of CategoryCache class
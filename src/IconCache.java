@@ -0,0 +1,321 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.NullKeyException;
+
+/**
+ * Keeps decoded icons, keyed by image location, so that redrawing a page
+ * of the AAC neither reads nor decodes its images again.
+ *
+ * Icons are kept within a budget of decoded pixel bytes. As in
+ * CategoryCache, recency is kept in an AssociativeArray in insertion
+ * order: using an icon moves it to the end, so the least recently used
+ * icon is first and is evicted first. An evicted icon is not dropped at
+ * once but held by a SoftReference, so it comes back for free until the
+ * garbage collector needs the memory. Images that cannot be read are not
+ * cached: each time one is asked for it is looked for again, so a file
+ * that is added or fixed later shows up without a restart.
+ *
+ * Images are decoded with ImageIO rather than Toolkit, whose own cache
+ * keeps every image it has ever loaded. Given a ThumbnailAtlas, the cache
+ * takes images from it instead, already scaled to fit a grid cell.
+ *
+ * @author Slok Rajbhandari
+ */
+public class IconCache {
+    /**
+     * Constants
+     */
+    static final long DEFAULT_BUDGET = 32L << 20;   // 32 MiB of decoded pixels
+
+    /**
+     * Fields
+     */
+    long budget;   // The most bytes of icons to keep
+    long bytes;   // The bytes of the icons kept
+    AssociativeArray<String, Icon> recent;   // The icons kept, least recently used first
+    AssociativeArray<String, Icon> evicted;   // Icons evicted, which the garbage collector may clear
+    ReferenceQueue<ImageIcon> cleared;   // Evicted icons the garbage collector has cleared
+    long hits;   // Icons found among those kept
+    long softHits;   // Icons found among those evicted
+    long misses;   // Icons that had to be read
+    long evictions;   // Icons evicted to stay within budget
+    ThumbnailAtlas atlas;   // Scaled copies of the images; null to read the originals
+
+    /**
+     * Icon
+     * A cached icon, strongly held while kept and softly once evicted.
+     */
+    static class Icon extends SoftReference<ImageIcon> {
+        String imageLoc;   // Where the image came from
+        ImageIcon icon;   // The icon while kept; null once evicted
+        long size;   // The bytes of its pixels
+
+        /**
+         * Constructor
+         * @param imageLoc where the image came from
+         * @param icon the icon
+         * @param size the bytes of its pixels
+         * @param queue where to report the icon once cleared
+         */
+        Icon(String imageLoc, ImageIcon icon, long size, ReferenceQueue<ImageIcon> queue) {
+            super(icon, queue);
+            this.imageLoc = imageLoc;
+            this.icon = icon;
+            this.size = size;
+        }  // end of constructor
+    }  // end of Icon class
+
+    /**
+     * Constructor
+     * Creates a cache with the given budget.
+     * @param budget the most bytes of decoded icons to keep
+     */
+    public IconCache(long budget) {
+        this(budget, null);
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Creates a cache with the given budget that takes images from an atlas
+     * of thumbnails, which makes any that are missing.
+     * @param budget the most bytes of decoded icons to keep
+     * @param atlas the thumbnails, or null to read the original images
+     */
+    public IconCache(long budget, ThumbnailAtlas atlas) {
+        this.budget = budget;
+        this.atlas = atlas;
+        this.recent = new AssociativeArray<>();
+        this.evicted = new AssociativeArray<>();
+        this.cleared = new ReferenceQueue<>();
+    }  // end of constructor
+
+    /**
+     * Returns the icon for an image, reading it only if it is not cached.
+     * The cache is not locked while the image is read, so other threads
+     * can use it meanwhile (see IconLoader).
+     * @param imageLoc the location of the image
+     * @return the icon; empty, and not cached, if the image cannot be read
+     */
+    public ImageIcon get(String imageLoc) {
+        ImageIcon icon = this.getIfCached(imageLoc);
+        if (icon != null) {
+            return icon;
+        }
+        icon = this.read(imageLoc);
+        if (icon == null) {
+            synchronized (this) {
+                this.misses++;
+            }
+            return new ImageIcon();  // Looked for again next time
+        }
+        return this.put(imageLoc, icon);
+    }  // end of get method
+
+    /**
+     * Returns the icon for an image if it is cached, without reading it.
+     * @param imageLoc the location of the image
+     * @return the icon, or null if it is not cached
+     */
+    public synchronized ImageIcon getIfCached(String imageLoc) {
+        this.purge();
+        Icon cached = this.recent.getOrNull(imageLoc);
+        if (cached != null) {
+            this.hits++;
+            this.recent.remove(imageLoc);
+            this.keep(cached);  // Move to the end
+            return cached.icon;
+        }
+        cached = this.evicted.getOrNull(imageLoc);
+        ImageIcon icon = (cached == null) ? null : cached.get();
+        if (icon != null) {
+            this.softHits++;
+            this.evicted.remove(imageLoc);
+            cached.icon = icon;
+            this.bytes += cached.size;
+            this.keep(cached);
+            this.evict();
+        }
+        return icon;
+    }  // end of getIfCached method
+
+    /**
+     * Returns the icon for an image if it is cached, without counting a hit
+     * or making it the most recently used, e.g. to decide whether to
+     * prefetch it.
+     * @param imageLoc the location of the image
+     * @return the icon, or null if it is not cached
+     */
+    public synchronized ImageIcon peek(String imageLoc) {
+        Icon cached = this.recent.getOrNull(imageLoc);
+        if (cached == null) {
+            cached = this.evicted.getOrNull(imageLoc);
+        }
+        return (cached == null) ? null : cached.get();
+    }  // end of peek method
+
+    /**
+     * Adds an icon that has just been read, unless another thread read it
+     * first.
+     * @param imageLoc the location of the image
+     * @param icon the icon
+     * @return the icon now cached
+     */
+    synchronized ImageIcon put(String imageLoc, ImageIcon icon) {
+        this.misses++;
+        Icon cached = this.recent.getOrNull(imageLoc);
+        if (cached != null) {
+            return cached.icon;  // Read twice at once
+        }
+        this.evicted.remove(imageLoc);
+        this.bytes += size(icon);
+        this.keep(new Icon(imageLoc, icon, size(icon), this.cleared));
+        this.evict();
+        return icon;
+    }  // end of put method
+
+    /**
+     * Forgets an image, e.g. because its file has changed.
+     * @param imageLoc the location of the image
+     */
+    public synchronized void invalidate(String imageLoc) {
+        Icon cached = this.recent.getOrNull(imageLoc);
+        if (cached != null) {
+            this.recent.remove(imageLoc);
+            this.bytes -= cached.size;
+        }
+        this.evicted.remove(imageLoc);
+    }  // end of invalidate method
+
+    /**
+     * Returns the number of bytes of icons kept.
+     * @return the bytes
+     */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }  // end of getBytes method
+
+    /**
+     * Returns the number of times an icon was found among those kept.
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }  // end of getHits method
+
+    /**
+     * Returns the number of times an icon was found among those evicted
+     * before the garbage collector cleared it.
+     * @return the number of soft hits
+     */
+    public synchronized long getSoftHits() {
+        return this.softHits;
+    }  // end of getSoftHits method
+
+    /**
+     * Returns the number of times an icon had to be read and decoded.
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }  // end of getMisses method
+
+    /**
+     * Returns the number of icons evicted to stay within budget.
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }  // end of getEvictions method
+
+    /**
+     * Summarizes the cache's metrics.
+     * @return the summary
+     */
+    public synchronized String toString() {
+        return "icons: " + this.recent.size() + " kept (" + (this.bytes >> 10) + " KiB of "
+            + (this.budget >> 10) + "), " + this.hits + " hits, " + this.softHits + " soft hits, "
+            + this.misses + " misses, " + this.evictions + " evictions";
+    }  // end of toString method
+
+    /**
+     * Adds an icon to the end of those kept.
+     * @param cached the icon
+     */
+    void keep(Icon cached) {
+        try {
+            this.recent.set(cached.imageLoc, cached);
+        } catch (NullKeyException nke) {
+            // Cannot happen: image locations are never null
+        }
+    }  // end of keep method
+
+    /**
+     * Evicts the least recently used icons until the cache is within
+     * budget, keeping at least the icon used last.
+     */
+    void evict() {
+        while (this.bytes > this.budget && this.recent.size() > 1) {
+            Icon oldest = this.recent.iterator().next().getValue();
+            this.recent.remove(oldest.imageLoc);
+            this.bytes -= oldest.size;
+            oldest.icon = null;  // Only the soft reference holds it now
+            try {
+                this.evicted.set(oldest.imageLoc, oldest);
+            } catch (NullKeyException nke) {
+                // Cannot happen: image locations are never null
+            }
+            this.evictions++;
+        }  // end of while loop
+    }  // end of evict method
+
+    /**
+     * Forgets the evicted icons the garbage collector has cleared.
+     */
+    void purge() {
+        Object reference;
+        while ((reference = this.cleared.poll()) != null) {
+            Icon gone = (Icon) reference;
+            if (this.evicted.getOrNull(gone.imageLoc) == gone) {
+                this.evicted.remove(gone.imageLoc);
+            }
+        }  // end of while loop
+    }  // end of purge method
+
+    /**
+     * Reads and decodes an image, or its thumbnail if there is an atlas.
+     * @param imageLoc the location of the image
+     * @return the icon, or null if the image cannot be read
+     */
+    ImageIcon read(String imageLoc) {
+        try {
+            BufferedImage image = (this.atlas != null) ? this.atlas.load(imageLoc) : ImageIO.read(new File(imageLoc));
+            if (image != null) {
+                return new ImageIcon(image);
+            }
+            System.err.println("Cannot decode " + imageLoc);
+        } catch (IOException e) {
+            System.err.println("Cannot read " + imageLoc + ": " + e.getMessage());
+        }
+        return null;
+    }  // end of read method
+
+    /**
+     * Measures the pixels of an icon.
+     * @param icon the icon
+     * @return the bytes its pixels take
+     */
+    static long size(ImageIcon icon) {
+        if (!(icon.getImage() instanceof BufferedImage)) {
+            return 0;  // Not decoded by this cache
+        }
+        DataBuffer pixels = ((BufferedImage) icon.getImage()).getRaster().getDataBuffer();
+        return (long) pixels.getSize() * pixels.getNumBanks() * DataBuffer.getDataTypeSize(pixels.getDataType()) / 8;
+    }  // end of size method
+}  // end of IconCache class
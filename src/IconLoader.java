@@ -0,0 +1,155 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.swing.ImageIcon;
+
+/**
+ * Reads and decodes icons in the background, so that the AAC can draw a
+ * page at once and fill in its images as they are decoded, and can decode
+ * the pages the user is likely to go to next before they get there.
+ *
+ * Decoding runs on a small pool of daemon threads with a bounded queue.
+ * The images on the page being drawn are requested first, then the
+ * prefetches, which are only queued while the queue is less than half
+ * full and are dropped otherwise. A request the queue has no room for is
+ * never dropped: it is decoded on the calling thread instead, as it was
+ * before there was a loader. Every decoded icon goes into the
+ * IconCache, and the icons that were asked for are handed over on the
+ * delivery executor, e.g. the Swing event thread.
+ *
+ * Moving to another page calls cancel(): the queue is emptied, and any
+ * decode already running still fills the cache but no longer delivers its
+ * icon, so nothing lands on a page that is gone.
+ *
+ * @author Slok Rajbhandari
+ */
+public class IconLoader {
+    /**
+     * Constants
+     */
+    static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));   // Decoding threads
+    static final int QUEUE_CAPACITY = 256;   // Decodes waiting at most
+
+    /**
+     * Fields
+     */
+    IconCache cache;   // Where decoded icons go
+    Executor deliverOn;   // Where requested icons are handed over
+    ThreadPoolExecutor decoders;   // The decoding threads and their queue
+    volatile int generation;   // Incremented by cancel(); work from earlier generations is stale
+
+    /**
+     * Constructor
+     * Creates a loader with its own decoding threads.
+     * @param cache where decoded icons go
+     * @param deliverOn where to hand over requested icons, e.g. SwingUtilities::invokeLater
+     */
+    public IconLoader(IconCache cache, Executor deliverOn) {
+        this.cache = cache;
+        this.deliverOn = deliverOn;
+        this.decoders = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "icon-decoder");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);  // Leave the event thread ahead
+                return thread;
+            });  // Rejects work the queue has no room for (see request and prefetch)
+    }  // end of constructor
+
+    /**
+     * Returns an icon at once if it is cached, and otherwise decodes it in
+     * the background and hands it over when it is ready, unless cancel() is
+     * called first. If the queue is full, or the loader is closed, the icon
+     * is decoded on the calling thread and returned.
+     * @param imageLoc the location of the image
+     * @param ready given the icon on the delivery executor, if it was decoded in the background
+     * @return the icon, or null if it is being decoded
+     */
+    public ImageIcon request(String imageLoc, Consumer<ImageIcon> ready) {
+        ImageIcon icon = this.cache.getIfCached(imageLoc);
+        if (icon != null) {
+            return icon;
+        }
+        int requested = this.generation;
+        try {
+            this.decoders.execute(() -> {
+                if (this.generation != requested) {
+                    return;  // Cancelled while waiting
+                }
+                ImageIcon decoded = this.cache.get(imageLoc);
+                this.deliverOn.execute(() -> {
+                    if (this.generation == requested) {
+                        ready.accept(decoded);
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            return this.cache.get(imageLoc);  // No room: slower, but the image still shows
+        }
+        return null;
+    }  // end of request method
+
+    /**
+     * Decodes an image into the cache in the background, if there is room
+     * in the queue. An image already cached is left where it is in the
+     * cache's order, since it has not been used.
+     * @param imageLoc the location of the image
+     */
+    public void prefetch(String imageLoc) {
+        if (this.cache.peek(imageLoc) == null) {
+            this.prefetch(() -> new String[] { imageLoc });
+        }
+    }  // end of prefetch method
+
+    /**
+     * Decodes some images into the cache in the background, if there is room
+     * in the queue. The images are listed on a decoding thread, e.g. because
+     * listing them means reading a category, and decoding stops between
+     * images if cancel() is called. Images already cached are skipped.
+     * @param imageLocs lists the locations of the images
+     */
+    public void prefetch(Supplier<String[]> imageLocs) {
+        if (this.decoders.getQueue().remainingCapacity() <= QUEUE_CAPACITY / 2) {
+            return;  // Leave room for the images on the page
+        }
+        int requested = this.generation;
+        try {
+            this.decoders.execute(() -> {
+                if (this.generation != requested) {
+                    return;
+                }
+                for (String imageLoc : imageLocs.get()) {
+                    if (this.generation != requested) {
+                        return;  // Cancelled part way through
+                    }
+                    if (this.cache.peek(imageLoc) == null) {
+                        this.cache.get(imageLoc);
+                    }
+                }  // end of for loop
+            });
+        } catch (RejectedExecutionException e) {
+            // Filled up or closed since the check: a prefetch can be skipped
+        }
+    }  // end of prefetch method
+
+    /**
+     * Drops every decode that has not started, and stops handing over
+     * icons that were requested before now.
+     */
+    public void cancel() {
+        this.generation++;
+        this.decoders.getQueue().clear();
+    }  // end of cancel method
+
+    /**
+     * Stops the decoding threads.
+     */
+    public void close() {
+        this.cancel();
+        this.decoders.shutdownNow();
+    }  // end of close method
+}  // end of IconLoader class
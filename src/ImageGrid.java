@@ -0,0 +1,222 @@
+import java.awt.Graphics;
+import java.awt.GridLayout;
+import java.awt.event.ActionListener;
+import java.util.function.LongConsumer;
+import javax.swing.ImageIcon;
+import javax.swing.JButton;
+import javax.swing.JPanel;
+
+/**
+ * The grid of images in the AAC, made of a fixed pool of buttons that is
+ * reused for every page.
+ *
+ * Showing a page only changes the cells whose image or action command
+ * differs from before: their icon and command are set, which repaints
+ * just those buttons, and nothing is added to or removed from the
+ * component tree, so no layout is redone. Icons that are not cached are
+ * requested from an IconLoader and set when they arrive.
+ *
+ * The grid also measures click-to-paint latency: clicked() notes the time
+ * of a click, and once every cell the click changed has been painted, the
+ * time since the click is recorded and passed to a listener.
+ *
+ * @author Slok Rajbhandari
+ */
+public class ImageGrid extends JPanel {
+    /**
+     * Constants
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Fields
+     */
+    int rows;   // Cells down
+    int columns;   // Cells across
+    Cell[] cells;   // The pool, row by row
+    IconLoader loader;   // Where icons come from
+    LongConsumer painted;   // Told each click-to-paint latency, in nanoseconds
+    long clickNanos;   // When the click being measured happened, from System.nanoTime(); 0 if none
+    int unpainted;   // Cells changed since the click that have not been painted yet
+    long measured;   // Clicks measured
+    long totalNanos;   // Sum of the latencies measured
+    long maxNanos;   // The longest latency measured
+
+    /**
+     * Cell
+     * One button of the grid, which reports when it paints.
+     */
+    class Cell extends JButton {
+        private static final long serialVersionUID = 1L;
+        String imageLoc;   // The image shown; null if the cell is empty
+        boolean iconSet;   // Whether the icon has been set, or is still being decoded
+        boolean changed;   // Whether the cell changed since the click being measured
+
+        /**
+         * Paints the button, then records the paint for the latency measurement.
+         * @param g the graphics to paint with
+         */
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            if (this.changed) {
+                this.changed = false;
+                ImageGrid.this.cellPainted();
+            }
+        }  // end of paintComponent method
+    }  // end of Cell class
+
+    /**
+     * Constructor
+     * Creates a grid and its pool of buttons.
+     * @param rows the number of cells down
+     * @param columns the number of cells across
+     * @param listener told when a cell is clicked, with the cell's action command
+     * @param loader where icons come from
+     * @param painted told each click-to-paint latency, in nanoseconds
+     */
+    public ImageGrid(int rows, int columns, ActionListener listener, IconLoader loader, LongConsumer painted) {
+        super(new GridLayout(rows, columns));
+        this.rows = rows;
+        this.columns = columns;
+        this.loader = loader;
+        this.painted = painted;
+        this.cells = new Cell[rows * columns];
+        for (int i = 0; i < this.cells.length; i++) {
+            this.cells[i] = new Cell();
+            this.cells[i].addActionListener(listener);
+            this.cells[i].setVisible(false);
+            this.add(this.cells[i]);
+        }
+    }  // end of constructor
+
+    /**
+     * Returns the number of cells down.
+     * @return the number of rows
+     */
+    public int getRows() {
+        return this.rows;
+    }  // end of getRows method
+
+    /**
+     * Returns the number of cells across.
+     * @return the number of columns
+     */
+    public int getColumns() {
+        return this.columns;
+    }  // end of getColumns method
+
+    /**
+     * Notes that a click has happened, to measure how long until the grid
+     * is painted in response.
+     */
+    public void clicked() {
+        this.clickNanos = System.nanoTime();
+        this.unpainted = 0;
+        for (Cell cell : this.cells) {
+            cell.changed = false;
+        }
+    }  // end of clicked method
+
+    /**
+     * Shows a page of images. Cells past the last image are hidden.
+     * @param imageLocs the images
+     * @param commands the action command of each image
+     * @param from the first image to show
+     * @return the number of cells that changed
+     */
+    public int show(String[] imageLocs, String[] commands, int from) {
+        int changed = 0;
+        for (int i = 0; i < this.cells.length; i++) {
+            Cell cell = this.cells[i];
+            if (from + i >= imageLocs.length) {
+                if (cell.imageLoc != null) {
+                    cell.imageLoc = null;
+                    cell.setIcon(null);
+                    cell.setVisible(false);
+                    changed++;
+                }
+                continue;
+            }
+            String imageLoc = imageLocs[from + i];
+            String command = commands[from + i];
+            if (imageLoc.equals(cell.imageLoc) && command.equals(cell.getActionCommand())) {
+                if (!cell.iconSet) {
+                    this.request(cell);  // The last request was cancelled
+                }
+                continue;
+            }
+            cell.imageLoc = imageLoc;
+            cell.setActionCommand(command);
+            this.request(cell);
+            cell.setVisible(true);
+            if (this.clickNanos != 0) {
+                cell.changed = true;
+                this.unpainted++;
+            }
+            changed++;
+        }  // end of for loop
+        if (this.unpainted == 0) {
+            this.clickNanos = 0;  // Nothing will be painted
+        }
+        return changed;
+    }  // end of show method
+
+    /**
+     * Returns the number of clicks whose latency has been measured.
+     * @return the number of clicks
+     */
+    public long getMeasured() {
+        return this.measured;
+    }  // end of getMeasured method
+
+    /**
+     * Returns the average click-to-paint latency.
+     * @return the latency in nanoseconds, or 0 if none has been measured
+     */
+    public long getMeanLatencyNanos() {
+        return (this.measured == 0) ? 0 : this.totalNanos / this.measured;
+    }  // end of getMeanLatencyNanos method
+
+    /**
+     * Returns the longest click-to-paint latency.
+     * @return the latency in nanoseconds
+     */
+    public long getMaxLatencyNanos() {
+        return this.maxNanos;
+    }  // end of getMaxLatencyNanos method
+
+    /**
+     * Sets a cell's icon if it is cached, and otherwise blanks the cell and
+     * sets the icon once it has been decoded.
+     * @param cell the cell
+     */
+    void request(Cell cell) {
+        String imageLoc = cell.imageLoc;
+        ImageIcon icon = this.loader.request(imageLoc, decoded -> {
+            if (imageLoc.equals(cell.imageLoc)) {
+                cell.setIcon(decoded);
+                cell.iconSet = true;
+            }
+        });
+        cell.setIcon(icon);
+        cell.iconSet = icon != null;
+    }  // end of request method
+
+    /**
+     * Records that a changed cell has been painted, and the latency once
+     * they all have.
+     */
+    void cellPainted() {
+        if (this.clickNanos == 0 || --this.unpainted > 0) {
+            return;
+        }
+        long latency = System.nanoTime() - this.clickNanos;
+        this.clickNanos = 0;
+        this.measured++;
+        this.totalNanos += latency;
+        this.maxNanos = Math.max(this.maxNanos, latency);
+        if (this.painted != null) {
+            this.painted.accept(latency);
+        }
+    }  // end of cellPainted method
+}  // end of ImageGrid class
@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+
+/**
+ * A category of a text mappings file whose items are only read when they
+ * are first needed. Until then it holds just the category's name and the
+ * range of the file its lines occupy.
+ *
+ * Once loaded, the items are kept in an ordinary AACCategory. A
+ * CategoryCache may unload the category again to stay within its memory
+ * budget, unless the category has been edited: edited categories are
+ * pinned, since their items can no longer be read back from the file.
+ *
+ * Reading a category reads only its own items. An item with categories
+ * nested under it becomes another LazyCategory over just those lines, so
+ * each level of a deep tree is read only when it is entered. Nested
+ * categories have no cache: they are dropped along with the category
+ * they are in, whose size covers them.
+ *
+ * Items are read through a channel opened when the file was indexed, so
+ * they still come from the same version of the file after it has been
+ * replaced on disk (e.g. by a journal compaction). The channel is shared
+ * by every category of the file and owned by the AACMappings holding
+ * them (see SharedChannel), which closes it.
+ *
+ * @author Slok Rajbhandari
+ */
+public class LazyCategory implements AACPage {
+    /**
+     * Fields
+     */
+    Path file;   // The mappings file, for messages
+    SharedChannel channel;   // The mappings file, as it was when indexed
+    String categoryName;   // The name of the category
+    long start;   // Position of the category's line in the file
+    long end;   // Position just past the category's last item
+    int firstLine;   // Line number of the category's line
+    int depth;   // Number of '>'s before the category's line
+    CategoryCache cache;   // Decides when to unload the items; null to keep them
+    AACCategory items;   // The items; null until loaded, or once unloaded
+    boolean dirty;   // Whether the items have been edited since they were read
+
+    /**
+     * Constructor
+     * Creates a category whose lines occupy the given range of a file.
+     * @param file the mappings file
+     * @param channel the file, open for reading
+     * @param name the name of the category
+     * @param start the position of the category's line
+     * @param end the position just past the category's last item
+     * @param firstLine the line number of the category's line
+     * @param cache the cache that may unload the items, or null
+     */
+    public LazyCategory(Path file, SharedChannel channel, String name, long start, long end, int firstLine,
+            CategoryCache cache) {
+        this(file, channel, name, start, end, firstLine, 0, cache);
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Creates a category, possibly nested in another, whose lines occupy
+     * the given range of a file.
+     * @param file the mappings file
+     * @param channel the file, open for reading
+     * @param name the name of the category
+     * @param start the position of the category's line
+     * @param end the position just past the last line nested in the category
+     * @param firstLine the line number of the category's line
+     * @param depth the number of '>'s before the category's line
+     * @param cache the cache that may unload the items, or null
+     */
+    public LazyCategory(Path file, SharedChannel channel, String name, long start, long end, int firstLine,
+            int depth, CategoryCache cache) {
+        this.file = file;
+        this.channel = channel;
+        this.categoryName = name;
+        this.start = start;
+        this.end = end;
+        this.firstLine = firstLine;
+        this.depth = depth;
+        this.cache = cache;
+    }  // end of constructor
+
+    /**
+     * Adds the mapping of the image location to the text of the category,
+     * and pins the category in memory.
+     * @param imageLoc the image location
+     * @param text the text associated with the image
+     */
+    public void addItem(String imageLoc, String text) {
+        this.load().addItem(imageLoc, text);
+        this.pin();
+    }  // end of addItem method
+
+    /**
+     * Removes an image and its text from the category, and pins the
+     * category in memory.
+     * @param imageLoc the image location
+     */
+    public void removeItem(String imageLoc) {
+        this.load().removeItem(imageLoc);
+        this.pin();
+    }  // end of removeItem method
+
+    /**
+     * Returns the name of the category, without loading the items.
+     * @return the name of the category
+     */
+    public String getCategory() {
+        return this.categoryName;
+    }  // end of getCategory method
+
+    /**
+     * Returns an array of all the images in the category.
+     * @return the image locations as an array
+     */
+    public String[] getImageLocs() {
+        return this.load().getImageLocs();
+    }  // end of getImageLocs method
+
+    /**
+     * Returns the text associated with a given image location.
+     * @param imageLoc the image location
+     * @return the text associated with the image
+     * @throws NoSuchElementException if the image is not found
+     */
+    public String select(String imageLoc) {
+        return this.load().select(imageLoc);
+    }  // end of select method
+
+    /**
+     * Checks if the category contains the specified image.
+     * @param imageLoc the image location
+     * @return true if the image exists in the category, false otherwise
+     */
+    public boolean hasImage(String imageLoc) {
+        return this.load().hasImage(imageLoc);
+    }  // end of hasImage method
+
+    /**
+     * Returns the page that opens when an item is selected.
+     * @param imageLoc the image location
+     * @return the nested page, or null if the item is not a category
+     */
+    public AACPage getSubpage(String imageLoc) {
+        return this.load().getSubpage(imageLoc);
+    }  // end of getSubpage method
+
+    /**
+     * Makes an item of this category a category itself, and pins the
+     * category in memory.
+     * @param imageLoc the image location of the item
+     * @param page the nested page
+     */
+    public void setSubpage(String imageLoc, AACPage page) {
+        this.load().setSubpage(imageLoc, page);
+        this.pin();
+    }  // end of setSubpage method
+
+    /**
+     * Returns a copy of this category. An unloaded category stays unloaded,
+     * and the copy is never unloaded by the cache.
+     * @return the snapshot
+     */
+    public AACPage snapshot() {
+        if (this.items == null) {
+            return new LazyCategory(this.file, this.channel, this.categoryName, this.start, this.end,
+                this.firstLine, this.depth, null);
+        }
+        return this.items.snapshot();
+    }  // end of snapshot method
+
+    /**
+     * Returns the number of bytes of the file the category occupies, as
+     * an estimate of the memory its items use.
+     * @return the size of the category in the file
+     */
+    public long size() {
+        return this.end - this.start;
+    }  // end of size method
+
+    /**
+     * Determines whether the items are in memory.
+     * @return true if the items are loaded
+     */
+    public boolean isLoaded() {
+        return this.items != null;
+    }  // end of isLoaded method
+
+    /**
+     * Returns the items, reading them from the file if need be.
+     * @return the items
+     */
+    AACCategory load() {
+        if (this.items == null) {
+            this.items = this.read();
+            if (this.cache != null) {
+                this.cache.loaded(this);
+            }
+        } else if (this.cache != null && !this.dirty) {
+            this.cache.used(this);
+        }
+        return this.items;
+    }  // end of load method
+
+    /**
+     * Drops the items, which will be read again when next needed. Does
+     * nothing if they have been edited.
+     */
+    void unload() {
+        if (!this.dirty && this.items != null) {
+            this.items = null;
+            if (this.cache != null) {
+                this.cache.unloaded(this);
+            }
+        }
+    }  // end of unload method
+
+    /**
+     * Marks the items as edited, so that they are never unloaded.
+     */
+    void pin() {
+        if (!this.dirty) {
+            this.dirty = true;
+            if (this.cache != null) {
+                this.cache.pinned(this);
+            }
+        }
+    }  // end of pin method
+
+    /**
+     * Reads the items from the file, making a LazyCategory of each item
+     * that has lines nested under it.
+     * @return the items
+     */
+    AACCategory read() {
+        AACCategory category = new AACCategory(this.categoryName);
+        int depth = this.depth;
+        MappingsParser parser = new MappingsParser(new MappingsParser.Handler() {
+            String imageLoc = null;  // The item read last
+            long start;   // Position of its line
+            int line;   // Number of its line
+            boolean nested;   // Whether lines are nested under it
+
+            public void category(String imageLoc, String text, long offset, int lineNumber) {
+                // This category's own line
+            }  // category(String, String, long, int)
+
+            public void item(int itemDepth, String imageLoc, String text, long offset, int lineNumber) {
+                if (itemDepth == depth) {
+                    return;  // This category's own line
+                }
+                this.close(offset);
+                category.addItem(imageLoc, text);
+                this.imageLoc = imageLoc;
+                this.start = offset;
+                this.line = lineNumber;
+                this.nested = false;
+            }  // item(int, String, String, long, int)
+
+            public void skipped(long offset) {
+                this.nested = true;
+            }  // skipped(long)
+
+            public void malformed(int lineNumber, String line, String problem) {
+                System.err.println(LazyCategory.this.file + ":" + lineNumber + ": " + problem + ": " + line);
+            }  // malformed(int, String, String)
+
+            public void finished(long offset) {
+                this.close(offset);
+                category.trimToSize();
+            }  // finished(long)
+
+            void close(long end) {
+                if (this.nested) {
+                    category.setSubpage(this.imageLoc, new LazyCategory(LazyCategory.this.file,
+                        LazyCategory.this.channel, this.imageLoc, this.start, end, this.line, depth + 1, null));
+                }
+            }  // close(long)
+        }, depth + 1);
+        try {
+            parser.parse(this.channel.channel(), this.start, this.end, this.firstLine, depth);
+        } catch (IOException e) {
+            System.err.println("Error reading " + this.file);
+        }  // end of try-catch
+        return category;
+    }  // end of read method
+}  // end of LazyCategory class
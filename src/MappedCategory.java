@@ -0,0 +1,373 @@
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.AssociativeMap;
+import edu.grinnell.csc207.util.ImagePathMap;
+import edu.grinnell.csc207.util.NullKeyException;
+
+/**
+ * A category whose items live off the Java heap, in one block of a
+ * memory-mapped vocabulary file (see MappedVocabulary). Lookups probe the
+ * block's hash index and compare the UTF-8 bytes in place, so only the
+ * texts that are actually selected ever become Strings.
+ *
+ * The block is read-only. Items added with addItem are kept in a small
+ * on-heap map that is consulted before the block, and so are the pages
+ * of nested categories: those set with setSubpage, and those read from
+ * the blocks the item entries point to, which are kept once read so that
+ * changes to them last.
+ *
+ * The block is checked against its CRC32 the first time an item or the
+ * name is needed, rather than when the file is opened. A corrupt block is
+ * reported and then treated as an empty category.
+ *
+ * Layout of a block (all ints big-endian; offsets are relative to the
+ * start of the string pool):
+ *   int itemCount, int slotCount, int nameOffset, int nameLength
+ *   int[slotCount] slots: item number + 1, or 0 when empty
+ *   itemCount entries of int hash, keyOffset, keyLength, textOffset, textLength,
+ *     subpage (the number of the block of the nested category, or 0 if none)
+ *   the string pool (UTF-8)
+ *
+ * @author Slok Rajbhandari
+ */
+public class MappedCategory implements AACPage {
+    /**
+     * Constants
+     */
+    static final int HEADER_BYTES = 16;   // Size of the block header
+    static final int ENTRY_BYTES = 24;   // Size of one item entry
+
+    /**
+     * Fields
+     */
+    MappedVocabulary vocabulary;   // The file, where the blocks of nested categories are
+    ByteBuffer block;   // The block, positioned at its start
+    int itemCount;   // Number of items in the block
+    int slotCount;   // Number of hash index slots (a power of two)
+    int entriesStart;   // Offset of the first item entry
+    int poolStart;   // Offset of the string pool
+    String categoryName;   // The decoded category name; null until needed
+    AssociativeMap<String, String> additions;   // Items added since the block was written; null if none
+    boolean[] removed;   // Which items of the block have been removed; null if none
+    SoftReference<String[]> imageLocs;   // Cached image locations, in display order; null when stale
+    AssociativeMap<String, AACPage> subpages;   // Nested pages set or read so far; null if none
+    int checksum;   // The CRC32 the block should have
+    boolean verified;   // Whether the block has been checked
+
+    /**
+     * Constructor
+     * Creates a view of the block at the given offset, which is checked
+     * when it is first used.
+     * @param vocabulary the mapped vocabulary
+     * @param offset the offset of the block within the file
+     * @param length the length of the block
+     * @param checksum the CRC32 the block should have
+     */
+    public MappedCategory(MappedVocabulary vocabulary, int offset, int length, int checksum) {
+        this.vocabulary = vocabulary;
+        ByteBuffer view = vocabulary.buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        this.block = view.slice();
+        this.checksum = checksum;
+        if (length >= HEADER_BYTES) {  // Otherwise verify() will find it corrupt
+            this.itemCount = this.block.getInt(0);
+            this.slotCount = this.block.getInt(4);
+        }
+        this.entriesStart = HEADER_BYTES + 4 * this.slotCount;
+        this.poolStart = this.entriesStart + ENTRY_BYTES * this.itemCount;
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Creates a copy of another view; used by snapshot.
+     * @param source the view to copy
+     */
+    private MappedCategory(MappedCategory source) {
+        this.vocabulary = source.vocabulary;
+        this.block = source.block;
+        this.itemCount = source.itemCount;
+        this.slotCount = source.slotCount;
+        this.entriesStart = source.entriesStart;
+        this.poolStart = source.poolStart;
+        this.categoryName = source.categoryName;
+        this.additions = (source.additions == null) ? null : source.additions.clone();
+        this.removed = (source.removed == null) ? null : source.removed.clone();
+        this.imageLocs = source.imageLocs;
+        if (source.subpages != null) {
+            source.subpages.forEach((imageLoc, page) -> this.setSubpage(imageLoc, page.snapshot()));
+        }
+        this.checksum = source.checksum;
+        this.verified = source.verified;
+    }  // end of constructor
+
+    /**
+     * Adds the mapping of the image location to the text of the category.
+     * The item is kept on the heap, since the mapped block is read-only.
+     * @param imageLoc the image location
+     * @param text the text associated with the image
+     */
+    public void addItem(String imageLoc, String text) {
+        if (this.additions == null) {
+            this.additions = new AssociativeArray<>();
+        }
+        try {
+            this.additions.set(imageLoc, text);
+            this.imageLocs = null;  // The cached image locations are now stale
+        } catch (NullKeyException nke) {
+            System.err.println("Please enter a valid image location.");  // Handle invalid image location
+        }
+    }  // end of addItem method
+
+    /**
+     * Removes an image and its text from the category. Items of the block
+     * are only marked as removed, since the block is read-only.
+     * @param imageLoc the image location
+     */
+    public void removeItem(String imageLoc) {
+        if (this.additions != null && this.additions.hasKey(imageLoc)) {
+            this.additions.remove(imageLoc);
+            this.imageLocs = null;  // The cached image locations are now stale
+        }
+        if (this.subpages != null) {
+            this.subpages.remove(imageLoc);  // Along with anything nested under it
+        }
+        int item = this.find(imageLoc);
+        if (item >= 0) {
+            if (this.removed == null) {
+                this.removed = new boolean[this.itemCount];
+            }
+            this.removed[item] = true;
+            this.imageLocs = null;
+        }
+    }  // end of removeItem method
+
+    /**
+     * Returns the name of the category.
+     * @return the name of the category
+     */
+    public String getCategory() {
+        this.verify();
+        if (this.categoryName == null) {
+            this.categoryName = this.decode(this.block.getInt(8), this.block.getInt(12));
+        }
+        return this.categoryName;
+    }  // end of getCategory method
+
+    /**
+     * Returns an array of all the images in the category. As in
+     * AACCategory, the array is cached, softly, and shared by every
+     * caller, who must not change it; a change to the category replaces it.
+     * @return the image locations as an array
+     */
+    public String[] getImageLocs() {
+        String[] imageLocs = (this.imageLocs == null) ? null : this.imageLocs.get();
+        if (imageLocs == null) {
+            imageLocs = this.buildImageLocs();
+            this.imageLocs = new SoftReference<>(imageLocs);
+        }
+        return imageLocs;  // Shared, not copied
+    }  // end of getImageLocs method
+
+    /**
+     * Returns the text associated with a given image location.
+     * @param imageLoc the image location
+     * @return the text associated with the image
+     * @throws NoSuchElementException if the image is not found
+     */
+    public String select(String imageLoc) {
+        if (this.additions != null) {
+            String text = this.additions.getOrNull(imageLoc);
+            if (text != null) {
+                return text;
+            }
+        }
+        int item = this.find(imageLoc);
+        if (item < 0) {
+            throw new NoSuchElementException("Image not found in the category.");  // Handle image not found
+        }
+        int entry = this.entriesStart + ENTRY_BYTES * item;
+        return this.decode(this.block.getInt(entry + 12), this.block.getInt(entry + 16));
+    }  // end of select method
+
+    /**
+     * Checks if the category contains the specified image.
+     * @param imageLoc the image location
+     * @return true if the image exists in the category, false otherwise
+     */
+    public boolean hasImage(String imageLoc) {
+        return (this.additions != null && this.additions.hasKey(imageLoc))
+            || this.find(imageLoc) >= 0;
+    }  // end of hasImage method
+
+    /**
+     * Returns the page that opens when an item is selected: one set with
+     * setSubpage, or else the block the item's entry points to.
+     * @param imageLoc the image location
+     * @return the nested page, or null if the item is not a category
+     */
+    public AACPage getSubpage(String imageLoc) {
+        if (this.subpages != null && this.subpages.hasKey(imageLoc)) {
+            return this.subpages.getOrNull(imageLoc);
+        }
+        int item = this.find(imageLoc);
+        int subpage = (item < 0) ? 0 : this.block.getInt(this.entriesStart + ENTRY_BYTES * item + 20);
+        if (subpage == 0) {
+            return null;
+        }
+        AACPage page = this.vocabulary.getBlock(subpage);
+        this.setSubpage(imageLoc, page);  // Kept, so that changes to it are too
+        return page;
+    }  // end of getSubpage method
+
+    /**
+     * Makes an item of this category a category itself. The page is kept
+     * on the heap, since the mapped block is read-only.
+     * @param imageLoc the image location of the item
+     * @param page the nested page
+     */
+    public void setSubpage(String imageLoc, AACPage page) {
+        if (this.subpages == null) {
+            this.subpages = new ImagePathMap<>();  // Most categories have none
+        }
+        try {
+            this.subpages.set(imageLoc, page);
+        } catch (NullKeyException nke) {
+            System.err.println("Please enter a valid image location.");
+        }
+    }  // end of setSubpage method
+
+    /**
+     * Returns a copy of this category, and of the nested categories read so
+     * far. The mapped block is shared, and only what is on the heap is
+     * copied.
+     * @return the snapshot
+     */
+    public MappedCategory snapshot() {
+        return new MappedCategory(this);
+    }  // end of snapshot method
+
+    /**
+     * Finds an item in the block.
+     * @param imageLoc the image location
+     * @return the item number, or -1 if the block does not contain it or
+     *   it has been removed
+     */
+    int find(String imageLoc) {
+        this.verify();
+        if (imageLoc == null || this.slotCount == 0) {
+            return -1;
+        }
+        int hash = imageLoc.hashCode();
+        int mask = this.slotCount - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        int stored;
+        while ((stored = this.block.getInt(HEADER_BYTES + 4 * slot)) != 0) {
+            int entry = this.entriesStart + ENTRY_BYTES * (stored - 1);
+            if (this.block.getInt(entry) == hash
+                && this.matches(this.block.getInt(entry + 4), this.block.getInt(entry + 8), imageLoc)) {
+                boolean gone = this.removed != null && this.removed[stored - 1];
+                return gone ? -1 : stored - 1;
+            }
+            slot = (slot + 1) & mask;  // Linear probing
+        }
+        return -1;
+    }  // end of find method
+
+    /**
+     * Builds the array of image locations: the mapped items in file
+     * order, less any removed ones, then any added items that are not
+     * in the block.
+     * @return the image locations
+     */
+    String[] buildImageLocs() {
+        this.verify();
+        String[] extra = new String[(this.additions == null) ? 0 : this.additions.size()];
+        int[] extraCount = { 0 };
+        if (this.additions != null) {
+            this.additions.forEach((imageLoc, text) -> {
+                if (this.find(imageLoc) < 0) {
+                    extra[extraCount[0]++] = imageLoc;
+                }
+            });
+        }
+        int kept = this.itemCount;
+        if (this.removed != null) {
+            for (boolean gone : this.removed) {
+                kept -= gone ? 1 : 0;
+            }
+        }
+        String[] imageLocs = new String[kept + extraCount[0]];
+        int next = 0;
+        for (int item = 0; item < this.itemCount; item++) {
+            if (this.removed == null || !this.removed[item]) {
+                int entry = this.entriesStart + ENTRY_BYTES * item;
+                imageLocs[next++] = this.decode(this.block.getInt(entry + 4), this.block.getInt(entry + 8));
+            }
+        }
+        System.arraycopy(extra, 0, imageLocs, kept, extraCount[0]);
+        return imageLocs;
+    }  // end of buildImageLocs method
+
+    /**
+     * Checks the block against its checksum the first time it is used, and
+     * empties the category if the block is corrupt.
+     */
+    void verify() {
+        if (this.verified) {
+            return;
+        }
+        this.verified = true;
+        CRC32 crc = new CRC32();
+        crc.update(this.block.duplicate().clear());
+        if ((int) crc.getValue() != this.checksum) {
+            System.err.println("Ignoring a corrupt category in the compiled vocabulary file");
+            this.itemCount = 0;
+            this.slotCount = 0;
+            this.categoryName = "";
+        }
+    }  // end of verify method
+
+    /**
+     * Decodes a string from the pool.
+     * @param offset the offset within the pool
+     * @param length the length in bytes
+     * @return the string
+     */
+    String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = this.block.duplicate();
+        view.position(this.poolStart + offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }  // end of decode method
+
+    /**
+     * Compares a string in the pool with a String, without decoding the
+     * pool bytes unless they contain non-ASCII characters.
+     * @param offset the offset within the pool
+     * @param length the length in bytes
+     * @param str the string to compare with
+     * @return true if they are equal
+     */
+    boolean matches(int offset, int length, String str) {
+        if (length != str.length()) {
+            return length > str.length() && this.decode(offset, length).equals(str);  // UTF-8 may be longer
+        }
+        int start = this.poolStart + offset;
+        for (int i = 0; i < length; i++) {
+            byte b = this.block.get(start + i);
+            if (b < 0) {
+                return this.decode(offset, length).equals(str);  // Not ASCII
+            }
+            if (b != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }  // end of matches method
+}  // end of MappedCategory class
@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A whole vocabulary compiled to a binary file and memory-mapped, so it
+ * is ready without parsing and need not be kept on the heap. The homepage,
+ * each category and each nested category are blocks in the layout
+ * described in MappedCategory, so they plug into AACMappings as ordinary
+ * AACPages. An item that opens a nested category holds the number of
+ * that category's block.
+ *
+ * A compiled file records the size and modification time of the text
+ * file it was compiled from, so AACMappings can tell whether it is still
+ * fresh. Run this class to compile a text file:
+ *   java MappedVocabulary AACMappings.txt [AACMappings.vocab]
+ *
+ * Layout of the file (all ints and longs big-endian):
+ *   int MAGIC, int VERSION, int checksum (CRC32 of the rest of the header),
+ *   int categoryCount, int blockCount,
+ *   long sourceSize, long sourceModified (both -1 if there is no source)
+ *   int[blockCount] offsets of the blocks
+ *   int[blockCount] CRC32s of the blocks
+ *   the blocks, one after another: block 0 is the homepage, blocks 1 to
+ *   categoryCount the categories in homepage order, and the rest the
+ *   nested categories, level by level
+ *
+ * Opening a file only checks the header. Each block is checked the first
+ * time its category is used, so opening does not read the whole file and
+ * categories that are never opened are never read.
+ *
+ * @author Slok Rajbhandari
+ */
+public class MappedVocabulary {
+    /**
+     * Constants
+     */
+    static final int MAGIC = 0x41414356;   // "AACV"
+    static final int VERSION = 4;   // Version of the layout
+    static final int HEADER_BYTES = 36;   // Size of the fixed part of the header
+    static final int CHECKED_FROM = 12;   // Offset of the first byte covered by the checksum
+    static final String EXTENSION = ".vocab";   // Extension of compiled files
+
+    /**
+     * Fields
+     */
+    Path path;   // The mapped file
+    MappedByteBuffer buffer;   // The whole file
+    int categoryCount;   // Number of categories on the homepage
+    int blockCount;   // Number of blocks, nested categories included
+
+    /**
+     * Constructor
+     * Maps an existing vocabulary file and verifies the checksum of its
+     * header.
+     * @param filename the vocabulary file
+     * @throws IOException if the file cannot be read, is not a vocabulary,
+     *   or is corrupt
+     */
+    public MappedVocabulary(String filename) throws IOException {
+        this.path = Paths.get(filename);
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }  // The mapping stays valid after the channel is closed
+        if (this.buffer.capacity() < HEADER_BYTES || this.buffer.getInt(0) != MAGIC) {
+            throw new IOException(filename + " is not a mapped vocabulary");
+        }
+        if (this.buffer.getInt(4) != VERSION) {
+            throw new IOException(filename + " has unsupported version " + this.buffer.getInt(4));
+        }
+        this.categoryCount = this.buffer.getInt(12);
+        this.blockCount = this.buffer.getInt(16);
+        long headerEnd = HEADER_BYTES + 8L * this.blockCount;
+        if (this.categoryCount < 0 || this.blockCount <= this.categoryCount || headerEnd > this.buffer.capacity()
+            || this.buffer.getInt(8) != checksum(this.buffer.duplicate().limit((int) headerEnd))) {
+            throw new IOException(filename + " is corrupt");
+        }
+    }  // end of constructor
+
+    /**
+     * Returns the homepage, whose items are the categories.
+     * @return the homepage
+     */
+    public MappedCategory getHomepage() {
+        return this.getBlock(0);
+    }  // end of getHomepage method
+
+    /**
+     * Returns the category that is the given item of the homepage.
+     * @param index the position of the category on the homepage
+     * @return the category
+     */
+    public MappedCategory getCategory(int index) {
+        return this.getBlock(index + 1);
+    }  // end of getCategory method
+
+    /**
+     * Returns a view of a block, which checks the block the first time it
+     * is used. A block ends where the next one starts.
+     * @param number the number of the block; 0 for the homepage
+     * @return the view
+     */
+    MappedCategory getBlock(int number) {
+        int offset = this.buffer.getInt(HEADER_BYTES + 4 * number);
+        int next = number + 1;
+        int end = (next < this.blockCount) ? this.buffer.getInt(HEADER_BYTES + 4 * next) : this.buffer.capacity();
+        int checksum = this.buffer.getInt(HEADER_BYTES + 4 * this.blockCount + 4 * number);
+        return new MappedCategory(this, offset, end - offset, checksum);
+    }  // end of getBlock method
+
+    /**
+     * Returns the number of categories.
+     * @return the number of categories
+     */
+    public int getCategoryCount() {
+        return this.categoryCount;
+    }  // end of getCategoryCount method
+
+    /**
+     * Returns the mapped file.
+     * @return the path of the file
+     */
+    public Path getPath() {
+        return this.path;
+    }  // end of getPath method
+
+    /**
+     * Returns where the compiled form of a text file is kept: next to it,
+     * with the extension replaced by ".vocab".
+     * @param textFile the text file
+     * @return the path of the compiled file
+     */
+    public static Path compiledPath(String textFile) {
+        Path path = Paths.get(textFile);
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return path.resolveSibling(((dot > 0) ? name.substring(0, dot) : name) + EXTENSION);
+    }  // end of compiledPath method
+
+    /**
+     * Determines whether a compiled file exists and was compiled from the
+     * text file as it is now. Only the header is read.
+     * @param compiled the compiled file
+     * @param source the text file
+     * @return true if the compiled file can be used instead of the text file
+     */
+    public static boolean isFresh(Path compiled, Path source) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        try (FileChannel channel = FileChannel.open(compiled, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete
+            }
+            return !header.hasRemaining()
+                && header.getInt(0) == MAGIC
+                && header.getInt(4) == VERSION
+                && header.getLong(20) == Files.size(source)
+                && header.getLong(28) == Files.getLastModifiedTime(source).toMillis();
+        } catch (IOException e) {
+            return false;  // Missing or unreadable
+        }
+    }  // end of isFresh method
+
+    /**
+     * Compiles a text file.
+     * @param textFile the text file
+     * @param filename the file to write to; replaced if it exists
+     * @throws IOException if either file cannot be accessed
+     */
+    public static void compile(String textFile, String filename) throws IOException {
+        Path source = Paths.get(textFile);
+        long size = Files.size(source);
+        long modified = Files.getLastModifiedTime(source).toMillis();
+        write(new AACMappings(textFile, false), filename, size, modified);  // Always parse the text
+    }  // end of compile method
+
+    /**
+     * Writes mappings to a file in the mapped layout, with no source file.
+     * @param mappings the mappings to write
+     * @param filename the file to write to; replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(AACMappings mappings, String filename) throws IOException {
+        write(mappings, filename, -1, -1);
+    }  // end of write method
+
+    /**
+     * Writes mappings to a file in the mapped layout. The file is written
+     * beside the target, forced to disk and then renamed over it, so an AAC
+     * that has the old file mapped keeps reading the old file rather than a
+     * half-written one, and a crash leaves either the old file or the new.
+     * @param mappings the mappings to write
+     * @param filename the file to write to; replaced if it exists
+     * @param sourceSize the size of the text file the mappings came from
+     * @param sourceModified the modification time of that file, in milliseconds
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(AACMappings mappings, String filename, long sourceSize, long sourceModified)
+            throws IOException {
+        String[] categories = mappings.homepage.getImageLocs();
+        List<AACPage> pages = new ArrayList<>();  // Every block's page, in order
+        pages.add(mappings.homepage);
+        for (String imageLoc : categories) {
+            AACPage category = mappings.categoryMappings.getOrNull(imageLoc);
+            pages.add((category == null) ? new AACCategory(imageLoc) : category);
+        }
+        int blockCount = pages.size();
+        for (int i = 1; i < pages.size(); i++) {
+            blockCount += countNested(pages.get(i));
+        }
+        Path target = Paths.get(filename).toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 8 * blockCount);
+                channel.position(header.capacity());  // Blocks follow the header
+                header.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(categories.length).putInt(blockCount);
+                header.putLong(sourceSize).putLong(sourceModified);
+                for (int i = 0; i < pages.size(); i++) {  // Writing a block adds its nested pages
+                    header.putInt(HEADER_BYTES + 4 * i, (int) channel.position());
+                    header.putInt(HEADER_BYTES + 4 * blockCount + 4 * i, writeBlock(channel, pages.get(i), pages));
+                }
+                header.putInt(8, checksum(header.clear()));
+                channel.write(header, 0);  // Written last, so a partly written file never checks out
+                channel.force(true);
+            }  // end of try
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);  // Only left behind if something failed
+        }  // end of try
+    }  // end of write method
+
+    /**
+     * Computes the checksum of the header of a vocabulary file.
+     * @param header the header, up to its limit
+     * @return the CRC32 of everything in the header after the checksum field
+     */
+    static int checksum(ByteBuffer header) {
+        CRC32 crc = new CRC32();
+        ByteBuffer checked = header.duplicate();
+        checked.position(CHECKED_FROM);
+        crc.update(checked);
+        return (int) crc.getValue();
+    }  // end of checksum method
+
+    /**
+     * Compiles a text file from the command line.
+     * @param args the text file, and optionally the file to write to
+     * @throws IOException if either file cannot be accessed
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java MappedVocabulary textFile [compiledFile]");
+            System.exit(1);
+        }
+        String target = (args.length == 2) ? args[1] : compiledPath(args[0]).toString();
+        long start = System.nanoTime();
+        compile(args[0], target);
+        System.out.println("Wrote " + target + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }  // end of main method
+
+    /**
+     * Counts the categories nested in a page, at any depth.
+     * @param page the page
+     * @return the number of nested categories
+     */
+    static int countNested(AACPage page) {
+        int count = 0;
+        for (String imageLoc : page.getImageLocs()) {
+            AACPage nested = page.getSubpage(imageLoc);
+            if (nested != null) {
+                count += 1 + countNested(nested);
+            }
+        }
+        return count;
+    }  // end of countNested method
+
+    /**
+     * Writes one page as a block at the channel's position. Each category
+     * nested in it is added to the pages to write, and its item points to
+     * the block it will be written to.
+     * @param channel the channel to write to
+     * @param page the page to write
+     * @param pages the pages of every block so far, in order
+     * @return the CRC32 of the block
+     * @throws IOException if the block cannot be written
+     */
+    static int writeBlock(FileChannel channel, AACPage page, List<AACPage> pages) throws IOException {
+        String[] imageLocs = page.getImageLocs();
+        int items = imageLocs.length;
+        int slots = 1;
+        while (slots < items * 2) {
+            slots <<= 1;  // Keep the index at most half full
+        }
+        byte[] name = page.getCategory().getBytes(StandardCharsets.UTF_8);
+        byte[][] keys = new byte[items][];
+        byte[][] texts = new byte[items][];
+        int poolBytes = name.length;
+        for (int i = 0; i < items; i++) {
+            keys[i] = imageLocs[i].getBytes(StandardCharsets.UTF_8);
+            texts[i] = page.select(imageLocs[i]).getBytes(StandardCharsets.UTF_8);
+            poolBytes += keys[i].length + texts[i].length;
+        }
+        int entriesStart = MappedCategory.HEADER_BYTES + 4 * slots;
+        int poolStart = entriesStart + MappedCategory.ENTRY_BYTES * items;
+        ByteBuffer block = ByteBuffer.allocate(poolStart + poolBytes);
+        block.putInt(0, items).putInt(4, slots).putInt(8, 0).putInt(12, name.length);
+        block.position(poolStart);
+        block.put(name);
+        for (int i = 0; i < items; i++) {
+            int hash = imageLocs[i].hashCode();
+            int slot = (hash ^ (hash >>> 16)) & (slots - 1);
+            while (block.getInt(MappedCategory.HEADER_BYTES + 4 * slot) != 0) {
+                slot = (slot + 1) & (slots - 1);  // Linear probing
+            }
+            block.putInt(MappedCategory.HEADER_BYTES + 4 * slot, i + 1);
+            int entry = entriesStart + MappedCategory.ENTRY_BYTES * i;
+            block.putInt(entry, hash);
+            block.putInt(entry + 4, block.position() - poolStart).putInt(entry + 8, keys[i].length);
+            block.put(keys[i]);
+            block.putInt(entry + 12, block.position() - poolStart).putInt(entry + 16, texts[i].length);
+            block.put(texts[i]);
+            AACPage nested = page.getSubpage(imageLocs[i]);
+            if (nested != null) {
+                block.putInt(entry + 20, pages.size());
+                pages.add(nested);
+            }
+        }
+        block.clear();  // Write the whole block
+        CRC32 crc = new CRC32();
+        crc.update(block.duplicate());
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        return (int) crc.getValue();
+    }  // end of writeBlock method
+}  // end of MappedVocabulary class
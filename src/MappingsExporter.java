@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes AACMappings in the text format that AACMappings reads, as fast as
+ * the destination can take it.
+ *
+ * The homepage and each category are walked once, in homepage order, with
+ * nested categories written depth first under the items that open them.
+ * Each line is encoded as UTF-8 into a small heap array, without making a
+ * String or byte[] per line, and copied in bulk into a ring of direct
+ * ByteBuffers (single-byte puts into a direct buffer are several times
+ * slower than array stores). When the ring is full it is written with a
+ * single gathering write, or one write per buffer if the channel cannot
+ * gather. The buffers belong to the exporter and are reused by every
+ * export; local() keeps one exporter per thread.
+ *
+ * @author Slok Rajbhandari
+ */
+public class MappingsExporter {
+    /**
+     * Constants
+     */
+    static final int BUFFER_BYTES = 64 << 10;   // Size of each buffer
+    static final int BUFFERS = 4;   // Number of buffers filled before each write
+    static final int SCRATCH_BYTES = 8 << 10;   // Size of the array lines are encoded into
+    static final int MAX_CHAR_BYTES = 3;   // Most UTF-8 bytes per char (a surrogate pair takes 4)
+    static final ThreadLocal<MappingsExporter> LOCAL = ThreadLocal.withInitial(MappingsExporter::new);
+
+    /**
+     * Fields
+     */
+    ByteBuffer[] buffers;   // The ring of buffers
+    int current;   // The buffer being filled
+    byte[] scratch;   // Lines are encoded here, then copied into the buffers in bulk
+    int fill;   // Bytes of scratch in use
+    WritableByteChannel channel;   // Where the export is going; null between exports
+
+    /**
+     * Constructor
+     * Creates an exporter with its own buffers.
+     */
+    public MappingsExporter() {
+        this.buffers = new ByteBuffer[BUFFERS];
+        for (int i = 0; i < BUFFERS; i++) {
+            this.buffers[i] = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+        this.scratch = new byte[SCRATCH_BYTES];
+    }  // end of constructor
+
+    /**
+     * Returns this thread's exporter, so that repeated exports reuse the
+     * same buffers.
+     * @return the exporter
+     */
+    public static MappingsExporter local() {
+        return LOCAL.get();
+    }  // end of local method
+
+    /**
+     * Writes mappings to a stream, e.g. a GZIPOutputStream or System.out.
+     * The stream is flushed but not closed.
+     * @param mappings the mappings to write
+     * @param out the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    public void export(AACMappings mappings, OutputStream out) throws IOException {
+        this.export(mappings, Channels.newChannel(out));
+        out.flush();
+    }  // end of export method
+
+    /**
+     * Writes mappings to a channel, which is left open at the position just
+     * past the export.
+     * @param mappings the mappings to write
+     * @param channel the channel to write to
+     * @throws IOException if the channel cannot be written
+     */
+    public void export(AACMappings mappings, WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        this.current = 0;
+        this.fill = 0;
+        this.buffers[0].clear();
+        try {
+            for (String categoryLoc : mappings.homepage.getImageLocs()) {
+                this.line(0, categoryLoc, mappings.homepage.select(categoryLoc));
+                AACPage category = mappings.categoryMappings.getOrNull(categoryLoc);
+                if (category == null) {
+                    continue;  // Written as an empty category
+                }
+                boolean wasLoaded = !(category instanceof LazyCategory) || ((LazyCategory) category).isLoaded();
+                this.items(category, 1);
+                if (!wasLoaded) {
+                    ((LazyCategory) category).unload();  // Do not keep every category in memory
+                }
+            }  // end of for loop
+            this.spill();
+            this.drain();
+        } finally {
+            this.channel = null;
+        }
+    }  // end of export method
+
+    /**
+     * Encodes the items of a category, each followed by the items nested
+     * under it.
+     * @param category the category
+     * @param depth the depth of its items
+     * @throws IOException if the buffers fill and cannot be written
+     */
+    void items(AACPage category, int depth) throws IOException {
+        for (String imageLoc : category.getImageLocs()) {
+            this.line(depth, imageLoc, category.select(imageLoc));
+            AACPage nested = category.getSubpage(imageLoc);
+            if (nested != null) {
+                this.items(nested, depth + 1);
+            }
+        }
+    }  // end of items method
+
+    /**
+     * Encodes one line.
+     * @param depth 0 for a category, or the depth of an item, which is
+     *   marked with that many '>'s
+     * @param imageLoc the image location
+     * @param text the text
+     * @throws IOException if the buffers fill and cannot be written
+     */
+    void line(int depth, String imageLoc, String text) throws IOException {
+        int need = depth + 2 + MAX_CHAR_BYTES * (imageLoc.length() + text.length());
+        if (need > this.scratch.length - this.fill) {
+            this.spill();
+            if (need > this.scratch.length) {
+                this.scratch = new byte[need];  // A very long line
+            }
+        }
+        for (int i = 0; i < depth; i++) {
+            this.scratch[this.fill++] = '>';
+        }
+        this.put(imageLoc);
+        this.scratch[this.fill++] = ' ';
+        this.put(text);
+        this.scratch[this.fill++] = '\n';
+    }  // end of line method
+
+    /**
+     * Encodes a string as UTF-8 into the scratch array, which has room.
+     * @param string the string
+     */
+    void put(String string) {
+        byte[] bytes = this.scratch;
+        int at = this.fill;
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                bytes[at++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[at++] = (byte) (0xC0 | (c >> 6));
+                bytes[at++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                bytes[at++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[at++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[at++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[at++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[at++] = '?';  // Unpaired, as String.getBytes would write it
+            } else {
+                bytes[at++] = (byte) (0xE0 | (c >> 12));
+                bytes[at++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[at++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }  // end of for loop
+        this.fill = at;
+    }  // end of put method
+
+    /**
+     * Copies the scratch array into the ring, writing the ring whenever it
+     * fills.
+     * @throws IOException if the buffers cannot be written
+     */
+    void spill() throws IOException {
+        int from = 0;
+        while (from < this.fill) {
+            ByteBuffer buffer = this.buffers[this.current];
+            if (!buffer.hasRemaining()) {
+                if (++this.current == BUFFERS) {
+                    this.drain();
+                } else {
+                    this.buffers[this.current].clear();
+                }
+                continue;
+            }
+            int count = Math.min(buffer.remaining(), this.fill - from);
+            buffer.put(this.scratch, from, count);
+            from += count;
+        }  // end of while loop
+        this.fill = 0;
+    }  // end of spill method
+
+    /**
+     * Writes the filled buffers and starts again with the first.
+     * @throws IOException if the buffers cannot be written
+     */
+    void drain() throws IOException {
+        int filled = Math.min(this.current + 1, BUFFERS);
+        for (int i = 0; i < filled; i++) {
+            this.buffers[i].flip();
+        }
+        if (this.channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gathering = (GatheringByteChannel) this.channel;
+            while (this.buffers[filled - 1].hasRemaining()) {
+                gathering.write(this.buffers, 0, filled);
+            }
+        } else {
+            for (int i = 0; i < filled; i++) {
+                while (this.buffers[i].hasRemaining()) {
+                    this.channel.write(this.buffers[i]);
+                }
+            }
+        }  // end of if-else
+        this.current = 0;
+        this.buffers[0].clear();
+    }  // end of drain method
+}  // end of MappingsExporter class
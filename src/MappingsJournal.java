@@ -0,0 +1,360 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to a set of AACMappings, so that
+ * saving costs time in proportion to the change rather than to the whole
+ * vocabulary.
+ *
+ * Each change is encoded as soon as it is made and handed to a background
+ * thread, which appends it to the journal file and forces the journal to
+ * disk at most every FORCE_INTERVAL_MS, so a burst of changes shares one
+ * force() and the caller never waits for the file system. Once the
+ * journal grows past COMPACT_BYTES it is compacted: the journal is set
+ * aside as the pending journal, a new one is started, and a snapshot of
+ * the mappings is written to a temporary file that then atomically
+ * replaces the data file. Only after that is the pending journal deleted.
+ *
+ * On startup the data file is loaded as usual and the pending journal (if
+ * a compaction was interrupted) and then the journal are replayed. A
+ * crash may leave a torn record at the end of the journal; every record
+ * carries a checksum, so replay stops there and the torn bytes are cut
+ * off. Replaying a journal the data file already includes is harmless,
+ * since every change sets or removes a single item.
+ *
+ * Record layout (ints big-endian): int length, int CRC32 of the payload,
+ * then the payload: a byte opcode and its strings, each an int length
+ * followed by UTF-8.
+ *
+ * @author Slok Rajbhandari
+ */
+public class MappingsJournal {
+    /**
+     * Constants
+     */
+    static final byte ADD_CATEGORY = 1;   // imageLoc, text
+    static final byte ADD_ITEM = 2;   // categoryLoc, imageLoc, text
+    static final byte REMOVE_CATEGORY = 3;   // imageLoc
+    static final byte REMOVE_ITEM = 4;   // categoryLoc, imageLoc
+    static final long FORCE_INTERVAL_MS = 100;   // Longest a change waits to be forced
+    static final long COMPACT_BYTES = 256 << 10;   // Journal size that triggers compaction
+
+    /**
+     * Fields
+     */
+    AACMappings mappings;   // The mappings being journaled
+    Path dataFile;   // The file compaction rewrites
+    Path journalFile;   // The journal
+    Path pendingFile;   // The journal set aside by a compaction in progress
+    FileChannel journal;   // The open journal
+    boolean unforced;   // Whether changes have been written but not forced
+    ScheduledExecutorService background;   // Owns the open journal: writes, forces and compacts
+
+    /**
+     * Constructor
+     * Replays any journal left next to the data file into the mappings, then
+     * opens the journal for new changes.
+     * @param mappings the mappings, freshly loaded from the data file
+     * @param dataFile the data file
+     * @throws IOException if the journal cannot be read or opened
+     */
+    public MappingsJournal(AACMappings mappings, Path dataFile) throws IOException {
+        this.mappings = mappings;
+        this.dataFile = dataFile;
+        String name = dataFile.getFileName().toString();
+        this.journalFile = dataFile.resolveSibling(name + ".journal");
+        this.pendingFile = dataFile.resolveSibling(name + ".journal.pending");
+        boolean interrupted = Files.exists(this.pendingFile);
+        if (interrupted) {
+            this.replay(this.pendingFile);  // A compaction was interrupted
+        }
+        long valid = Files.exists(this.journalFile) ? this.replay(this.journalFile) : 0;
+        if (interrupted) {
+            mappings.write(dataFile);  // Finish it now, so the pending journal is never overwritten
+            Files.delete(this.pendingFile);
+        }
+        this.journal = FileChannel.open(this.journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.journal.truncate(valid);  // Cut off a torn record
+        this.journal.position(valid);
+        this.background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mappings-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.background.scheduleWithFixedDelay(this::forceQuietly, FORCE_INTERVAL_MS, FORCE_INTERVAL_MS,
+            TimeUnit.MILLISECONDS);
+        if (valid > 0) {
+            this.compact();  // Fold the replayed changes into the data file
+        }
+    }  // end of constructor
+
+    /**
+     * Records a new category.
+     * @param imageLoc the image location of the category
+     * @param text the name of the category
+     */
+    public void addCategory(String imageLoc, String text) {
+        this.append(ADD_CATEGORY, imageLoc, text);
+    }  // end of addCategory method
+
+    /**
+     * Records a new or changed item.
+     * @param categoryLoc the image location of the item's category
+     * @param imageLoc the image location of the item
+     * @param text the text of the item
+     */
+    public void addItem(String categoryLoc, String imageLoc, String text) {
+        this.append(ADD_ITEM, categoryLoc, imageLoc, text);
+    }  // end of addItem method
+
+    /**
+     * Records the removal of a category.
+     * @param imageLoc the image location of the category
+     */
+    public void removeCategory(String imageLoc) {
+        this.append(REMOVE_CATEGORY, imageLoc);
+    }  // end of removeCategory method
+
+    /**
+     * Records the removal of an item.
+     * @param categoryLoc the image location of the item's category
+     * @param imageLoc the image location of the item
+     */
+    public void removeItem(String categoryLoc, String imageLoc) {
+        this.append(REMOVE_ITEM, categoryLoc, imageLoc);
+    }  // end of removeItem method
+
+    /**
+     * Forces every change recorded so far to disk, waiting until it is done.
+     * @throws IOException if the journal cannot be forced
+     */
+    public void force() throws IOException {
+        Future<?> forced;
+        try {
+            forced = this.background.submit(() -> {
+                this.forceNow();
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            return;  // Closed, and so already forced
+        }
+        try {
+            forced.get();
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while saving", e);
+        }
+    }  // end of force method
+
+    /**
+     * Writes and forces every change recorded so far and stops the
+     * background thread, waiting for any compaction in progress to finish.
+     * @throws IOException if the journal cannot be forced or closed
+     */
+    public void close() throws IOException {
+        this.background.shutdown();
+        try {
+            this.background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.forceNow();  // The background thread has stopped, so the journal is ours
+        this.journal.close();
+    }  // end of close method
+
+    /**
+     * Compacts the journal in the background, after the changes recorded
+     * so far have been written.
+     */
+    public void compact() {
+        this.submit(this::compactNow);
+    }  // end of compact method
+
+    /**
+     * Sets the journal aside, takes a snapshot, writes it over the data
+     * file and deletes the pending journal. The snapshot may include
+     * changes made since the journal was set aside; they are also in the
+     * new journal, and replaying them again is harmless. Runs on the
+     * background thread.
+     */
+    void compactNow() {
+        AACMappings snapshot;
+        try {
+            this.forceNow();
+            this.journal.close();
+            Files.move(this.journalFile, this.pendingFile, StandardCopyOption.ATOMIC_MOVE);
+            this.journal = FileChannel.open(this.journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            snapshot = this.mappings.snapshot();
+        } catch (IOException e) {
+            System.err.println("Could not start compacting " + this.journalFile + ": " + e.getMessage());
+            return;
+        }
+        try {
+            snapshot.write(this.dataFile);  // Written to a temporary file, then renamed
+            Files.delete(this.pendingFile);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not compact " + this.journalFile + ": " + e);  // Replayed again on startup
+        } finally {
+            snapshot.release();
+        }
+    }  // end of compactNow method
+
+    /**
+     * Forces the journal if anything has been written since it was last
+     * forced. Runs on the background thread.
+     * @throws IOException if the journal cannot be forced
+     */
+    void forceNow() throws IOException {
+        if (this.unforced) {
+            this.journal.force(false);
+            this.unforced = false;
+        }
+    }  // end of forceNow method
+
+    /**
+     * Forces the journal, reporting rather than throwing any error. Runs
+     * on the background thread.
+     */
+    void forceQuietly() {
+        try {
+            this.forceNow();
+        } catch (IOException e) {
+            System.err.println("Could not force " + this.journalFile + ": " + e.getMessage());
+        }
+    }  // end of forceQuietly method
+
+    /**
+     * Encodes a record and hands it to the background thread to append.
+     * @param opcode the kind of change
+     * @param strings the details of the change
+     */
+    void append(byte opcode, String... strings) {
+        byte[][] bytes = new byte[strings.length][];
+        int length = 1;
+        for (int i = 0; i < strings.length; i++) {
+            bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + bytes[i].length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(8 + length);
+        record.putInt(length).putInt(0).put(opcode);
+        for (byte[] string : bytes) {
+            record.putInt(string.length).put(string);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        this.submit(() -> this.write(record));
+    }  // end of append method
+
+    /**
+     * Appends a record to the journal, and compacts if the journal has
+     * grown large. Runs on the background thread.
+     * @param record the record
+     */
+    void write(ByteBuffer record) {
+        try {
+            while (record.hasRemaining()) {
+                this.journal.write(record);
+            }
+            this.unforced = true;
+            if (this.journal.position() > COMPACT_BYTES) {
+                this.compactNow();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write to " + this.journalFile + ": " + e.getMessage());
+        }
+    }  // end of write method
+
+    /**
+     * Runs a task on the background thread.
+     * @param task the task
+     */
+    void submit(Runnable task) {
+        try {
+            this.background.execute(task);
+        } catch (RejectedExecutionException e) {
+            System.err.println("Change made after " + this.journalFile + " was closed was not saved");
+        }
+    }  // end of submit method
+
+    /**
+     * Applies the records of a journal to the mappings.
+     * @param file the journal
+     * @return the length of the valid records at the start of the file
+     * @throws IOException if the journal cannot be read
+     */
+    long replay(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 1 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;  // Torn record
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;  // Torn or corrupt record
+            }
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            buffer.position(buffer.position() + length);
+            this.apply(payload);
+        }  // end of while loop
+        if (buffer.hasRemaining()) {
+            System.err.println(file + ": ignoring " + buffer.remaining() + " bytes after the last complete change");
+        }
+        return buffer.position();
+    }  // end of replay method
+
+    /**
+     * Applies one record to the mappings.
+     * @param payload the record's opcode and strings
+     */
+    void apply(ByteBuffer payload) {
+        byte opcode = payload.get();
+        String[] strings = new String[3];
+        for (int i = 0; payload.hasRemaining() && i < strings.length; i++) {
+            byte[] string = new byte[payload.getInt()];
+            payload.get(string);
+            strings[i] = new String(string, StandardCharsets.UTF_8);
+        }
+        switch (opcode) {
+            case ADD_CATEGORY:
+                this.mappings.addCategory(strings[0], strings[1]);
+                break;
+            case ADD_ITEM:
+                this.mappings.addItem(strings[0], strings[1], strings[2]);
+                break;
+            case REMOVE_CATEGORY:
+                this.mappings.removeCategory(strings[0]);
+                break;
+            case REMOVE_ITEM:
+                this.mappings.removeItem(strings[0], strings[1]);
+                break;
+            default:
+                System.err.println("Unknown change in " + this.journalFile + ": " + opcode);
+        }  // end of switch
+    }  // end of apply method
+}  // end of MappingsJournal class
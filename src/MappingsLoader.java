@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.KVPair;
+import edu.grinnell.csc207.util.NullKeyException;
+
+/**
+ * Loads a vocabulary split across several text files, e.g. one per topic,
+ * parsing the files in parallel.
+ *
+ * The list of files is split in half recursively on a ForkJoinPool until
+ * each task has one file, which it parses into its own AACMappings with
+ * its own MappingsParser. The only state the tasks share is ImagePath's
+ * table of directories, a ConcurrentHashMap whose lookups take no lock;
+ * each thread packs file names into its own chunks, so parsing threads
+ * never wait for each other.
+ *
+ * The results are then merged, in the order the files were given, into
+ * one homepage. A category whose image location is already taken by an
+ * earlier file is a conflict: the earlier category is kept, and the
+ * conflict is reported on System.err and by AACMappings.getConflicts().
+ *
+ * @author Slok Rajbhandari
+ */
+public class MappingsLoader extends RecursiveAction {
+    /**
+     * Constants
+     */
+    static final String EXTENSION = ".txt";   // Files loaded from a directory
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Fields
+     */
+    Path[] files;   // All the files
+    AACMappings[] loaded;   // The mappings read from each file
+    int from;   // The first file this task loads
+    int to;   // Just past the last file this task loads
+
+    /**
+     * Constructor
+     * Creates a task that loads some of the files.
+     * @param files all the files
+     * @param loaded where to put the mappings read from each file
+     * @param from the first file to load
+     * @param to just past the last file to load
+     */
+    MappingsLoader(Path[] files, AACMappings[] loaded, int from, int to) {
+        this.files = files;
+        this.loaded = loaded;
+        this.from = from;
+        this.to = to;
+    }  // end of constructor
+
+    /**
+     * Loads every mappings file (ending in ".txt") in a directory, in order
+     * of name.
+     * @param directory the directory
+     * @return the merged mappings
+     * @throws IOException if the directory cannot be listed
+     */
+    public static AACMappings loadDirectory(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry)) {
+                    files.add(entry);
+                }
+            }
+        }
+        files.sort(null);
+        return load(files);
+    }  // end of loadDirectory method
+
+    /**
+     * Loads several mappings files in parallel on the common ForkJoinPool.
+     * @param files the files; earlier files win conflicts
+     * @return the merged mappings
+     */
+    public static AACMappings load(List<Path> files) {
+        return load(files, ForkJoinPool.commonPool());
+    }  // end of load method
+
+    /**
+     * Loads several mappings files in parallel.
+     * @param files the files; earlier files win conflicts
+     * @param pool the pool to parse the files on
+     * @return the merged mappings
+     */
+    public static AACMappings load(List<Path> files, ForkJoinPool pool) {
+        Path[] paths = files.toArray(new Path[0]);
+        AACMappings[] loaded = new AACMappings[paths.length];
+        pool.invoke(new MappingsLoader(paths, loaded, 0, paths.length));
+        return merge(paths, loaded);
+    }  // end of load method
+
+    /**
+     * Loads this task's files, splitting them with another task if there
+     * is more than one.
+     */
+    protected void compute() {
+        if (this.to - this.from <= 1) {
+            if (this.from < this.to) {
+                this.loaded[this.from] = new AACMappings(this.files[this.from].toString(), false);
+            }
+            return;
+        }
+        int middle = (this.from + this.to) >>> 1;
+        invokeAll(new MappingsLoader(this.files, this.loaded, this.from, middle),
+            new MappingsLoader(this.files, this.loaded, middle, this.to));
+    }  // end of compute method
+
+    /**
+     * Merges the mappings read from each file into the first.
+     * @param files the files
+     * @param loaded the mappings read from each file
+     * @return the merged mappings
+     */
+    static AACMappings merge(Path[] files, AACMappings[] loaded) {
+        if (loaded.length == 0) {
+            return new AACMappings();
+        }
+        AACMappings merged = loaded[0];
+        AssociativeArray<String, Path> sources = new AssociativeArray<>();  // Which file each category came from
+        for (int i = 0; i < loaded.length; i++) {
+            AACMappings mappings = loaded[i];
+            for (KVPair<String, AACPage> entry : mappings.categoryMappings) {
+                String imageLoc = entry.getKey();
+                Path earlier = sources.getOrNull(imageLoc);
+                if (earlier != null) {
+                    String conflict = imageLoc + " in " + files[i] + " is already a category in " + earlier;
+                    System.err.println(conflict + "; keeping the one in " + earlier);
+                    merged.conflicts.add(conflict);
+                    continue;
+                }
+                try {
+                    sources.set(imageLoc, files[i]);
+                    if (mappings != merged) {
+                        merged.categoryMappings.set(imageLoc, entry.getValue());
+                        merged.homepage.addItem(imageLoc, mappings.homepage.select(imageLoc));
+                    }
+                } catch (NullKeyException nke) {
+                    // Cannot happen: keys are never null
+                }
+            }  // end of for loop
+        }  // end of for loop
+        merged.dataFile = null;  // No one file holds everything
+        return merged;
+    }  // end of merge method
+}  // end of MappingsLoader class
@@ -0,0 +1,253 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a mappings file in large blocks through a FileChannel and splits
+ * each line in place, so the only objects made per line are the image
+ * location and text handed to the Handler.
+ *
+ * Each line is either a category, "imageLoc text", or an item,
+ * ">imageLoc text". An item belongs to the nearest line above it with one
+ * '>' fewer, so ">>imageLoc text" is an item of the item above it, which
+ * makes that item a category too, and so on to any depth. The text is
+ * everything after the first space. Blank lines are skipped. Any other
+ * line, including one nested more than one level below the line before
+ * it, is reported to the handler as malformed, with its line number, and
+ * parsing continues.
+ *
+ * The parser can also skip lines nested below a given depth without
+ * decoding them, so that a caller can index where each category starts and
+ * parse just that range later.
+ *
+ * @author Slok Rajbhandari
+ */
+public class MappingsParser {
+    /**
+     * Receives the contents of a mappings file, in file order.
+     */
+    public interface Handler {
+        /**
+         * Called for each category line.
+         * @param imageLoc the image location of the category
+         * @param text the name of the category
+         * @param offset the position of the line in the file
+         * @param lineNumber the line number, counting from 1
+         */
+        void category(String imageLoc, String text, long offset, int lineNumber);
+
+        /**
+         * Called for each item line, after the line it belongs to, unless
+         * it is nested too deeply to be read.
+         * @param depth the number of '>'s before the item, at least 1
+         * @param imageLoc the image location of the item
+         * @param text the text associated with the item
+         * @param offset the position of the line in the file
+         * @param lineNumber the line number, counting from 1
+         */
+        void item(int depth, String imageLoc, String text, long offset, int lineNumber);
+
+        /**
+         * Called for each line skipped because it is nested too deeply.
+         * Such lines belong to the last line reported.
+         * @param offset the position of the line in the file
+         */
+        void skipped(long offset);
+
+        /**
+         * Called for each line that cannot be parsed.
+         * @param lineNumber the line number, counting from 1
+         * @param line the line
+         * @param problem what is wrong with the line
+         */
+        void malformed(int lineNumber, String line, String problem);
+
+        /**
+         * Called once the whole file (or range) has been parsed.
+         * @param offset the position just past the last byte parsed
+         */
+        void finished(long offset);
+    }  // end of Handler interface
+
+    /**
+     * Constants
+     */
+    static final int BUFFER_BYTES = 1 << 16;   // Initial size of the read buffer
+
+    /**
+     * Fields
+     */
+    Handler handler;   // Receives what is parsed
+    int maxDepth;   // Lines nested deeper than this are passed over without decoding
+    int lastDepth;   // Depth of the last line reported; -1 before the first
+    int lineNumber;   // Number of the line being parsed
+    long lineOffset;   // Position in the file of the line being parsed
+
+    /**
+     * Constructor
+     * Creates a parser that reports to the given handler.
+     * @param handler the handler
+     */
+    public MappingsParser(Handler handler) {
+        this(handler, Integer.MAX_VALUE);
+    }  // end of constructor
+
+    /**
+     * Constructor
+     * Creates a parser that reports to the given handler and skips over
+     * lines nested more deeply than the given depth.
+     * @param handler the handler
+     * @param maxDepth the deepest lines to report; 0 for only categories
+     */
+    public MappingsParser(Handler handler, int maxDepth) {
+        this.handler = handler;
+        this.maxDepth = maxDepth;
+    }  // end of constructor
+
+    /**
+     * Parses a whole file.
+     * @param path the file to parse
+     * @throws IOException if the file cannot be read
+     */
+    public void parse(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.parse(channel);
+        }
+    }  // end of parse method
+
+    /**
+     * Parses everything remaining in a channel.
+     * @param channel the channel to read
+     * @throws IOException if the channel cannot be read
+     */
+    public void parse(FileChannel channel) throws IOException {
+        this.parse(channel, channel.position(), channel.size(), 1, 0);
+    }  // end of parse method
+
+    /**
+     * Parses the lines in part of a channel, such as one category and
+     * everything nested in it.
+     * @param channel the channel to read
+     * @param from the position of the first line
+     * @param to the position just past the last line
+     * @param firstLineNumber the line number of the first line
+     * @param firstDepth the depth of the first line
+     * @throws IOException if the channel cannot be read
+     */
+    public void parse(FileChannel channel, long from, long to, int firstLineNumber, int firstDepth)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(BUFFER_BYTES, to - from)));
+        this.lastDepth = firstDepth - 1;
+        this.lineNumber = firstLineNumber - 1;
+        long position = from;  // Where the next read starts
+        boolean eof = false;
+        while (!eof) {
+            buffer.limit(buffer.position() + (int) Math.min(buffer.remaining(), to - position));
+            int read = buffer.hasRemaining() ? channel.read(buffer, position) : -1;
+            if (read < 0) {
+                eof = true;
+            } else {
+                position += read;
+            }
+            buffer.flip();
+            byte[] bytes = buffer.array();
+            long bufferOffset = position - buffer.limit();  // Position in the file of bytes[0]
+            int start = 0;
+            int end;
+            while ((end = this.indexOfNewline(bytes, start, buffer.limit())) >= 0) {
+                this.lineOffset = bufferOffset + start;
+                this.line(bytes, start, end);
+                start = end + 1;
+            }
+            if (eof && start < buffer.limit()) {
+                this.lineOffset = bufferOffset + start;
+                this.line(bytes, start, buffer.limit());  // Last line has no newline
+                start = buffer.limit();
+            }
+            buffer.position(start);
+            buffer.compact();  // Keep the partial line for the next read
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);  // A line longer than the buffer
+            }
+        }  // end of while loop
+        this.handler.finished(position);
+    }  // end of parse method
+
+    /**
+     * Finds the next newline.
+     * @param bytes the bytes to search
+     * @param from the first position to look at
+     * @param to the position after the last one to look at
+     * @return the position of the newline, or -1 if there is none
+     */
+    int indexOfNewline(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }  // end of indexOfNewline method
+
+    /**
+     * Parses one line and passes it on to the handler.
+     * @param bytes the buffer holding the line
+     * @param start the position of the first byte of the line
+     * @param end the position after the last byte, not counting the newline
+     */
+    void line(byte[] bytes, int start, int end) {
+        this.lineNumber++;
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;  // Windows line ending
+        }
+        if (start == end) {
+            return;  // Blank line
+        }
+        int locStart = start;
+        while (locStart < end && bytes[locStart] == '>') {
+            locStart++;
+        }
+        int depth = locStart - start;
+        if (depth > this.maxDepth && this.lastDepth == this.maxDepth) {
+            this.handler.skipped(this.lineOffset);  // Parsed (and checked) later, if at all
+            return;
+        }
+        int space = locStart;
+        while (space < end && bytes[space] != ' ') {
+            space++;
+        }
+        if (space == end) {
+            this.malformed(bytes, start, end, "expected an image location and text separated by a space");
+        } else if (space == locStart) {
+            this.malformed(bytes, start, end, "missing image location");
+        } else if (depth > this.lastDepth + 1) {
+            this.malformed(bytes, start, end, (this.lastDepth < 0) ? "item does not belong to any category"
+                : "item is nested more than one level below the line before it");
+        } else {
+            String imageLoc = new String(bytes, locStart, space - locStart, StandardCharsets.UTF_8);
+            String text = new String(bytes, space + 1, end - space - 1, StandardCharsets.UTF_8);
+            this.lastDepth = depth;
+            if (depth > 0) {
+                this.handler.item(depth, imageLoc, text, this.lineOffset, this.lineNumber);
+            } else {
+                this.handler.category(imageLoc, text, this.lineOffset, this.lineNumber);
+            }
+        }  // end of if-else
+    }  // end of line method
+
+    /**
+     * Reports a malformed line to the handler.
+     * @param bytes the buffer holding the line
+     * @param start the position of the first byte of the line
+     * @param end the position after the last byte
+     * @param problem what is wrong with the line
+     */
+    void malformed(byte[] bytes, int start, int end, String problem) {
+        String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        this.handler.malformed(this.lineNumber, line, problem);
+    }  // end of malformed method
+}  // end of MappingsParser class
@@ -0,0 +1,427 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.KVPair;
+import edu.grinnell.csc207.util.NullKeyException;
+
+/**
+ * Watches the text file a set of AACMappings was loaded from, and when
+ * someone else changes it, brings the mappings up to date without a
+ * restart.
+ *
+ * The new file is indexed on the watcher's thread (see
+ * AACMappings.index), and the items of each category that has to be
+ * compared are read there too. The differences are then applied on the
+ * given executor, e.g. the Swing event thread:
+ *   - categories that are gone are removed, and new ones are added;
+ *   - a renamed category is replaced;
+ *   - a LazyCategory that has not been edited already matches the old
+ *     file, so it is swapped for one that reads from the new file,
+ *     without reading either;
+ *   - any other category has only the items that differ added or removed,
+ *     at every depth.
+ * Every change except the swap goes through the journal, if there is one,
+ * so that replaying it on startup cannot undo the edit. The file wins: a
+ * change made in the app that the new file lacks is undone. If anything
+ * was added or removed, the mappings' change listeners are told, as after
+ * any other edit (see AACMappings.addChangeListener). The refresh
+ * callback runs only if the images on display changed.
+ *
+ * The mappings' own saves also change the file. write() tells the watcher
+ * the size and modification time of what it is about to put in place, and
+ * a file that still matches them is not reloaded.
+ *
+ * @author Slok Rajbhandari
+ */
+public class MappingsWatcher {
+    /**
+     * Constants
+     */
+    static final long SETTLE_MS = 200;   // Quiet period that ends a burst of events from one edit
+
+    /**
+     * Fields
+     */
+    AACMappings mappings;   // The mappings to keep up to date
+    Path file;   // The watched file
+    Executor applyOn;   // Where changes are applied
+    Runnable refresh;   // Called after a change to the images on display
+    WatchService watcher;   // Watches the file's directory
+    Thread thread;   // Waits for events and reads the new file
+    long expectedSize = -1;   // Size of the file the mappings last wrote
+    long expectedModified = -1;   // Modification time of that file, in milliseconds
+    int reloads;   // Number of changes applied
+    boolean edited;   // Whether the change being applied added or removed anything
+
+    /**
+     * Constructor
+     * Starts watching the file the mappings were loaded from.
+     * @param mappings the mappings to keep up to date
+     * @param applyOn where to apply changes, e.g. SwingUtilities::invokeLater
+     * @param refresh called, on the same executor, after a change to the images on display
+     * @throws IOException if the file's directory cannot be watched
+     */
+    public MappingsWatcher(AACMappings mappings, Executor applyOn, Runnable refresh) throws IOException {
+        this.mappings = mappings;
+        this.file = mappings.dataFile.toPath().toAbsolutePath();
+        this.applyOn = applyOn;
+        this.refresh = refresh;
+        this.watcher = this.file.getFileSystem().newWatchService();
+        this.file.getParent().register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watch, "mappings-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }  // end of constructor
+
+    /**
+     * Returns the number of times a change to the file has been applied.
+     * @return the number of reloads
+     */
+    public synchronized int getReloads() {
+        return this.reloads;
+    }  // end of getReloads method
+
+    /**
+     * Stops watching.
+     * @throws IOException if the watch service cannot be closed
+     */
+    public void close() throws IOException {
+        this.watcher.close();
+    }  // end of close method
+
+    /**
+     * Records that the mappings are about to replace the file with another,
+     * so that the change is not mistaken for someone else's.
+     * @param replacement the file about to be renamed over the watched one
+     * @throws IOException if the replacement cannot be read
+     */
+    synchronized void expect(Path replacement) throws IOException {
+        this.expectedSize = Files.size(replacement);
+        this.expectedModified = Files.getLastModifiedTime(replacement).toMillis();
+    }  // end of expect method
+
+    /**
+     * Determines whether the file is the one the mappings last wrote.
+     * @return true if it is, or if it cannot be read
+     */
+    synchronized boolean unchanged() {
+        try {
+            return Files.size(this.file) == this.expectedSize
+                && Files.getLastModifiedTime(this.file).toMillis() == this.expectedModified;
+        } catch (IOException e) {
+            return true;  // Gone for now, e.g. between an editor's delete and write
+        }
+    }  // end of unchanged method
+
+    /**
+     * Waits for changes to the file and reloads it once each burst of
+     * events has settled. Runs on the watcher's thread.
+     */
+    void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watcher.take();
+                boolean changed = this.concernsFile(key);
+                while ((key = this.watcher.poll(SETTLE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= this.concernsFile(key);  // Wait for the editor to finish
+                }
+                if (changed && !this.unchanged()) {
+                    this.reload();
+                }
+            }  // end of while loop
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }  // end of watch method
+
+    /**
+     * Determines whether any of a key's events are about the file, and
+     * readies the key for more events.
+     * @param key the key
+     * @return true if the file was created or modified
+     */
+    boolean concernsFile(WatchKey key) {
+        boolean concerns = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (this.file.getFileName().equals(event.context())) {
+                concerns = true;
+            }
+        }
+        key.reset();
+        return concerns;
+    }  // end of concernsFile method
+
+    /**
+     * Indexes the new file, reads the categories that will have to be
+     * compared, and hands the result to the executor to apply. Runs on the
+     * watcher's thread.
+     */
+    void reload() {
+        AACMappings fresh = new AACMappings(this.file.toString(), this.cache());
+        AssociativeArray<String, AACCategory> items = new AssociativeArray<>();
+        for (KVPair<String, AACPage> entry : fresh.categoryMappings) {
+            AACPage current;
+            synchronized (this.mappings) {
+                current = this.mappings.categoryMappings.getOrNull(entry.getKey());
+            }
+            if (current == null || !this.swappable(current)) {
+                try {
+                    items.set(entry.getKey(), this.readAll(((LazyCategory) entry.getValue()).read()));
+                } catch (NullKeyException nke) {
+                    // Cannot happen: keys are never null
+                }
+            }
+        }  // end of for loop
+        if (fresh.categoryMappings.size() == 0 && this.length() > 0) {
+            fresh.release();
+            return;  // Could not be read, or caught half written
+        }
+        this.applyOn.execute(() -> {
+            boolean affected;
+            synchronized (this.mappings) {
+                affected = this.apply(fresh, items);
+                this.release(fresh);
+                if (this.edited) {
+                    this.mappings.changed();  // E.g. so that autosave saves it
+                }
+            }
+            synchronized (this) {
+                this.reloads++;
+            }
+            if (affected) {
+                this.refresh.run();
+            }
+        });
+    }  // end of reload method
+
+    /**
+     * Brings the mappings into line with a fresh index of the file.
+     * @param fresh the new file, indexed
+     * @param items the items of the categories that must be compared, read in advance
+     * @return true if the images on display changed
+     */
+    boolean apply(AACMappings fresh, AssociativeArray<String, AACCategory> items) {
+        AACMappings mappings = this.mappings;
+        this.edited = false;
+        String[] shown = mappings.currentCategory.getImageLocs();
+        String path = mappings.currentLoc;
+        for (String imageLoc : mappings.homepage.getImageLocs()) {
+            if (!fresh.homepage.hasImage(imageLoc)) {
+                mappings.removeCategory(imageLoc);
+                this.edited = true;
+            }
+        }  // end of for loop
+        for (String imageLoc : fresh.homepage.getImageLocs()) {
+            String text = fresh.homepage.select(imageLoc);
+            LazyCategory replacement = (LazyCategory) fresh.categoryMappings.getOrNull(imageLoc);
+            AACPage current = mappings.categoryMappings.getOrNull(imageLoc);
+            if (current == null || !text.equals(mappings.homepage.select(imageLoc))) {
+                if (current != null) {
+                    mappings.removeCategory(imageLoc);  // Renamed
+                }
+                mappings.addCategory(imageLoc, text);
+                this.edited = true;
+                this.copy(imageLoc, this.items(items, replacement));
+            } else if (this.swappable(current)) {
+                ((LazyCategory) current).unload();
+                try {
+                    mappings.categoryMappings.set(imageLoc, replacement);
+                } catch (NullKeyException nke) {
+                    // Cannot happen: keys are never null
+                }
+                if (mappings.searchIndex != null) {
+                    mappings.searchIndex.stale(imageLoc);  // Its items are read again before the next search
+                }
+            } else {
+                this.diff(imageLoc, current, this.items(items, replacement));
+            }  // end of if-else
+        }  // end of for loop
+        if (path == null) {
+            mappings.reset();
+        } else {
+            mappings.enter(path);  // The same category, as far down as it still exists
+        }
+        return !Arrays.equals(shown, mappings.currentCategory.getImageLocs());
+    }  // end of apply method
+
+    /**
+     * Adds the items of a category of the new file, and everything nested
+     * under them, to an empty category.
+     * @param path the path of the category (see AACMappings.SEPARATOR)
+     * @param wanted the category in the new file
+     */
+    void copy(String path, AACPage wanted) {
+        for (String item : wanted.getImageLocs()) {
+            String text = wanted.select(item);
+            AACPage nested = wanted.getSubpage(item);
+            if (nested == null) {
+                this.mappings.addItem(path, item, text);
+            } else {
+                String nestedPath = path + AACMappings.SEPARATOR + item;
+                this.mappings.addCategory(nestedPath, text);
+                this.copy(nestedPath, nested);
+            }
+        }  // end of for loop
+    }  // end of copy method
+
+    /**
+     * Adds and removes the items that differ between a category and its
+     * copy in the new file, at every depth.
+     * @param path the path of the category (see AACMappings.SEPARATOR)
+     * @param current the category
+     * @param wanted the category in the new file
+     */
+    void diff(String path, AACPage current, AACPage wanted) {
+        for (String item : current.getImageLocs()) {
+            if (!wanted.hasImage(item)) {
+                this.mappings.removeItem(path, item);
+                this.edited = true;
+            }
+        }
+        for (String item : wanted.getImageLocs()) {
+            String text = wanted.select(item);
+            AACPage wantedNested = wanted.getSubpage(item);
+            AACPage currentNested = current.hasImage(item) ? current.getSubpage(item) : null;
+            String nestedPath = path + AACMappings.SEPARATOR + item;
+            if (wantedNested != null && currentNested == null) {
+                this.mappings.addCategory(nestedPath, text);  // Now a category
+                this.edited = true;
+                this.copy(nestedPath, wantedNested);
+                continue;
+            }
+            if (wantedNested == null && currentNested != null) {
+                this.mappings.removeItem(path, item);  // No longer a category
+                this.edited = true;
+            }
+            if (!current.hasImage(item) || !text.equals(current.select(item))) {
+                this.mappings.addItem(path, item, text);
+                this.edited = true;
+            }
+            if (wantedNested != null) {
+                this.diff(nestedPath, currentNested, wantedNested);
+            }
+        }  // end of for loop
+    }  // end of diff method
+
+    /**
+     * Returns the items of a category of the new file.
+     * @param items the items read in advance
+     * @param replacement the category
+     * @return the items
+     */
+    AACPage items(AssociativeArray<String, AACCategory> items, LazyCategory replacement) {
+        AACPage read = items.getOrNull(replacement.getCategory());
+        if (read == null) {
+            read = replacement.read();  // Edited since the file was indexed
+        }
+        return read;
+    }  // end of items method
+
+    /**
+     * Reads everything nested in a category of the new file, so that
+     * comparing it does not read the file on the executor.
+     * @param category the category
+     * @return the category
+     */
+    AACCategory readAll(AACCategory category) {
+        for (String imageLoc : category.getImageLocs()) {
+            AACPage nested = category.getSubpage(imageLoc);
+            if (nested instanceof LazyCategory) {
+                category.setSubpage(imageLoc, this.readAll(((LazyCategory) nested).read()));
+            }
+        }
+        return category;
+    }  // end of readAll method
+
+    /**
+     * Hands the files lazy categories read from over to what the mappings
+     * now use: the mappings take a reference to the new file if a category
+     * was swapped in to read from it, and give back their reference to any
+     * older file that no category reads from any more (see SharedChannel).
+     * The new index then gives back its own reference.
+     * @param fresh the new file, indexed
+     */
+    void release(AACMappings fresh) {
+        List<SharedChannel> channels = this.mappings.channels;
+        for (SharedChannel channel : fresh.channels) {
+            if (this.readFrom(channel)) {
+                channels.add(channel.retain());
+            }
+        }
+        for (Iterator<SharedChannel> it = channels.iterator(); it.hasNext(); ) {
+            SharedChannel channel = it.next();
+            if (!this.readFrom(channel)) {
+                it.remove();
+                channel.release();  // Closed unless a snapshot or a reader still has it
+            }
+        }  // end of for loop
+        fresh.release();
+    }  // end of release method
+
+    /**
+     * Determines whether any category of the mappings reads from a file.
+     * Nested lazy categories read from the same file as the category they
+     * are in, so only the categories on the homepage need checking.
+     * @param channel the file
+     * @return true if a category reads from it
+     */
+    boolean readFrom(SharedChannel channel) {
+        for (KVPair<String, AACPage> entry : this.mappings.categoryMappings) {
+            if (entry.getValue() instanceof LazyCategory && ((LazyCategory) entry.getValue()).channel == channel) {
+                return true;
+            }
+        }
+        return false;
+    }  // end of readFrom method
+
+    /**
+     * Returns the length of the file.
+     * @return the length, or 0 if it cannot be read
+     */
+    long length() {
+        try {
+            return Files.size(this.file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }  // end of length method
+
+    /**
+     * Determines whether a category can be swapped for the new file's copy
+     * without comparing them: only a LazyCategory that has not been edited
+     * is known to match the file it was read from.
+     * @param category the category
+     * @return true if the category can be swapped
+     */
+    boolean swappable(AACPage category) {
+        return category instanceof LazyCategory && !((LazyCategory) category).dirty;
+    }  // end of swappable method
+
+    /**
+     * Finds the cache the mappings' lazy categories use, so that swapped-in
+     * categories share it.
+     * @return the cache
+     */
+    CategoryCache cache() {
+        synchronized (this.mappings) {
+            for (KVPair<String, AACPage> entry : this.mappings.categoryMappings) {
+                if (entry.getValue() instanceof LazyCategory && ((LazyCategory) entry.getValue()).cache != null) {
+                    return ((LazyCategory) entry.getValue()).cache;
+                }
+            }
+        }
+        return new CategoryCache(CategoryCache.DEFAULT_BUDGET);  // Nothing is swapped in
+    }  // end of cache method
+}  // end of MappingsWatcher class
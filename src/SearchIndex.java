@@ -0,0 +1,602 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An index of the text of every item in a set of AACMappings, at every
+ * depth, so that a phrase can be found without knowing its category.
+ *
+ * Each item's text is split into lower-case words (tokens). The distinct
+ * tokens are kept in a sorted dictionary, so the tokens that start with a
+ * query word are one contiguous range found in O(log tokens), and each
+ * token keeps the ids of the items that contain it (its postings). For
+ * words found inside a token, e.g. "berry" in "strawberry", each token is
+ * also listed under every three-letter sequence (trigram) it contains;
+ * only the tokens under the query word's rarest trigram need checking.
+ *
+ * A search goes through the postings of its longest word only, first the
+ * whole-word matches, then prefixes, then words inside; the items found
+ * are checked against the other words using the tokens each item keeps.
+ * Once enough items score more than any item found by the next kind of
+ * match could, the search stops, so common words rarely cost more than
+ * their whole-word matches.
+ *
+ * Items are keyed by their path: the path of their category joined to
+ * their image location by AACMappings.SEPARATOR, so everything nested
+ * under an item shares its key as a prefix. AACMappings keeps the index
+ * up to date as it changes, and the index reads categories swapped in by
+ * MappingsWatcher again before the next search. Removed items stay in the
+ * postings, marked dead, until they outnumber the live ones and the index
+ * is rebuilt.
+ *
+ * Not thread-safe: AACMappings only uses it while locked.
+ *
+ * @author Slok Rajbhandari
+ */
+public class SearchIndex {
+    /**
+     * Constants
+     */
+    static final int EXACT = 4;   // Score for a query word that is a whole token
+    static final int PREFIX = 3;   // Score for a query word that starts a token
+    static final int INSIDE = 1;   // Score for a query word found inside a token
+    static final int GRAM = 3;   // Length of the sequences used to find words inside tokens
+    static final int MIN_DEAD = 1024;   // Dead items tolerated before a rebuild is considered
+
+    /**
+     * Fields
+     */
+    AACMappings mappings;   // The mappings indexed
+    TreeMap<String, Token> tokens = new TreeMap<>();   // Every token, in order
+    HashMap<String, ArrayList<Token>> grams = new HashMap<>();   // The tokens containing each trigram
+    HashMap<String, Integer> ids = new HashMap<>();   // The id of each live item, by key
+    TreeMap<String, Integer> keys = new TreeMap<>();   // The same, in order, to find nested items
+    String[] itemKeys = new String[16];   // The key of each item; null once removed
+    String[] texts = new String[16];   // The text of each item
+    Token[][] itemTokens = new Token[16][];   // The distinct words of each item's text
+    int count;   // Items ever added; the next id
+    int dead;   // Items removed since the last rebuild
+    ArrayList<String> stale = new ArrayList<>();   // Categories to read again before searching
+    int[] marks = new int[16];   // Per item, the last search it was found by
+    int[] scores = new int[16];   // Per item, its score for the current search
+    int epoch;   // The current search, so that marks left by earlier ones are stale
+    int[] found = new int[16];   // The items found so far by the current search
+    int matches;   // Items in found
+
+    /**
+     * Constructor
+     * Indexes every item in a set of mappings. Lazily loaded categories are
+     * read and unloaded again.
+     * @param mappings the mappings
+     */
+    public SearchIndex(AACMappings mappings) {
+        this.mappings = mappings;
+        for (String categoryLoc : mappings.homepage.getImageLocs()) {
+            this.add(null, categoryLoc, mappings.homepage.select(categoryLoc));
+            this.addAll(categoryLoc, mappings.categoryMappings.getOrNull(categoryLoc));
+        }
+    }  // end of constructor
+
+    /**
+     * One match for a search.
+     */
+    public static class Hit {
+        String categoryLoc;   // The path of the category the item is in; null for the homepage
+        String imageLoc;   // The item's image location
+        String text;   // The item's text
+        int score;   // How well it matches; higher is better
+
+        /**
+         * Constructor
+         * @param categoryLoc the path of the item's category, or null for the homepage
+         * @param imageLoc the item's image location
+         * @param text the item's text
+         * @param score how well the item matches
+         */
+        Hit(String categoryLoc, String imageLoc, String text, int score) {
+            this.categoryLoc = categoryLoc;
+            this.imageLoc = imageLoc;
+            this.text = text;
+            this.score = score;
+        }  // end of constructor
+
+        /**
+         * Returns the path of the category the item is in.
+         * @return the path (see AACMappings.SEPARATOR), or null for the homepage
+         */
+        public String getCategoryLoc() {
+            return this.categoryLoc;
+        }  // end of getCategoryLoc method
+
+        /**
+         * Returns the item's image location.
+         * @return the image location
+         */
+        public String getImageLoc() {
+            return this.imageLoc;
+        }  // end of getImageLoc method
+
+        /**
+         * Returns the item's text.
+         * @return the text
+         */
+        public String getText() {
+            return this.text;
+        }  // end of getText method
+
+        /**
+         * Returns how well the item matched; higher is better.
+         * @return the score
+         */
+        public int getScore() {
+            return this.score;
+        }  // end of getScore method
+
+        /**
+         * Converts the hit to a string representation.
+         * @return the string
+         */
+        public String toString() {
+            return ((this.categoryLoc == null) ? "" : this.categoryLoc + AACMappings.SEPARATOR)
+                + this.imageLoc + " " + this.text;
+        }  // end of toString method
+    }  // end of Hit class
+
+    /**
+     * Token
+     * A distinct word and the items whose text contains it.
+     */
+    static class Token {
+        String word;   // The word
+        int[] postings = new int[2];   // The ids of the items containing it, live or dead
+        int size;   // Postings in use
+
+        /**
+         * Constructor
+         * @param word the word
+         */
+        Token(String word) {
+            this.word = word;
+        }  // end of constructor
+
+        /**
+         * Adds an item.
+         * @param id the item's id
+         */
+        void post(int id) {
+            if (this.size == this.postings.length) {
+                int[] larger = new int[this.size * 2];
+                System.arraycopy(this.postings, 0, larger, 0, this.size);
+                this.postings = larger;
+            }
+            this.postings[this.size++] = id;
+        }  // end of post method
+    }  // end of Token class
+
+    /**
+     * Indexes an item, replacing any item with the same key.
+     * @param categoryLoc the path of the item's category, or null for the homepage
+     * @param imageLoc the item's image location
+     * @param text the item's text
+     */
+    public void add(String categoryLoc, String imageLoc, String text) {
+        String key = (categoryLoc == null) ? imageLoc : categoryLoc + AACMappings.SEPARATOR + imageLoc;
+        Integer old = this.ids.get(key);
+        if (old != null) {
+            this.kill(old);
+            this.tidy();
+        }
+        int id = this.count++;
+        if (id == this.itemKeys.length) {
+            this.grow();
+        }
+        this.itemKeys[id] = key;
+        this.texts[id] = text;
+        this.ids.put(key, id);
+        this.keys.put(key, id);
+        ArrayList<String> words = words(text);
+        ArrayList<Token> distinct = new ArrayList<>(words.size());
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            if (words.indexOf(word) == i) {  // Post each word once per item
+                Token token = this.token(word);
+                token.post(id);
+                distinct.add(token);
+            }
+        }  // end of for loop
+        this.itemTokens[id] = distinct.toArray(new Token[0]);
+    }  // end of add method
+
+    /**
+     * Removes an item and everything nested under it.
+     * @param path the path of the item (see AACMappings.SEPARATOR)
+     */
+    public void remove(String path) {
+        Integer id = this.ids.get(path);
+        if (id != null) {
+            this.kill(id);
+        }
+        this.removeUnder(path);
+        this.tidy();
+    }  // end of remove method
+
+    /**
+     * Forgets what a category holds, because it was replaced wholesale, and
+     * reads it again before the next search.
+     * @param categoryLoc the path of the category
+     */
+    public void stale(String categoryLoc) {
+        this.removeUnder(categoryLoc);
+        this.stale.add(categoryLoc);
+        this.tidy();
+    }  // end of stale method
+
+    /**
+     * Finds the items whose text contains every word of a query, each as a
+     * whole word, the start of a word, or (for words of at least three
+     * letters) inside a word. Items score more for whole words than for
+     * starts, and more for starts than for words found inside; among equal
+     * scores, shorter texts come first, then items in the order they were
+     * added.
+     * @param query the words to look for
+     * @param limit the most hits to return
+     * @return the best hits, best first
+     */
+    public Hit[] search(String query, int limit) {
+        for (String categoryLoc : this.stale) {
+            this.addAll(categoryLoc, this.mappings.resolve(categoryLoc));
+        }
+        this.stale.clear();
+        ArrayList<String> words = words(query);
+        if (words.isEmpty() || limit <= 0) {
+            return new Hit[0];
+        }
+        if (++this.epoch == Integer.MAX_VALUE) {
+            this.epoch = 1;
+            Arrays.fill(this.marks, 0);
+        }
+        this.matches = 0;
+        words.sort((a, b) -> b.length() - a.length());  // The longest word is likely the rarest
+        String first = words.get(0);
+        int others = EXACT * (words.size() - 1);   // The most the other words can add
+        Token exact = this.tokens.get(first);
+        if (exact != null) {
+            this.collect(exact, EXACT, words);
+        }
+        if (this.beaten(PREFIX + others) < limit) {
+            int from = this.matches;
+            for (Token token : this.tokens.subMap(first, false, first + Character.MAX_VALUE, false).values()) {
+                this.collect(token, PREFIX, null);
+            }
+            this.filter(words, from);
+        }
+        if (first.length() >= GRAM && this.beaten(INSIDE + others) < limit) {
+            int from = this.matches;
+            for (Token token : this.inside(first)) {
+                this.collect(token, INSIDE, null);
+            }
+            this.filter(words, from);
+        }
+        return this.best(limit);
+    }  // end of search method
+
+    /**
+     * Returns the number of live items.
+     * @return the number of items
+     */
+    public int size() {
+        return this.ids.size();
+    }  // end of size method
+
+    /**
+     * Indexes the items of a category and everything nested under them.
+     * A LazyCategory that was not loaded is unloaded again afterwards.
+     * @param categoryLoc the path of the category
+     * @param category the category, or null
+     */
+    void addAll(String categoryLoc, AACPage category) {
+        if (category == null) {
+            return;
+        }
+        boolean wasLoaded = !(category instanceof LazyCategory) || ((LazyCategory) category).isLoaded();
+        for (String imageLoc : category.getImageLocs()) {
+            this.add(categoryLoc, imageLoc, category.select(imageLoc));
+            AACPage nested = category.getSubpage(imageLoc);
+            if (nested != null) {
+                this.addAll(categoryLoc + AACMappings.SEPARATOR + imageLoc, nested);
+            }
+        }  // end of for loop
+        if (!wasLoaded) {
+            ((LazyCategory) category).unload();  // Do not keep every category in memory
+        }
+    }  // end of addAll method
+
+    /**
+     * Removes everything nested under an item.
+     * @param path the path of the item
+     */
+    void removeUnder(String path) {
+        String prefix = path + AACMappings.SEPARATOR;
+        Map<String, Integer> nested = this.keys.subMap(prefix, prefix + Character.MAX_VALUE);
+        for (Integer id : new ArrayList<>(nested.values())) {
+            this.kill(id);
+        }
+    }  // end of removeUnder method
+
+    /**
+     * Marks an item dead.
+     * @param id the item's id
+     */
+    void kill(int id) {
+        this.ids.remove(this.itemKeys[id]);
+        this.keys.remove(this.itemKeys[id]);
+        this.itemKeys[id] = null;
+        this.texts[id] = null;
+        this.dead++;
+    }  // end of kill method
+
+    /**
+     * Rebuilds the index once most of its items are dead.
+     */
+    void tidy() {
+        if (this.dead > MIN_DEAD && this.dead > this.ids.size()) {
+            this.rebuild();
+        }
+    }  // end of tidy method
+
+    /**
+     * Indexes the live items again from scratch, dropping the dead ones.
+     */
+    void rebuild() {
+        String[] oldKeys = this.itemKeys;
+        String[] oldTexts = this.texts;
+        int oldCount = this.count;
+        this.tokens = new TreeMap<>();
+        this.grams = new HashMap<>();
+        this.ids = new HashMap<>();
+        this.keys = new TreeMap<>();
+        this.itemKeys = new String[16];
+        this.texts = new String[16];
+        this.itemTokens = new Token[16][];
+        this.marks = new int[16];
+        this.scores = new int[16];
+        this.count = 0;
+        this.dead = 0;
+        for (int id = 0; id < oldCount; id++) {
+            if (oldKeys[id] != null) {
+                this.add(null, oldKeys[id], oldTexts[id]);  // The key is the whole path
+            }
+        }  // end of for loop
+    }  // end of rebuild method
+
+    /**
+     * Doubles the per-item arrays.
+     */
+    void grow() {
+        int length = this.itemKeys.length * 2;
+        this.itemKeys = Arrays.copyOf(this.itemKeys, length);
+        this.texts = Arrays.copyOf(this.texts, length);
+        this.itemTokens = Arrays.copyOf(this.itemTokens, length);
+        this.marks = Arrays.copyOf(this.marks, length);
+        this.scores = Arrays.copyOf(this.scores, length);
+    }  // end of grow method
+
+    /**
+     * Finds or creates the token for a word.
+     * @param word the word
+     * @return its token
+     */
+    Token token(String word) {
+        Token token = this.tokens.get(word);
+        if (token == null) {
+            token = new Token(word);
+            this.tokens.put(word, token);
+            for (int i = 0; i + GRAM <= word.length(); i++) {
+                String gram = word.substring(i, i + GRAM);
+                ArrayList<Token> containing = this.grams.computeIfAbsent(gram, g -> new ArrayList<>());
+                if (containing.isEmpty() || containing.get(containing.size() - 1) != token) {
+                    containing.add(token);  // Each token once, even if the trigram repeats
+                }
+            }  // end of for loop
+        }
+        return token;
+    }  // end of token method
+
+    /**
+     * Finds the tokens that contain a word, other than at their start.
+     * @param word a word of at least GRAM letters
+     * @return the tokens
+     */
+    ArrayList<Token> inside(String word) {
+        ArrayList<Token> rarest = null;
+        for (int i = 0; i + GRAM <= word.length(); i++) {
+            ArrayList<Token> containing = this.grams.get(word.substring(i, i + GRAM));
+            if (containing == null) {
+                return new ArrayList<>();  // No token has this trigram
+            }
+            if (rarest == null || containing.size() < rarest.size()) {
+                rarest = containing;
+            }
+        }  // end of for loop
+        ArrayList<Token> result = new ArrayList<>();
+        for (Token token : rarest) {
+            if (token.word.indexOf(word, 1) > 0) {
+                result.add(token);
+            }
+        }  // end of for loop
+        return result;
+    }  // end of inside method
+
+    /**
+     * Finds the live items containing a token, for the longest word of a
+     * query. An item found by several tokens keeps its first score, which
+     * is its best since exact matches are tried before prefixes and
+     * prefixes before words inside.
+     * @param token the token
+     * @param score the score for matching this way
+     * @param words the words of the query, to check the items found
+     *   against the others at once; null to leave that to filter()
+     */
+    void collect(Token token, int score, ArrayList<String> words) {
+        int from = this.matches;
+        int[] postings = token.postings;
+        for (int i = 0; i < token.size; i++) {
+            int id = postings[i];
+            if (this.itemKeys[id] == null || this.marks[id] == this.epoch) {
+                continue;  // Dead, or already found
+            }
+            this.marks[id] = this.epoch;
+            this.scores[id] = score;
+            if (this.matches == this.found.length) {
+                this.found = Arrays.copyOf(this.found, this.matches * 2);
+            }
+            this.found[this.matches++] = id;
+        }  // end of for loop
+        if (words != null) {
+            this.filter(words, from);
+        }
+    }  // end of collect method
+
+    /**
+     * Keeps only the items found since a point whose text also matches the
+     * other words of the query, and adds their best score for each. Checking
+     * the few words of each item found is cheaper than going through every
+     * item that matches the other words.
+     * @param words the words of the query; the first was used to find the items
+     * @param from the first item to check
+     */
+    void filter(ArrayList<String> words, int from) {
+        int kept = from;
+        for (int i = from; i < this.matches; i++) {
+            int id = this.found[i];
+            int total = this.scores[id];
+            for (int w = 1; w < words.size() && total > 0; w++) {
+                int best = this.best(this.itemTokens[id], words.get(w));
+                total = (best == 0) ? 0 : total + best;
+            }
+            if (total > 0) {
+                this.scores[id] = total;
+                this.found[kept++] = id;
+            }
+        }  // end of for loop
+        this.matches = kept;
+    }  // end of filter method
+
+    /**
+     * Determines how well a word matches any of an item's words.
+     * @param tokens the item's words
+     * @param word the word
+     * @return EXACT, PREFIX, INSIDE, or 0 if it does not match
+     */
+    int best(Token[] tokens, String word) {
+        int best = 0;
+        for (Token token : tokens) {
+            String other = token.word;
+            if (other.equals(word)) {
+                return EXACT;
+            } else if (other.startsWith(word)) {
+                best = PREFIX;
+            } else if (best == 0 && word.length() >= GRAM && other.indexOf(word, 1) > 0) {
+                best = INSIDE;
+            }
+        }  // end of for loop
+        return best;
+    }  // end of best method
+
+    /**
+     * Counts the items found that score more than a bound.
+     * @param bound the bound
+     * @return the number of items
+     */
+    int beaten(int bound) {
+        int beaten = 0;
+        for (int i = 0; i < this.matches; i++) {
+            if (this.scores[this.found[i]] > bound) {
+                beaten++;
+            }
+        }  // end of for loop
+        return beaten;
+    }  // end of beaten method
+
+    /**
+     * Picks the best of the items found.
+     * @param limit the most hits to return
+     * @return the best hits, best first
+     */
+    Hit[] best(int limit) {
+        long[] heap = new long[Math.min(limit, this.matches)];   // Worst of the best at the top
+        int size = 0;
+        for (int i = 0; i < this.matches; i++) {
+            int id = this.found[i];
+            long rank = this.rank(id);
+            if (size < heap.length) {
+                int at = size++;
+                while (at > 0 && heap[(at - 1) / 2] > rank) {  // Sift up
+                    heap[at] = heap[(at - 1) / 2];
+                    at = (at - 1) / 2;
+                }
+                heap[at] = rank;
+            } else if (rank > heap[0]) {
+                int at = 0;
+                while (2 * at + 1 < size) {  // Sift down
+                    int child = 2 * at + 1;
+                    if (child + 1 < size && heap[child + 1] < heap[child]) {
+                        child++;
+                    }
+                    if (heap[child] >= rank) {
+                        break;
+                    }
+                    heap[at] = heap[child];
+                    at = child;
+                }  // end of while loop
+                heap[at] = rank;
+            }
+        }  // end of for loop
+        long[] ranks = Arrays.copyOf(heap, size);
+        Arrays.sort(ranks);
+        Hit[] hits = new Hit[size];
+        for (int i = 0; i < size; i++) {
+            int id = Integer.MAX_VALUE - (int) (ranks[size - 1 - i] & Integer.MAX_VALUE);
+            String key = this.itemKeys[id];
+            int last = key.lastIndexOf(AACMappings.SEPARATOR);
+            hits[i] = new Hit((last < 0) ? null : key.substring(0, last),
+                key.substring(last + AACMappings.SEPARATOR.length()), this.texts[id], this.scores[id]);
+        }  // end of for loop
+        return hits;
+    }  // end of best method
+
+    /**
+     * Orders an item among the hits: by score, then by fewer words, then
+     * by id, so that a greater rank is a better hit.
+     * @param id the item's id
+     * @return its rank
+     */
+    long rank(int id) {
+        long words = Math.min(this.itemTokens[id].length, 0xFFFF);
+        return ((long) this.scores[id] << 47) | ((0xFFFF - words) << 31) | (Integer.MAX_VALUE - id);
+    }  // end of rank method
+
+    /**
+     * Splits text into lower-case words of letters and digits.
+     * @param text the text
+     * @return the words, in order
+     */
+    static ArrayList<String> words(String text) {
+        ArrayList<String> words = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean inWord = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(lower.substring(start, i));
+                start = -1;
+            }
+        }  // end of for loop
+        return words;
+    }  // end of words method
+}  // end of SearchIndex class
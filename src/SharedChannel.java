@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file open for reading that several sets of AACMappings read lazy
+ * categories from, closed once the last of them lets go of it.
+ *
+ * The AACMappings that indexed the file holds the first reference.
+ * Snapshots of it take one each, since they may be written after the
+ * mappings have moved on to a newer file, and so does anything that reads
+ * a category without holding the mappings' lock. Each reference is given
+ * back with release(); AACMappings.close() gives back the mappings' own.
+ *
+ * @author Slok Rajbhandari
+ */
+public class SharedChannel {
+    /**
+     * Fields
+     */
+    FileChannel channel;   // The open file
+    int references;   // Number of holders; the channel is closed when it reaches 0
+
+    /**
+     * Constructor
+     * Opens a file for reading, with one reference for the caller.
+     * @param file the file
+     * @throws IOException if the file cannot be opened
+     */
+    public SharedChannel(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.references = 1;
+    }  // end of constructor
+
+    /**
+     * Returns the channel, for positional reads.
+     * @return the channel
+     */
+    public FileChannel channel() {
+        return this.channel;
+    }  // end of channel method
+
+    /**
+     * Takes another reference, which must be given back with release().
+     * @return this channel
+     * @throws IllegalStateException if the channel has already been closed
+     */
+    public synchronized SharedChannel retain() {
+        if (this.references == 0) {
+            throw new IllegalStateException("Channel already closed");
+        }
+        this.references++;
+        return this;
+    }  // end of retain method
+
+    /**
+     * Gives back a reference, closing the channel if it was the last.
+     */
+    public synchronized void release() {
+        if (this.references > 0 && --this.references == 0) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                // Nothing more to do with it
+            }
+        }
+    }  // end of release method
+
+    /**
+     * Determines whether the channel is still open.
+     * @return true until the last reference is given back
+     */
+    public synchronized boolean isOpen() {
+        return this.references > 0;
+    }  // end of isOpen method
+}  // end of SharedChannel class
@@ -0,0 +1,240 @@
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.grinnell.csc207.util.ConcurrentAssociativeArray;
+import edu.grinnell.csc207.util.KVPair;
+
+/**
+ * Tests of ConcurrentAssociativeArray. JUnit is not on the project's
+ * class path, so the tests run from main:
+ *
+ *   java TestConcurrentAssociativeArray
+ *
+ * which exits with status 1 if any test fails.
+ *
+ * @author Slok Rajbhandari
+ */
+public class TestConcurrentAssociativeArray {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of distinct keys the writer cycles through.
+   */
+  static final int KEYS = 2000;
+
+  /**
+   * The number of writes the writer performs.
+   */
+  static final int WRITES = 200000;
+
+  /**
+   * The number of reader threads.
+   */
+  static final int READERS = 4;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * The value the writer stores for a key in a given round. A pair is
+   * torn if its value was not built from its own key.
+   */
+  static String valueFor(String key, int round) {
+    return key + "@" + round;
+  } // valueFor(String, int)
+
+  /**
+   * Check that a pair is not torn.
+   */
+  static boolean consistent(KVPair<String, String> pair) {
+    String key = pair.getKey();
+    String value = pair.getValue();
+    return key != null && value != null && value.startsWith(key + "@");
+  } // consistent(KVPair)
+
+  /**
+   * Fail unless two values are equal.
+   */
+  static void assertEquals(Object expected, Object actual, String message) {
+    if (expected == null ? actual != null : !expected.equals(actual)) {
+      fail(message + ": expected " + expected + " but was " + actual);
+    } // if
+  } // assertEquals(Object, Object, String)
+
+  /**
+   * Fail unless a condition holds.
+   */
+  static void assertTrue(boolean condition, String message) {
+    if (!condition) {
+      fail(message);
+    } // if
+  } // assertTrue(boolean, String)
+
+  /**
+   * Fail a test.
+   */
+  static void fail(String message) {
+    throw new AssertionError(message);
+  } // fail(String)
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Do single-threaded operations behave like an ordinary associative
+   * array?
+   */
+  void testBasics() throws Exception {
+    ConcurrentAssociativeArray<String, String> map = new ConcurrentAssociativeArray<>();
+    map.set("a", "apple");
+    map.set("b", "banana");
+    map.set("a", "apricot");
+    assertEquals(2, map.size(), "two keys");
+    assertEquals("apricot", map.get("a"), "updated value");
+    assertEquals(null, map.putIfAbsent("c", "cherry"), "putIfAbsent adds");
+    assertEquals("cherry", map.putIfAbsent("c", "coconut"), "putIfAbsent keeps");
+    map.remove("b");
+    assertEquals(null, map.getOrNull("b"), "removed key");
+    String order = "";
+    for (KVPair<String, String> pair : map) {
+      order += pair.getKey();
+    } // for
+    assertEquals("ac", order, "insertion order");
+  } // testBasics()
+
+  /**
+   * Do iterators keep walking the version they started with while a
+   * writer changes the array?
+   */
+  void testWeaklyConsistentIterator() throws Exception {
+    ConcurrentAssociativeArray<String, String> map = new ConcurrentAssociativeArray<>();
+    for (int i = 0; i < 100; i++) {
+      map.set("k" + i, valueFor("k" + i, 0));
+    } // for
+    int count = 0;
+    for (KVPair<String, String> pair : map) {
+      map.remove(pair.getKey());
+      map.set("new" + count, valueFor("new" + count, 0));
+      count++;
+    } // for
+    assertEquals(100, count, "iterator saw exactly the original pairs");
+    assertEquals(100, map.size(), "all original keys replaced");
+  } // testWeaklyConsistentIterator()
+
+  /**
+   * Stress test: while one thread sets and removes keys as fast as it
+   * can, several readers iterate and look keys up. No reader may ever
+   * see a pair whose value does not belong to its key, a size that
+   * disagrees with the pairs it iterated, or an exception.
+   */
+  void testConcurrentSetAndIterate() throws Exception {
+    ConcurrentAssociativeArray<String, String> map = new ConcurrentAssociativeArray<>();
+    AtomicBoolean done = new AtomicBoolean(false);
+    AtomicReference<String> failure = new AtomicReference<>(null);
+    CountDownLatch start = new CountDownLatch(1);
+
+    Thread writer = new Thread(() -> {
+      try {
+        start.await();
+        for (int i = 0; i < WRITES; i++) {
+          String key = "key" + (i % KEYS);
+          if (i % 7 == 0) {
+            map.remove(key);
+          } else {
+            map.set(key, valueFor(key, i));
+          } // if/else
+        } // for
+      } catch (Exception e) {
+        failure.compareAndSet(null, "writer threw " + e);
+      } finally {
+        done.set(true);
+      } // try/catch/finally
+    });
+
+    Thread[] readers = new Thread[READERS];
+    for (int r = 0; r < READERS; r++) {
+      final int seed = r;
+      readers[r] = new Thread(() -> {
+        try {
+          start.await();
+          int probe = seed;
+          while (!done.get()) {
+            int seen = 0;
+            for (KVPair<String, String> pair : map.snapshot()) {
+              if (!consistent(pair)) {
+                failure.compareAndSet(null, "torn pair " + pair);
+              } // if
+              seen++;
+            } // for
+            if (seen > KEYS) {
+              failure.compareAndSet(null, "iterated " + seen + " pairs");
+            } // if
+            for (KVPair<String, String> pair : map) {
+              if (!consistent(pair)) {
+                failure.compareAndSet(null, "torn pair " + pair);
+              } // if
+            } // for
+            String key = "key" + (probe++ % KEYS);
+            String value = map.getOrNull(key);
+            if (value != null && !value.startsWith(key + "@")) {
+              failure.compareAndSet(null, "torn lookup " + key + " -> " + value);
+            } // if
+          } // while
+        } catch (Exception e) {
+          failure.compareAndSet(null, "reader threw " + e);
+        } // try/catch
+      });
+    } // for
+
+    writer.start();
+    for (Thread reader : readers) {
+      reader.start();
+    } // for
+    start.countDown();
+    writer.join();
+    for (Thread reader : readers) {
+      reader.join();
+    } // for
+
+    if (failure.get() != null) {
+      fail(failure.get());
+    } // if
+    int count = 0;
+    for (KVPair<String, String> pair : map) {
+      assertTrue(consistent(pair), "final pair " + pair);
+      count++;
+    } // for
+    assertEquals(map.size(), count, "size matches iteration");
+  } // testConcurrentSetAndIterate()
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run every test, reporting each result.
+   */
+  public static void main(String[] args) throws Exception {
+    TestConcurrentAssociativeArray tests = new TestConcurrentAssociativeArray();
+    int failed = 0;
+    String[] names = {"testBasics", "testWeaklyConsistentIterator", "testConcurrentSetAndIterate"};
+    for (String name : names) {
+      try {
+        TestConcurrentAssociativeArray.class.getDeclaredMethod(name).invoke(tests);
+        System.out.println("PASS " + name);
+      } catch (InvocationTargetException e) {
+        System.out.println("FAIL " + name + ": " + e.getCause());
+        failed++;
+      } // try/catch
+    } // for
+    if (failed > 0) {
+      System.exit(1);
+    } // if
+  } // main(String[])
+} // class TestConcurrentAssociativeArray
@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Tests of the file that lazily loaded AACMappings read their categories
+ * from: it stays open while anything may still read from it, and is
+ * closed once nothing can. JUnit is not on the project's class path, so
+ * the tests run from main:
+ *
+ *   java TestLazyMappings
+ *
+ * which exits with status 1 if any test fails.
+ *
+ * @author Slok Rajbhandari
+ */
+public class TestLazyMappings {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The vocabulary the tests start with.
+   */
+  static final String VOCABULARY =
+      "img/food.png food\n"
+      + ">img/apple.png apple\n"
+      + ">img/bread.png bread\n"
+      + "img/clothes.png clothes\n"
+      + ">img/hat.png hat\n";
+
+  /**
+   * How long to wait for the watcher, in milliseconds.
+   */
+  static final long TIMEOUT = 10000;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The directory of the current test.
+   */
+  Path dir;
+
+  /**
+   * The data file of the current test.
+   */
+  Path data;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Start a test in a new directory with a fresh data file.
+   */
+  void setUp() throws IOException {
+    this.dir = Files.createTempDirectory("lazy");
+    this.data = this.dir.resolve("AACMappings.txt");
+    Files.write(this.data, VOCABULARY.getBytes(StandardCharsets.UTF_8));
+  } // setUp()
+
+  /**
+   * Delete the directory of the current test.
+   */
+  void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(this.dir)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      } // for
+    } // try
+  } // tearDown()
+
+  /**
+   * The mappings, loaded lazily.
+   */
+  AACMappings lazy() {
+    AACMappings mappings = new AACMappings(this.data.toString(), CategoryCache.DEFAULT_BUDGET);
+    assertTrue(mappings.categoryMappings.getOrNull("img/food.png") instanceof LazyCategory, "not lazy");
+    return mappings;
+  } // lazy()
+
+  /**
+   * The file the lazy categories of some mappings read from.
+   */
+  static SharedChannel channel(AACMappings mappings, String category) {
+    return ((LazyCategory) mappings.categoryMappings.getOrNull(category)).channel;
+  } // channel(AACMappings, String)
+
+  /**
+   * Replace the data file as an editor would, and wait for the watcher to
+   * apply the change.
+   */
+  void replace(AACMappings mappings, String contents) throws Exception {
+    int reloads = mappings.watcher.getReloads();
+    Path temp = this.dir.resolve("AACMappings.tmp");
+    Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+    Files.move(temp, this.data, StandardCopyOption.ATOMIC_MOVE);
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (mappings.watcher.getReloads() == reloads && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    } // while
+    assertEquals(reloads + 1, mappings.watcher.getReloads(), "reloads");
+  } // replace(AACMappings, String)
+
+  /**
+   * Fail unless two values are equal.
+   */
+  static void assertEquals(Object expected, Object actual, String message) {
+    if (expected == null ? actual != null : !expected.equals(actual)) {
+      fail(message + ": expected " + expected + " but was " + actual);
+    } // if
+  } // assertEquals(Object, Object, String)
+
+  /**
+   * Fail unless a condition holds.
+   */
+  static void assertTrue(boolean condition, String message) {
+    if (!condition) {
+      fail(message);
+    } // if
+  } // assertTrue(boolean, String)
+
+  /**
+   * Fail a test.
+   */
+  static void fail(String message) {
+    throw new AssertionError(message);
+  } // fail(String)
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Closing the mappings closes the file.
+   */
+  public void testClose() throws Exception {
+    AACMappings mappings = lazy();
+    SharedChannel channel = channel(mappings, "img/food.png");
+    assertEquals(2, mappings.getImageLocs("img/food.png").length, "items read");
+    mappings.close();
+    assertTrue(!channel.isOpen() && !channel.channel().isOpen(), "file left open");
+    mappings.close();  // Harmless
+  } // testClose()
+
+  /**
+   * A snapshot can still read categories after the mappings are closed,
+   * and closes the file once released.
+   */
+  public void testSnapshot() throws Exception {
+    AACMappings mappings = lazy();
+    AACMappings snapshot = mappings.snapshot();
+    SharedChannel channel = channel(mappings, "img/food.png");
+    mappings.close();
+    assertTrue(channel.isOpen(), "closed under the snapshot");
+    assertEquals("hat", snapshot.categoryMappings.getOrNull("img/clothes.png").select("img/hat.png"),
+        "read by the snapshot");
+    snapshot.release();
+    assertTrue(!channel.channel().isOpen(), "file left open");
+  } // testSnapshot()
+
+  /**
+   * When the watcher swaps categories for ones that read the new file,
+   * the old file is closed, and the new one is closed with the mappings.
+   */
+  public void testWatcherSwap() throws Exception {
+    AACMappings mappings = lazy();
+    SharedChannel old = channel(mappings, "img/food.png");
+    mappings.watch(Runnable::run, () -> { });
+    replace(mappings, VOCABULARY + "img/toys.png toys\n>img/ball.png ball\n");
+    SharedChannel swapped = channel(mappings, "img/food.png");
+    assertTrue(swapped != old, "not swapped");
+    assertTrue(!old.channel().isOpen(), "old file left open");
+    assertEquals("ball", mappings.categoryMappings.getOrNull("img/toys.png").select("img/ball.png"), "new category");
+    mappings.close();
+    assertTrue(!swapped.channel().isOpen(), "new file left open");
+  } // testWatcherSwap()
+
+  /**
+   * The change listeners are told when the watcher adds or removes
+   * anything, but not when it only swaps in categories that read the new
+   * file.
+   */
+  public void testWatcherTellsListeners() throws Exception {
+    AACMappings mappings = lazy();
+    int[] changes = {0};
+    mappings.addChangeListener(() -> changes[0]++);
+    mappings.watch(Runnable::run, () -> { });
+    replace(mappings, VOCABULARY);
+    assertEquals(0, changes[0], "changes after a swap");
+    replace(mappings, VOCABULARY.replace(">img/bread.png bread\n", ""));
+    assertEquals(0, changes[0], "changes after swapping an unedited category");
+    mappings.getText("img/clothes.png");
+    mappings.add("img/scarf.png", "scarf");
+    assertEquals(1, changes[0], "changes after an add");
+    replace(mappings, VOCABULARY);
+    assertEquals(2, changes[0], "changes after a diff");
+    assertTrue(!mappings.categoryMappings.getOrNull("img/clothes.png").hasImage("img/scarf.png"), "not applied");
+    mappings.close();
+  } // testWatcherTellsListeners()
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  public static void main(String[] args) throws Exception {
+    TestLazyMappings tests = new TestLazyMappings();
+    int failed = 0;
+    String[] names = {"testClose", "testSnapshot", "testWatcherSwap", "testWatcherTellsListeners"};
+    for (String name : names) {
+      tests.setUp();
+      try {
+        TestLazyMappings.class.getDeclaredMethod(name).invoke(tests);
+        System.out.println("PASS " + name);
+      } catch (InvocationTargetException e) {
+        System.out.println("FAIL " + name + ": " + e.getCause());
+        failed++;
+      } finally {
+        tests.tearDown();
+      } // try/catch/finally
+    } // for
+    if (failed > 0) {
+      System.exit(1);
+    } // if
+  } // main(String[])
+} // class TestLazyMappings
@@ -0,0 +1,261 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Tests of MappedVocabulary and MappedCategory with nested categories:
+ * compiling them, opening them, and changing them once compiled. JUnit
+ * is not on the project's class path, so the tests run from main:
+ *
+ *   java TestMappedVocabulary
+ *
+ * which exits with status 1 if any test fails.
+ *
+ * @author Slok Rajbhandari
+ */
+public class TestMappedVocabulary {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * A vocabulary with categories nested two levels deep.
+   */
+  static final String VOCABULARY =
+      "img/food.png food\n"
+      + ">img/fruit.png fruit\n"
+      + ">>img/berry.png berries\n"
+      + ">>>img/straw.png strawberry\n"
+      + ">>>img/blue.png blueberry\n"
+      + ">>img/apple.png apple\n"
+      + ">img/bread.png bread\n"
+      + "img/clothes.png clothes\n"
+      + ">img/hat.png hat\n";
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The directory of the current test.
+   */
+  Path dir;
+
+  /**
+   * The text file of the current test.
+   */
+  Path text;
+
+  // +---------+-----------------------------------------------------
+  // | Changes |
+  // +---------+
+
+  /**
+   * Add a category nested in a category that is itself nested, and fill it.
+   */
+  static void addNested(AACMappings mappings) {
+    String citrus = "img/food.png" + AACMappings.SEPARATOR + "img/fruit.png"
+        + AACMappings.SEPARATOR + "img/citrus.png";
+    mappings.addCategory(citrus, "citrus");
+    mappings.addItem(citrus, "img/lime.png", "lime");
+    mappings.addCategory("img/clothes.png" + AACMappings.SEPARATOR + "img/shoes.png", "shoes");
+  } // addNested(AACMappings)
+
+  /**
+   * Change and remove items of compiled nested categories.
+   */
+  static void editNested(AACMappings mappings) {
+    String berry = "img/food.png" + AACMappings.SEPARATOR + "img/fruit.png"
+        + AACMappings.SEPARATOR + "img/berry.png";
+    mappings.addItem(berry, "img/straw.png", "strawberries");
+    mappings.removeItem(berry, "img/blue.png");
+    mappings.removeItem("img/food.png", "img/bread.png");
+  } // editNested(AACMappings)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Start a test in a new directory with a fresh text file.
+   */
+  void setUp() throws IOException {
+    this.dir = Files.createTempDirectory("vocabulary");
+    this.text = this.dir.resolve("AACMappings.txt");
+    Files.write(this.text, VOCABULARY.getBytes(StandardCharsets.UTF_8));
+  } // setUp()
+
+  /**
+   * Delete the directory of the current test.
+   */
+  void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(this.dir)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      } // for
+    } // try
+  } // tearDown()
+
+  /**
+   * Compile the text file next to it and open it as AAC does.
+   */
+  AACMappings compiled() throws IOException {
+    MappedVocabulary.compile(this.text.toString(), MappedVocabulary.compiledPath(this.text.toString()).toString());
+    AACMappings mappings = new AACMappings(this.text.toString());
+    assertTrue(mappings.homepage instanceof MappedCategory, "compiled vocabulary not used");
+    return mappings;
+  } // compiled()
+
+  /**
+   * The vocabulary parsed from text, with some changes.
+   */
+  @SafeVarargs
+  final String expected(Consumer<AACMappings>... changes) throws IOException {
+    AACMappings mappings = new AACMappings(this.text.toString(), false);
+    for (Consumer<AACMappings> change : changes) {
+      change.accept(mappings);
+    } // for
+    return export(mappings);
+  } // expected(Consumer...)
+
+  /**
+   * The mappings in the format of the text file.
+   */
+  static String export(AACMappings mappings) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mappings.writeTo(out);
+    return out.toString(StandardCharsets.UTF_8.name());
+  } // export(AACMappings)
+
+  /**
+   * Fail unless two values are equal.
+   */
+  static void assertEquals(Object expected, Object actual, String message) {
+    if (expected == null ? actual != null : !expected.equals(actual)) {
+      fail(message + ": expected " + expected + " but was " + actual);
+    } // if
+  } // assertEquals(Object, Object, String)
+
+  /**
+   * Fail unless a condition holds.
+   */
+  static void assertTrue(boolean condition, String message) {
+    if (!condition) {
+      fail(message);
+    } // if
+  } // assertTrue(boolean, String)
+
+  /**
+   * Fail a test.
+   */
+  static void fail(String message) {
+    throw new AssertionError(message);
+  } // fail(String)
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Nested categories compile, and open from the compiled file.
+   */
+  public void testCompileNested() throws Exception {
+    AACMappings mappings = compiled();
+    assertEquals(expected(), export(mappings), "compiled vocabulary");
+    mappings.getText("img/food.png");
+    mappings.getText("img/fruit.png");
+    mappings.getText("img/berry.png");
+    assertEquals("strawberry", mappings.getText("img/straw.png"), "nested item");
+    assertEquals("img/berry.png", mappings.getCurrentCategory(), "nested category");
+  } // testCompileNested()
+
+  /**
+   * Nested categories can be added to a compiled vocabulary, under both
+   * compiled and added categories.
+   */
+  public void testAddNestedCategory() throws Exception {
+    AACMappings mappings = compiled();
+    addNested(mappings);
+    assertEquals(expected(TestMappedVocabulary::addNested), export(mappings), "added categories");
+    mappings.getText("img/food.png");
+    mappings.getText("img/fruit.png");
+    assertTrue(mappings.isCategory("img/citrus.png"), "added category does not open");
+    mappings.getText("img/citrus.png");
+    assertEquals("lime", mappings.getText("img/lime.png"), "item of the added category");
+  } // testAddNestedCategory()
+
+  /**
+   * Items of compiled nested categories can be changed and removed, and
+   * the changes are kept.
+   */
+  public void testEditNested() throws Exception {
+    AACMappings mappings = compiled();
+    editNested(mappings);
+    assertEquals(expected(TestMappedVocabulary::editNested), export(mappings), "edited categories");
+  } // testEditNested()
+
+  /**
+   * A compiled vocabulary with changes on the heap compiles again, and
+   * snapshots do not see later changes.
+   */
+  public void testRecompile() throws Exception {
+    AACMappings mappings = compiled();
+    AACMappings snapshot = mappings.snapshot();
+    addNested(mappings);
+    editNested(mappings);
+    String expected = expected(TestMappedVocabulary::addNested, TestMappedVocabulary::editNested);
+    Path again = this.dir.resolve("again" + MappedVocabulary.EXTENSION);
+    MappedVocabulary.write(mappings, again.toString());
+    assertEquals(expected, export(new AACMappings(new MappedVocabulary(again.toString()))), "recompiled");
+    assertEquals(expected(), export(snapshot), "snapshot");
+  } // testRecompile()
+
+  /**
+   * Compiling over a vocabulary that is open replaces the file instead of
+   * rewriting it, so the open vocabulary keeps reading the old one.
+   */
+  public void testCompileWhileOpen() throws Exception {
+    AACMappings open = compiled();
+    String before = export(open);
+    Files.write(this.text, (VOCABULARY + "img/toys.png toys\n>img/ball.png ball\n").getBytes(StandardCharsets.UTF_8));
+    String after = expected();
+    MappedVocabulary.compile(this.text.toString(), MappedVocabulary.compiledPath(this.text.toString()).toString());
+    assertEquals(before, export(open), "open vocabulary");
+    assertEquals(after, export(new AACMappings(this.text.toString())), "recompiled vocabulary");
+    try (Stream<Path> paths = Files.list(this.dir)) {
+      assertEquals(2L, paths.count(), "files left in the directory");
+    } // try
+  } // testCompileWhileOpen()
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  public static void main(String[] args) throws Exception {
+    TestMappedVocabulary tests = new TestMappedVocabulary();
+    int failed = 0;
+    String[] names = {"testCompileNested", "testAddNestedCategory", "testEditNested", "testRecompile",
+        "testCompileWhileOpen"};
+    for (String name : names) {
+      tests.setUp();
+      try {
+        TestMappedVocabulary.class.getDeclaredMethod(name).invoke(tests);
+        System.out.println("PASS " + name);
+      } catch (InvocationTargetException e) {
+        System.out.println("FAIL " + name + ": " + e.getCause());
+        failed++;
+      } finally {
+        tests.tearDown();
+      } // try/catch/finally
+    } // for
+    if (failed > 0) {
+      System.exit(1);
+    } // if
+  } // main(String[])
+} // class TestMappedVocabulary
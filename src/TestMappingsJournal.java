@@ -0,0 +1,355 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Tests of MappingsJournal: replaying changes after a crash, cutting off
+ * torn and corrupt records, finishing an interrupted compaction, and
+ * replaying changes the data file already includes. JUnit is not on the
+ * project's class path, so the tests run from main:
+ *
+ *   java TestMappingsJournal
+ *
+ * which exits with status 1 if any test fails.
+ *
+ * @author Slok Rajbhandari
+ */
+public class TestMappingsJournal {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The vocabulary every test starts from.
+   */
+  static final String VOCABULARY =
+      "img/food/plate.png food\n"
+      + ">img/food/icons8-apple-96.png apple\n"
+      + ">img/food/icons8-cookies-96.png cookies\n"
+      + "img/clothing/hanger.png clothing\n"
+      + ">img/clothing/icons8-jacket-96.png jacket\n";
+
+  /**
+   * The bytes a crash might leave at the end of the journal: a record
+   * that claims 50 bytes of payload but has only three.
+   */
+  static final byte[] TORN = {0, 0, 0, 50, 1, 2, 3};
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The directory of the current test.
+   */
+  Path dir;
+
+  /**
+   * The data file of the current test.
+   */
+  Path data;
+
+  // +---------+-----------------------------------------------------
+  // | Changes |
+  // +---------+
+
+  /**
+   * A few changes of every kind.
+   */
+  static void first(AACMappings mappings) {
+    mappings.addCategory("img/places/map.png", "places");
+    mappings.addItem("img/places/map.png", "img/places/icons8-school-96.png", "school");
+    mappings.addItem("img/food/plate.png", "img/food/icons8-pizza-96.png", "pizza \u00fc");
+    mappings.removeItem("img/food/plate.png", "img/food/icons8-apple-96.png");
+  } // first(AACMappings)
+
+  /**
+   * Changes that undo and redo some of the first ones.
+   */
+  static void second(AACMappings mappings) {
+    mappings.removeCategory("img/clothing/hanger.png");
+    mappings.addItem("img/food/plate.png", "img/food/icons8-apple-96.png", "red apple");
+    mappings.addItem("img/places/map.png", "img/places/icons8-park-96.png", "park");
+  } // second(AACMappings)
+
+  /**
+   * A change to the text of an existing item.
+   */
+  static void third(AACMappings mappings) {
+    mappings.addItem("img/food/plate.png", "img/food/icons8-cookies-96.png", "biscuits");
+  } // third(AACMappings)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Start a test in a new directory with a fresh data file.
+   */
+  void setUp() throws IOException {
+    this.dir = Files.createTempDirectory("journal");
+    this.data = this.dir.resolve("AACMappings.txt");
+    Files.write(this.data, VOCABULARY.getBytes(StandardCharsets.UTF_8));
+  } // setUp()
+
+  /**
+   * Delete the directory of the current test.
+   */
+  void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(this.dir)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      } // for
+    } // try
+  } // tearDown()
+
+  /**
+   * The journal next to a data file.
+   */
+  static Path journalOf(Path data) {
+    return data.resolveSibling(data.getFileName() + ".journal");
+  } // journalOf(Path)
+
+  /**
+   * The pending journal next to a data file.
+   */
+  static Path pendingOf(Path data) {
+    return data.resolveSibling(data.getFileName() + ".journal.pending");
+  } // pendingOf(Path)
+
+  /**
+   * Load mappings in full, without a journal.
+   */
+  static AACMappings load(Path data) {
+    return new AACMappings(data.toString(), false);
+  } // load(Path)
+
+  /**
+   * Load mappings and replay their journal.
+   */
+  static AACMappings open(Path data) throws IOException {
+    AACMappings mappings = load(data);
+    mappings.openJournal();
+    return mappings;
+  } // open(Path)
+
+  /**
+   * Make some changes through a journal and stop. save() has every
+   * change on disk before close() runs, so the journal is left as a
+   * crash right after saving would leave it.
+   */
+  @SafeVarargs
+  static void journal(Path data, Consumer<AACMappings>... changes) throws IOException {
+    AACMappings mappings = open(data);
+    for (Consumer<AACMappings> change : changes) {
+      change.accept(mappings);
+    } // for
+    mappings.save();
+    mappings.close();
+  } // journal(Path, Consumer...)
+
+  /**
+   * The vocabulary, with some changes made without a journal.
+   */
+  @SafeVarargs
+  final String expected(Consumer<AACMappings>... changes) throws IOException {
+    Path copy = this.dir.resolve("expected.txt");
+    Files.write(copy, VOCABULARY.getBytes(StandardCharsets.UTF_8));
+    AACMappings mappings = load(copy);
+    for (Consumer<AACMappings> change : changes) {
+      change.accept(mappings);
+    } // for
+    Files.delete(copy);
+    return export(mappings);
+  } // expected(Consumer...)
+
+  /**
+   * The mappings in the format of the data file.
+   */
+  static String export(AACMappings mappings) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mappings.writeTo(out);
+    return out.toString(StandardCharsets.UTF_8.name());
+  } // export(AACMappings)
+
+  /**
+   * A journal over a scratch copy of the vocabulary, with which to
+   * replay other journals. The copy has no journal of its own, so
+   * opening this one replays nothing.
+   */
+  MappingsJournal replayer() throws IOException {
+    Path scratch = this.dir.resolve("scratch.txt");
+    Files.write(scratch, VOCABULARY.getBytes(StandardCharsets.UTF_8));
+    return new MappingsJournal(load(scratch), scratch);
+  } // replayer()
+
+  /**
+   * Fail unless two values are equal.
+   */
+  static void assertEquals(Object expected, Object actual, String message) {
+    if (expected == null ? actual != null : !expected.equals(actual)) {
+      fail(message + ": expected " + expected + " but was " + actual);
+    } // if
+  } // assertEquals(Object, Object, String)
+
+  /**
+   * Fail unless a condition holds.
+   */
+  static void assertTrue(boolean condition, String message) {
+    if (!condition) {
+      fail(message);
+    } // if
+  } // assertTrue(boolean, String)
+
+  /**
+   * Fail a test.
+   */
+  static void fail(String message) {
+    throw new AssertionError(message);
+  } // fail(String)
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Changes that only reached the journal are replayed on startup and
+   * then folded into the data file.
+   */
+  public void testReplay() throws Exception {
+    journal(this.data, TestMappingsJournal::first, TestMappingsJournal::second);
+    assertEquals(VOCABULARY, new String(Files.readAllBytes(this.data), StandardCharsets.UTF_8),
+        "data file before replay");
+    String expected = expected(TestMappingsJournal::first, TestMappingsJournal::second);
+    AACMappings mappings = open(this.data);
+    assertEquals(expected, export(mappings), "replayed mappings");
+    mappings.close();  // Waits for the compaction
+    assertEquals(expected, export(load(this.data)), "compacted data file");
+    assertEquals(0L, Files.size(journalOf(this.data)), "journal after compaction");
+    assertTrue(!Files.exists(pendingOf(this.data)), "pending journal left behind");
+  } // testReplay()
+
+  /**
+   * A record torn off at the end of the journal is ignored and cut off,
+   * so that the changes recorded after it are not lost behind it.
+   */
+  public void testTornRecord() throws Exception {
+    journal(this.data, TestMappingsJournal::first);
+    Path journal = journalOf(this.data);
+    long valid = Files.size(journal);
+    Files.write(journal, TORN, StandardOpenOption.APPEND);
+
+    MappingsJournal replayer = this.replayer();
+    assertEquals(valid, replayer.replay(journal), "valid length");
+    replayer.close();
+    assertEquals(expected(TestMappingsJournal::first), export(replayer.mappings), "replayed mappings");
+
+    AACMappings mappings = open(this.data);
+    second(mappings);
+    mappings.close();
+    String expected = expected(TestMappingsJournal::first, TestMappingsJournal::second);
+    mappings = open(this.data);
+    assertEquals(expected, export(mappings), "changes after the torn record");
+    mappings.close();
+    assertEquals(expected, export(load(this.data)), "compacted data file");
+  } // testTornRecord()
+
+  /**
+   * Replay stops at a record whose checksum does not match, and the
+   * records before it are kept.
+   */
+  public void testCorruptRecord() throws Exception {
+    journal(this.data, TestMappingsJournal::first);
+    Path journal = journalOf(this.data);
+    long valid = Files.size(journal);
+    Path scratch = this.dir.resolve("other.txt");
+    Files.write(scratch, expected(TestMappingsJournal::first).getBytes(StandardCharsets.UTF_8));
+    journal(scratch, TestMappingsJournal::third);  // One record, made after first()
+    Files.write(journal, Files.readAllBytes(journalOf(scratch)), StandardOpenOption.APPEND);
+    journal(scratch, TestMappingsJournal::second);
+    Files.write(journal, Files.readAllBytes(journalOf(scratch)), StandardOpenOption.APPEND);
+
+    byte[] bytes = Files.readAllBytes(journal);
+    bytes[(int) valid + 8 + 5] ^= 1;  // In the payload of the third() record
+    Files.write(journal, bytes);
+
+    MappingsJournal replayer = this.replayer();
+    assertEquals(valid, replayer.replay(journal), "valid length");
+    replayer.close();
+    assertEquals(expected(TestMappingsJournal::first), export(replayer.mappings), "replayed mappings");
+  } // testCorruptRecord()
+
+  /**
+   * A compaction interrupted after setting the journal aside is finished
+   * on startup: the pending journal is replayed before the new one, the
+   * data file is rewritten and the pending journal deleted.
+   */
+  public void testInterruptedCompaction() throws Exception {
+    journal(this.data, TestMappingsJournal::first);
+    Files.move(journalOf(this.data), pendingOf(this.data));
+    Path scratch = this.dir.resolve("other.txt");
+    Files.write(scratch, expected(TestMappingsJournal::first).getBytes(StandardCharsets.UTF_8));
+    journal(scratch, TestMappingsJournal::second, TestMappingsJournal::third);  // Made after first()
+    Files.move(journalOf(scratch), journalOf(this.data));
+
+    String expected = expected(TestMappingsJournal::first, TestMappingsJournal::second,
+        TestMappingsJournal::third);
+    AACMappings mappings = open(this.data);
+    assertEquals(expected, export(mappings), "replayed mappings");
+    mappings.close();  // Waits for the compaction that folds in the replayed changes
+    assertTrue(!Files.exists(pendingOf(this.data)), "pending journal left behind");
+    assertEquals(expected, export(load(this.data)), "data file");
+  } // testInterruptedCompaction()
+
+  /**
+   * Replaying a journal whose changes the data file already includes,
+   * as after a compaction that wrote the data file but did not get to
+   * delete the pending journal, gives the same mappings.
+   */
+  public void testReplayIsHarmless() throws Exception {
+    journal(this.data, TestMappingsJournal::first, TestMappingsJournal::second,
+        TestMappingsJournal::third);
+    String expected = expected(TestMappingsJournal::first, TestMappingsJournal::second,
+        TestMappingsJournal::third);
+    Files.write(this.data, expected.getBytes(StandardCharsets.UTF_8));
+    Files.move(journalOf(this.data), pendingOf(this.data));
+
+    AACMappings mappings = open(this.data);
+    assertEquals(expected, export(mappings), "replayed mappings");
+    mappings.close();
+    assertEquals(expected, export(load(this.data)), "data file");
+  } // testReplayIsHarmless()
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  public static void main(String[] args) throws Exception {
+    TestMappingsJournal tests = new TestMappingsJournal();
+    int failed = 0;
+    String[] names = {"testReplay", "testTornRecord", "testCorruptRecord",
+        "testInterruptedCompaction", "testReplayIsHarmless"};
+    for (String name : names) {
+      tests.setUp();
+      try {
+        TestMappingsJournal.class.getDeclaredMethod(name).invoke(tests);
+        System.out.println("PASS " + name);
+      } catch (InvocationTargetException e) {
+        System.out.println("FAIL " + name + ": " + e.getCause());
+        failed++;
+      } finally {
+        tests.tearDown();
+      } // try/catch/finally
+    } // for
+    if (failed > 0) {
+      System.exit(1);
+    } // if
+  } // main(String[])
+} // class TestMappingsJournal
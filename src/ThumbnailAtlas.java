@@ -0,0 +1,451 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+
+/**
+ * Images scaled down to fit a grid cell, packed into one memory-mapped
+ * file, so that the AAC neither opens nor decodes the full-size originals
+ * once their thumbnails exist.
+ *
+ * Every thumbnail has a slot of cellWidth x cellHeight ARGB pixels, and
+ * fills the top left corner of it: images are scaled down to fit the cell,
+ * keeping their proportions, but never scaled up. The index records, for
+ * each image location, its slot, its size, and the size, modification time
+ * and CRC32 of the file it was made from. The first time a thumbnail is
+ * used, its file's size and modification time are checked; if they differ
+ * the file is read and its CRC32 compared, so a file that was only touched
+ * keeps its thumbnail. Missing thumbnails are made when first needed (see
+ * load) or all at once for a vocabulary:
+ *   java ThumbnailAtlas AACMappings.txt [cellSize]
+ * New thumbnails are kept on the heap until save() rewrites the file.
+ *
+ * Layout of the file (all ints and longs big-endian):
+ *   int MAGIC, int VERSION, int cellWidth, int cellHeight, int count,
+ *   long indexOffset,
+ *   count slots of cellWidth * cellHeight ints,
+ *   the index: for each thumbnail, int length and the UTF-8 image
+ *   location, int slot, int width, int height, long sourceSize,
+ *   long sourceModified, long sourceChecksum
+ *
+ * @author Slok Rajbhandari
+ */
+public class ThumbnailAtlas {
+    /**
+     * Constants
+     */
+    static final int MAGIC = 0x41414354;   // "AACT"
+    static final int VERSION = 1;   // Version of the layout
+    static final int HEADER_BYTES = 28;   // Size of the header
+    static final String EXTENSION = ".atlas";   // Extension of atlas files
+
+    /**
+     * Fields
+     */
+    Path path;   // The atlas file
+    int cellWidth;   // Width of every slot
+    int cellHeight;   // Height of every slot
+    MappedByteBuffer buffer;   // The file as last written or read; null if there was none
+    HashMap<String, Thumbnail> thumbnails = new HashMap<>();   // The index, by image location
+    HashSet<String> checked = new HashSet<>();   // Thumbnails checked against their files since opening
+    boolean dirty;   // Whether the index differs from the file
+
+    /**
+     * Thumbnail
+     * One image's entry in the index.
+     */
+    static class Thumbnail {
+        int slot;   // Where its pixels are in the file; -1 until saved
+        int[] pixels;   // Its pixels until saved, cellWidth to a row; null once saved
+        int width;   // Its width
+        int height;   // Its height
+        long sourceSize;   // Size of the file it was made from
+        long sourceModified;   // Modification time of that file, in milliseconds
+        long sourceChecksum;   // CRC32 of that file
+
+        /**
+         * Constructor
+         * @param slot where its pixels are in the file, or -1
+         * @param pixels its pixels, if not in the file
+         * @param width its width
+         * @param height its height
+         * @param sourceSize size of the file it was made from
+         * @param sourceModified modification time of that file
+         * @param sourceChecksum CRC32 of that file
+         */
+        Thumbnail(int slot, int[] pixels, int width, int height, long sourceSize, long sourceModified,
+                long sourceChecksum) {
+            this.slot = slot;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+            this.sourceChecksum = sourceChecksum;
+        }  // end of constructor
+    }  // end of Thumbnail class
+
+    /**
+     * Constructor
+     * Maps an existing atlas, or starts an empty one if the file is missing,
+     * unreadable, or made for another cell size.
+     * @param path the atlas file
+     * @param cellWidth the width of a grid cell
+     * @param cellHeight the height of a grid cell
+     */
+    public ThumbnailAtlas(Path path, int cellWidth, int cellHeight) {
+        this.path = path;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        try {
+            this.map();
+        } catch (NoSuchFileException e) {
+            // Made as thumbnails are needed
+        } catch (IOException e) {
+            System.err.println("Ignoring " + path + ": " + e.getMessage());
+            this.buffer = null;
+            this.thumbnails.clear();
+        }
+    }  // end of constructor
+
+    /**
+     * Returns where the atlas for a cell size is kept by default: in the
+     * working directory, which image locations are relative to.
+     * @param cellWidth the width of a grid cell
+     * @param cellHeight the height of a grid cell
+     * @return the path of the atlas
+     */
+    public static Path defaultPath(int cellWidth, int cellHeight) {
+        return Paths.get("thumbnails-" + cellWidth + "x" + cellHeight + EXTENSION);
+    }  // end of defaultPath method
+
+    /**
+     * Returns the thumbnail of an image, if the atlas has one that is still
+     * up to date.
+     * @param imageLoc the location of the image
+     * @return the thumbnail, or null
+     */
+    public synchronized BufferedImage get(String imageLoc) {
+        Thumbnail thumbnail = this.thumbnails.get(imageLoc);
+        if (thumbnail == null) {
+            return null;
+        }
+        if (!this.checked.contains(imageLoc)) {
+            if (!this.isFresh(imageLoc, thumbnail)) {
+                this.thumbnails.remove(imageLoc);
+                this.dirty = true;
+                return null;
+            }
+            this.checked.add(imageLoc);
+        }
+        BufferedImage image = new BufferedImage(thumbnail.width, thumbnail.height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        if (thumbnail.pixels != null) {
+            for (int y = 0; y < thumbnail.height; y++) {
+                System.arraycopy(thumbnail.pixels, y * this.cellWidth, pixels, y * thumbnail.width, thumbnail.width);
+            }
+        } else {
+            IntBuffer slot = this.slot(thumbnail.slot);
+            for (int y = 0; y < thumbnail.height; y++) {
+                slot.position(y * this.cellWidth);
+                slot.get(pixels, y * thumbnail.width, thumbnail.width);
+            }
+        }  // end of if-else
+        return image;
+    }  // end of get method
+
+    /**
+     * Returns the thumbnail of an image, making it from the image file if the
+     * atlas has none or the file has changed. A new thumbnail is written to
+     * the atlas file by the next save().
+     * @param imageLoc the location of the image
+     * @return the thumbnail, or null if the file is not an image
+     * @throws IOException if the file cannot be read
+     */
+    public BufferedImage load(String imageLoc) throws IOException {
+        BufferedImage thumbnail = this.get(imageLoc);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+        Path source = Paths.get(imageLoc);
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        byte[] bytes = Files.readAllBytes(source);
+        BufferedImage original = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (original == null) {
+            return null;
+        }
+        thumbnail = this.scale(original);
+        int[] pixels = new int[this.cellWidth * this.cellHeight];
+        thumbnail.getRGB(0, 0, thumbnail.getWidth(), thumbnail.getHeight(), pixels, 0, this.cellWidth);
+        synchronized (this) {
+            this.thumbnails.put(imageLoc, new Thumbnail(-1, pixels, thumbnail.getWidth(), thumbnail.getHeight(),
+                bytes.length, attributes.lastModifiedTime().toMillis(), checksum(bytes)));
+            this.checked.add(imageLoc);
+            this.dirty = true;
+        }
+        return thumbnail;
+    }  // end of load method
+
+    /**
+     * Writes the atlas file, if anything has changed, and maps it again.
+     * The file is replaced atomically, so a reader never sees half of it.
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        if (!this.dirty) {
+            return;
+        }
+        TreeMap<String, Thumbnail> sorted = new TreeMap<>(this.thumbnails);
+        int slotBytes = 4 * this.cellWidth * this.cellHeight;
+        long indexOffset = HEADER_BYTES + (long) slotBytes * sorted.size();
+        Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(this.cellWidth).putInt(this.cellHeight);
+            header.putInt(sorted.size()).putLong(indexOffset).flip();
+            writeFully(channel, header);
+            ByteBuffer slot = ByteBuffer.allocateDirect(slotBytes);
+            for (Thumbnail thumbnail : sorted.values()) {
+                slot.clear();
+                if (thumbnail.pixels != null) {
+                    slot.asIntBuffer().put(thumbnail.pixels);
+                } else {
+                    slot.asIntBuffer().put(this.slot(thumbnail.slot));
+                }
+                writeFully(channel, slot);
+            }  // end of for loop
+            ByteBuffer index = ByteBuffer.allocate(64 << 10);
+            int slotNumber = 0;
+            for (String imageLoc : sorted.keySet()) {
+                Thumbnail thumbnail = sorted.get(imageLoc);
+                byte[] name = imageLoc.getBytes(StandardCharsets.UTF_8);
+                if (index.remaining() < 40 + name.length) {
+                    index.flip();
+                    writeFully(channel, index);
+                    index = ByteBuffer.allocate(Math.max(index.capacity(), 40 + name.length));
+                }
+                index.putInt(name.length).put(name);
+                index.putInt(slotNumber++).putInt(thumbnail.width).putInt(thumbnail.height);
+                index.putLong(thumbnail.sourceSize).putLong(thumbnail.sourceModified).putLong(thumbnail.sourceChecksum);
+            }  // end of for loop
+            index.flip();
+            writeFully(channel, index);
+            channel.force(true);
+        }  // end of try
+        Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.map();
+        this.dirty = false;
+    }  // end of save method
+
+    /**
+     * Returns the number of thumbnails.
+     * @return the number of thumbnails
+     */
+    public synchronized int size() {
+        return this.thumbnails.size();
+    }  // end of size method
+
+    /**
+     * Maps the atlas file and reads its index.
+     * @throws IOException if the file cannot be read, is not an atlas, or is
+     *   made for another cell size
+     */
+    void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }  // The mapping stays valid after the channel is closed
+        if (this.buffer.capacity() < HEADER_BYTES || this.buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a thumbnail atlas");
+        }
+        if (this.buffer.getInt(4) != VERSION) {
+            throw new IOException("unsupported version " + this.buffer.getInt(4));
+        }
+        if (this.buffer.getInt(8) != this.cellWidth || this.buffer.getInt(12) != this.cellHeight) {
+            throw new IOException("made for " + this.buffer.getInt(8) + "x" + this.buffer.getInt(12) + " cells");
+        }
+        int count = this.buffer.getInt(16);
+        ByteBuffer index = this.buffer.duplicate();
+        index.position((int) this.buffer.getLong(20));
+        HashMap<String, Thumbnail> thumbnails = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[index.getInt()];
+            index.get(name);
+            thumbnails.put(new String(name, StandardCharsets.UTF_8), new Thumbnail(index.getInt(), null,
+                index.getInt(), index.getInt(), index.getLong(), index.getLong(), index.getLong()));
+        }  // end of for loop
+        this.thumbnails = thumbnails;
+    }  // end of map method
+
+    /**
+     * Views the pixels of a slot in the mapped file.
+     * @param slot the slot
+     * @return its pixels, cellWidth to a row
+     */
+    IntBuffer slot(int slot) {
+        ByteBuffer bytes = this.buffer.duplicate();
+        int slotBytes = 4 * this.cellWidth * this.cellHeight;
+        bytes.position(HEADER_BYTES + slot * slotBytes).limit(HEADER_BYTES + (slot + 1) * slotBytes);
+        return bytes.slice().asIntBuffer();
+    }  // end of slot method
+
+    /**
+     * Determines whether a thumbnail was made from the image file as it is
+     * now: if its size and modification time are unchanged, or if its
+     * contents are.
+     * @param imageLoc the location of the image
+     * @param thumbnail the thumbnail
+     * @return true if the thumbnail is up to date
+     */
+    boolean isFresh(String imageLoc, Thumbnail thumbnail) {
+        try {
+            Path source = Paths.get(imageLoc);
+            BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+            if (attributes.size() != thumbnail.sourceSize) {
+                return false;
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (modified == thumbnail.sourceModified) {
+                return true;
+            }
+            if (checksum(Files.readAllBytes(source)) != thumbnail.sourceChecksum) {
+                return false;
+            }
+            thumbnail.sourceModified = modified;  // Only touched
+            this.dirty = true;
+            return true;
+        } catch (IOException e) {
+            return false;  // Missing or unreadable
+        }
+    }  // end of isFresh method
+
+    /**
+     * Scales an image down to fit a cell, keeping its proportions. Large
+     * reductions are made in steps of at most half, which looks much
+     * better than one bilinear step.
+     * @param original the image
+     * @return the image, scaled
+     */
+    BufferedImage scale(BufferedImage original) {
+        double factor = Math.min(1.0, Math.min((double) this.cellWidth / original.getWidth(),
+            (double) this.cellHeight / original.getHeight()));
+        int width = Math.max(1, (int) Math.round(original.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(original.getHeight() * factor));
+        BufferedImage image = original;
+        do {
+            int stepWidth = Math.max(width, image.getWidth() / 2);
+            int stepHeight = Math.max(height, image.getHeight() / 2);
+            BufferedImage step = new BufferedImage(stepWidth, stepHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = step.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, stepWidth, stepHeight, null);
+            graphics.dispose();
+            image = step;
+        } while (image.getWidth() != width || image.getHeight() != height);
+        return image;
+    }  // end of scale method
+
+    /**
+     * Writes all of a buffer.
+     * @param channel where to write
+     * @param buffer what to write
+     * @throws IOException if the channel cannot be written
+     */
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }  // end of writeFully method
+
+    /**
+     * Computes the CRC32 of a file's contents.
+     * @param bytes the contents
+     * @return the checksum
+     */
+    static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }  // end of checksum method
+
+    /**
+     * Lists every image location in a set of mappings, at every depth.
+     * @param mappings the mappings
+     * @return the image locations, in homepage order
+     */
+    static List<String> imageLocs(AACMappings mappings) {
+        List<String> imageLocs = new ArrayList<>();
+        imageLocs(mappings.homepage, imageLocs);
+        for (String categoryLoc : mappings.homepage.getImageLocs()) {
+            AACPage category = mappings.categoryMappings.getOrNull(categoryLoc);
+            if (category != null) {
+                imageLocs(category, imageLocs);
+            }
+        }  // end of for loop
+        return imageLocs;
+    }  // end of imageLocs method
+
+    /**
+     * Lists the image locations in a page and the pages nested in it.
+     * @param page the page
+     * @param imageLocs where to list them
+     */
+    static void imageLocs(AACPage page, List<String> imageLocs) {
+        for (String imageLoc : page.getImageLocs()) {
+            imageLocs.add(imageLoc);
+            AACPage nested = page.getSubpage(imageLoc);
+            if (nested != null) {
+                imageLocs(nested, imageLocs);
+            }
+        }  // end of for loop
+    }  // end of imageLocs method
+
+    /**
+     * Makes the thumbnails for every image in a vocabulary.
+     * @param args the text file, and optionally the cell size in pixels
+     * @throws IOException if the atlas cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java ThumbnailAtlas mappings.txt [cellSize]");
+            System.exit(1);
+        }
+        int cellSize = (args.length > 1) ? Integer.parseInt(args[1]) : AAC.cellSize();
+        ThumbnailAtlas atlas = new ThumbnailAtlas(defaultPath(cellSize, cellSize), cellSize, cellSize);
+        int made = 0;
+        for (String imageLoc : imageLocs(new AACMappings(args[0], false))) {
+            try {
+                if (atlas.load(imageLoc) == null) {
+                    System.err.println("Cannot decode " + imageLoc);
+                }
+                made++;
+            } catch (IOException e) {
+                System.err.println("Cannot read " + imageLoc + ": " + e.getMessage());
+            }
+        }  // end of for loop
+        atlas.save();
+        System.out.println(atlas.path + ": " + atlas.size() + " thumbnails for " + made + " images");
+    }  // end of main method
+}  // end of ThumbnailAtlas class
@@ -2,16 +2,27 @@ package edu.grinnell.csc207.util;
 
 import static java.lang.reflect.Array.newInstance;
 import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
 
 /**
  * A basic implementation of Associative Arrays with keys of type K
  * and values of type V. Associative Arrays store key/value pairs
  * and permit you to look up values by key.
  *
+ * Pairs are kept in `pairs` in insertion order, which is the order
+ * the iterator visits them in. An open-addressing hash table (`index`)
+ * maps each key to its position in `pairs`, so lookups take constant
+ * expected time instead of scanning the whole array.
+ *
+ * Removing a pair leaves a tombstone (a null cell) in `pairs` so that the
+ * remaining pairs keep their order and positions. Tombstones are squeezed
+ * out when the array grows, and once they outnumber the live pairs, so
+ * removal costs O(1) amortized.
+ *
  * @author Slok Rajbhandari
  * @author Samuel A. Rebelsky
  */
-public class AssociativeArray<K, V> implements Iterable<KVPair<K,V>> {
+public class AssociativeArray<K, V> implements AssociativeMap<K, V> {
 
   // +-----------+---------------------------------------------------
   // | Constants |
@@ -27,21 +38,30 @@ public class AssociativeArray<K, V> implements Iterable<KVPair<K,V>> {
   // +--------+
 
   /**
-   * The size of the associative array (memory allocated to the array).
+   * The size of the associative array (the number of key/value pairs).
    */
-  int capacity;
-
+  int size;
 
   /**
-   * The size of the associative array (the number of key/value pairs).
+   * The number of cells of `pairs` in use, counting tombstones. New
+   * pairs are appended at this position.
    */
-  int size;
+  int used;
 
   /**
-   * The array of key/value pairs.
+   * The array of key/value pairs. Cells below `used` that hold null are
+   * tombstones left by remove.
    */
   KVPair<K, V> pairs[];
 
+  /**
+   * The hash index into `pairs`. Each slot holds one more than the
+   * position of a pair in `pairs`, or 0 if the slot is empty. Collisions
+   * are resolved by linear probing. The table has at least twice as
+   * many slots as `pairs` has cells, so it is never more than half full.
+   */
+  int[] index;
+
     // +--------------+------------------------------------------------
     // | Constructors |
     // +--------------+
@@ -50,11 +70,25 @@ public class AssociativeArray<K, V> implements Iterable<KVPair<K,V>> {
      * 
      * Creates a new, empty associative array.
      */
-    @SuppressWarnings({ "unchecked" })
     public AssociativeArray() {
-        this.pairs = (KVPair<K, V>[]) newInstance((new KVPair<K, V>()).getClass(), DEFAULT_CAPACITY);  // Initialize pairs array
-        this.capacity = DEFAULT_CAPACITY;  // Set default capacity
+        this(DEFAULT_CAPACITY);
+    }  // end of constructor
+
+    /**
+     * Creates a new, empty associative array with room for the given
+     * number of pairs, so that filling it to that size never copies.
+     * @param initialCapacity the number of pairs to make room for
+     * @throws IllegalArgumentException if initialCapacity is negative
+     */
+    @SuppressWarnings({ "unchecked" })
+    public AssociativeArray(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+        }
+        this.pairs = (KVPair<K, V>[]) newInstance((new KVPair<K, V>()).getClass(), initialCapacity);  // Initialize pairs array
+        this.index = new int[slotsFor(initialCapacity)];  // Initialize the hash index
         this.size = 0;  // Initialize size to zero
+        this.used = 0;
     }  // end of constructor
 
     // +------------------+--------------------------------------------
@@ -66,14 +100,16 @@ public class AssociativeArray<K, V> implements Iterable<KVPair<K,V>> {
      * @return a copy of the AssociativeArray
      */
     public AssociativeArray<K, V> clone() {
-        AssociativeArray<K, V> copy = new AssociativeArray<>();  // Create a new associative array
-        for (int i = 0; i < this.size; i++) {
-            if (this.size > copy.capacity) {
-                copy.expand();
+        AssociativeArray<K, V> copy = new AssociativeArray<>(0);  // Create a new associative array
+        copy.pairs = java.util.Arrays.copyOf(this.pairs, this.pairs.length);
+        for (int i = 0; i < this.used; i++) {
+            if (this.pairs[i] != null) {
+                copy.pairs[i] = new KVPair<>(this.pairs[i].key, this.pairs[i].val);
             }
-            copy.pairs[i] = new KVPair<>(this.pairs[i].key, this.pairs[i].val);
         }
+        copy.index = this.index.clone();  // Positions are unchanged, so the index can be copied as-is
         copy.size = this.size;
+        copy.used = this.used;
         return copy;
     }  // end of clone method
 
@@ -85,9 +121,13 @@ public class AssociativeArray<K, V> implements Iterable<KVPair<K,V>> {
         if (this.size == 0) {
             return "{}";  // Return empty braces if the array is empty
         }
-        String output = String.format("{ %s: %s", this.pairs[0].key, this.pairs[0].val);  // Initialize output
-        for (int i = 1; i < this.size; i++) {
-            output += String.format(", %s: %s", this.pairs[i].key, this.pairs[i].val);  // Append each key-value pair
+        String output = "{";  // Initialize output
+        String separator = " ";
+        for (int i = 0; i < this.used; i++) {
+            if (this.pairs[i] != null) {
+                output += String.format("%s%s: %s", separator, this.pairs[i].key, this.pairs[i].val);  // Append each key-value pair
+                separator = ", ";
+            }
         }
         output += " }";  // Close the braces
         return output;  // Return the final string
@@ -106,21 +146,34 @@ public class AssociativeArray<K, V> implements Iterable<KVPair<K,V>> {
         if (key == null) {
             throw new NullKeyException();  // Handle null keys
         }
-        int index;
-        try {
-            index = this.find(key);  // Find the key in the array
-            this.pairs[index].val = value;  // Update the value if key is found
-        } catch (KeyNotFoundException e) {
-            if (this.size >= this.capacity) {
-                this.expand();  // Expand the array if full
-                capacity = capacity * 2;  // Double the capacity
-            }
-            index = this.size;  // Set the index to the next available slot
-            this.pairs[index] = new KVPair<>(key, value);  // Add new key-value pair
-            this.size++;  // Increment the size
+        int slot = this.slotOf(key);
+        if (slot >= 0) {
+            this.pairs[this.index[slot] - 1].val = value;  // Update the value if key is found
+        } else {
+            this.append(key, value);  // Otherwise add a new key-value pair
         }
     }  // end of set method
 
+    /**
+     * Associates a value with a key only if the key is not already present.
+     * @param key the key
+     * @param value the value to be associated with the key
+     * @return the value already associated with the key, or null if the
+     *   new pair was added
+     * @throws NullKeyException if the key is null
+     */
+    public V putIfAbsent(K key, V value) throws NullKeyException {
+        if (key == null) {
+            throw new NullKeyException();  // Handle null keys
+        }
+        int slot = this.slotOf(key);
+        if (slot >= 0) {
+            return this.pairs[this.index[slot] - 1].val;  // Leave the existing pair alone
+        }
+        this.append(key, value);
+        return null;
+    }  // end of putIfAbsent method
+
     /**
      * Retrieves the value associated with a key.
      * @param key the key
@@ -140,29 +193,127 @@ public class AssociativeArray<K, V> implements Iterable<KVPair<K,V>> {
      * @return true if the key exists, false otherwise
      */
     public boolean hasKey(K key) {
-        try {
-            this.find(key);  // Try to find the key
-            return true;  // Key exists
-        } catch (KeyNotFoundException e) {
-            return false;  // Key does not exist
-        }
+        return this.indexOf(key) >= 0;
     }  // end of hasKey method
 
     /**
-     * Removes the key-value pair associated with a key.
+     * Retrieves the value associated with a key without throwing when
+     * the key is missing.
+     * @param key the key
+     * @param defaultValue the value to return if the key is not present
+     * @return the value associated with the key, or defaultValue
+     */
+    public V getOrDefault(K key, V defaultValue) {
+        int index = this.indexOf(key);
+        return (index < 0) ? defaultValue : this.pairs[index].val;
+    }  // end of getOrDefault method
+
+    /**
+     * Retrieves the value associated with a key, or null if the key is
+     * not present.
+     * @param key the key
+     * @return the value associated with the key, or null
+     */
+    public V getOrNull(K key) {
+        return this.getOrDefault(key, null);
+    }  // end of getOrNull method
+
+    /**
+     * Finds the position of a key's pair in storage. Positions follow
+     * iteration order, but skip the pairs that have been removed until
+     * the array is next compacted.
+     * @param key the key to find
+     * @return the index of the key, or -1 if it is not present
+     */
+    public int indexOf(K key) {
+        if (key == null) {
+            return -1;  // Null keys are never stored
+        }
+        int slot = this.slotOf(key);
+        return (slot < 0) ? -1 : this.index[slot] - 1;
+    }  // end of indexOf method
+
+    /**
+     * Removes the key-value pair associated with a key. The other pairs
+     * keep their order. Takes O(1) amortized time.
      * @param key the key to remove
      */
     public void remove(K key) {
-        try {
-            int index = this.find(key);  // Find the key
-            this.pairs[index] = this.pairs[this.size - 1];  // Replace the key-value pair with the last pair
-            this.pairs[this.size] = new KVPair<>();  // Clear the last slot
-            this.size--;
-        } catch (KeyNotFoundException e) {
+        if (key == null) {
+            return;  // Null keys are never stored
+        }
+        int slot = this.slotOf(key);
+        if (slot < 0) {
             return;  // Key not found, do nothing
         }
+        int index = this.index[slot] - 1;  // Position of the pair being removed
+        this.unindex(slot);
+        this.pairs[index] = null;  // Leave a tombstone
+        this.size--;
+        while (this.used > 0 && this.pairs[this.used - 1] == null) {
+            this.used--;  // Tombstones at the end can simply be dropped
+        }
+        if (this.used - this.size > Math.max(this.size, DEFAULT_CAPACITY)) {
+            this.compact();  // Too many tombstones; squeeze them out
+        }
     }  // end of remove method
 
+    /**
+     * Adds every pair of another array, growing this array at most once.
+     * Keys that are already present get the other array's value.
+     * @param other the pairs to add
+     */
+    public void putAll(AssociativeMap<? extends K, ? extends V> other) {
+        this.ensureCapacity(this.size + other.size());
+        for (KVPair<? extends K, ? extends V> pair : other) {
+            int slot = this.slotOf(pair.key);
+            if (slot >= 0) {
+                this.pairs[this.index[slot] - 1].val = pair.val;  // Update the value if key is found
+            } else {
+                this.pairs[this.used] = new KVPair<>(pair.key, pair.val);
+                this.index[-1 - slot] = ++this.used;  // Record the new pair in the hash index
+                this.size++;
+            }
+        }
+    }  // end of putAll method
+
+    /**
+     * Makes sure the array can hold the given number of pairs without
+     * copying again.
+     * @param minCapacity the number of pairs to make room for
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > this.pairs.length) {
+            this.resize(Math.max(minCapacity, this.pairs.length * 2));
+        } else if (this.used + (minCapacity - this.size) > this.pairs.length) {
+            this.compact();  // There is room once the tombstones are gone
+        }
+    }  // end of ensureCapacity method
+
+    /**
+     * Shrinks the storage to exactly the current number of pairs, e.g.
+     * once a category has finished loading and will not change again.
+     */
+    public void trimToSize() {
+        if (this.pairs.length != this.size || this.used != this.size) {
+            this.resize(this.size);
+        }
+    }  // end of trimToSize method
+
+    /**
+     * Calls an action on every key and value, in iteration order,
+     * without creating an iterator.
+     * @param action the action to call
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (int i = 0; i < this.used; i++) {
+            KVPair<K, V> pair = this.pairs[i];
+            if (pair != null) {
+                action.accept(pair.key, pair.val);
+            }
+        }
+    }  // end of forEach method
+
     /**
      * Returns the number of key-value pairs in the array.
      * @return the size of the array
@@ -175,29 +326,185 @@ public class AssociativeArray<K, V> implements Iterable<KVPair<K,V>> {
     // | Private Methods |
     // +-----------------+
 
+    /**
+     * Adds a pair for a key known not to be present.
+     * @param key the key
+     * @param value the value
+     */
+    void append(K key, V value) {
+        if (this.used >= this.pairs.length) {
+            if (this.used - this.size > this.size) {
+                this.compact();  // Mostly tombstones, so reuse their cells
+            } else {
+                this.expand();  // Expand the array if full
+            }
+        }
+        int index = this.used;  // Set the index to the next available slot
+        this.pairs[index] = new KVPair<>(key, value);  // Add new key-value pair
+        this.index[-1 - this.slotOf(key)] = index + 1;  // Record the new pair in the hash index
+        this.used++;
+        this.size++;  // Increment the size
+    }  // end of append method
+
     /**
      * Expands the underlying array to accommodate more key-value pairs.
      */
     void expand() {
-        this.pairs = java.util.Arrays.copyOf(this.pairs, this.pairs.length * 2);
+        this.resize(Math.max(DEFAULT_CAPACITY, this.pairs.length * 2));
     }  // end of expand method
 
     /**
-     * Finds the index of the first entry in `pairs` that contains the specified key.
+     * Moves the pairs into an array of exactly the given length, dropping
+     * any tombstones, and rebuilds the hash index to match.
+     * @param newCapacity the new length of `pairs`; at least `size`
+     */
+    void resize(int newCapacity) {
+        boolean moved = this.used != this.size;
+        if (moved) {
+            this.squeeze();
+        }
+        this.pairs = java.util.Arrays.copyOf(this.pairs, newCapacity);
+        int slots = slotsFor(newCapacity);
+        if (moved || slots != this.index.length) {
+            this.rehash(slots);
+        }
+    }  // end of resize method
+
+    /**
+     * Drops the tombstones in place and rebuilds the hash index.
+     */
+    void compact() {
+        this.squeeze();
+        this.rehash(this.index.length);
+    }  // end of compact method
+
+    /**
+     * Slides the live pairs down over the tombstones, keeping their
+     * order. Leaves the hash index stale.
+     */
+    void squeeze() {
+        int to = 0;
+        for (int from = 0; from < this.used; from++) {
+            if (this.pairs[from] != null) {
+                this.pairs[to++] = this.pairs[from];
+            }
+        }
+        java.util.Arrays.fill(this.pairs, to, this.used, null);
+        this.used = to;
+    }  // end of squeeze method
+
+    /**
+     * Computes the size of the hash index for a given capacity: the
+     * smallest power of two that is at least twice the capacity.
+     * @param capacity the length of `pairs`
+     * @return the number of slots
+     */
+    static int slotsFor(int capacity) {
+        int slots = 2;
+        while (slots < capacity * 2) {
+            slots <<= 1;
+        }
+        return slots;
+    }  // end of slotsFor method
+
+    /**
+     * Rebuilds the hash index with the given number of slots. The pairs
+     * must have no tombstones.
+     * @param slots the new table size; must be a power of two
+     */
+    void rehash(int slots) {
+        this.index = new int[slots];
+        int mask = slots - 1;
+        for (int i = 0; i < this.size; i++) {
+            int slot = hash(this.pairs[i].key) & mask;
+            while (this.index[slot] != 0) {
+                slot = (slot + 1) & mask;  // Linear probing
+            }
+            this.index[slot] = i + 1;
+        }
+    }  // end of rehash method
+
+    /**
+     * Finds the slot of the hash index that refers to the given key.
+     * @param key the key to look for; must not be null
+     * @return the slot holding the key, or (-1 - s) where s is the
+     *   empty slot at which the key would be inserted
+     */
+    int slotOf(Object key) {
+        int mask = this.index.length - 1;
+        int slot = hash(key) & mask;
+        int entry;
+        while ((entry = this.index[slot]) != 0) {
+            if (this.pairs[entry - 1].key.equals(key)) {
+                return slot;  // Found the key
+            }
+            slot = (slot + 1) & mask;  // Linear probing
+        }
+        return -1 - slot;  // Reached an empty slot, so the key is absent
+    }  // end of slotOf method
+
+    /**
+     * Empties a slot of the hash index, shifting later entries of the
+     * same probe run back so that no lookup stops early.
+     * @param slot the slot to empty
+     */
+    void unindex(int slot) {
+        int mask = this.index.length - 1;
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            int entry = this.index[next];
+            if (entry == 0) {
+                break;  // End of the probe run
+            }
+            int home = hash(this.pairs[entry - 1].key) & mask;
+            // Leave the entry alone if its home slot lies cyclically in (hole, next]
+            boolean reachable = (hole <= next)
+                ? (hole < home && home <= next)
+                : (hole < home || home <= next);
+            if (!reachable) {
+                this.index[hole] = entry;  // Move the entry back into the hole
+                hole = next;
+            }
+        }
+        this.index[hole] = 0;
+    }  // end of unindex method
+
+    /**
+     * Computes the hash of a key, spreading the high bits into the low
+     * bits since the table is indexed by masking.
+     * @param key the key; must not be null
+     * @return the spread hash code
+     */
+    static int hash(Object key) {
+        return spread(key.hashCode());
+    }  // end of hash method
+
+    /**
+     * Spreads the high bits of a hash code into the low bits.
+     * @param h the hash code
+     * @return the spread hash code
+     */
+    static int spread(int h) {
+        return h ^ (h >>> 16);
+    }  // end of spread method
+
+    /**
+     * Finds the index of the entry in `pairs` that contains the specified key.
      * @param key the key to find
      * @return the index of the key
      * @throws KeyNotFoundException if the key is not found
      */
     public int find(K key) throws KeyNotFoundException {
-        for (int i = 0; i < this.size; i++) {
-            if (this.pairs[i].key == null) {
-                throw new KeyNotFoundException();  // Handle null keys
-            }
-            if (this.pairs[i].key.equals(key)) {
-                return i;  // Return the index if the key is found
-            }
+        if (key == null) {
+            throw new KeyNotFoundException();  // Handle null keys
+        }
+        int slot = this.slotOf(key);
+        if (slot < 0) {
+            throw new KeyNotFoundException();  // Throw an exception if the key is not found
         }
-        throw new KeyNotFoundException();  // Throw an exception if the key is not found
+        return this.index[slot] - 1;  // Return the index if the key is found
     }  // end of find method
 
     /**
@@ -209,7 +516,11 @@ public class AssociativeArray<K, V> implements Iterable<KVPair<K,V>> {
             int index = 0;  // Index for iteration
 
             public boolean hasNext() {
-                return (this.index < AssociativeArray.this.size);  // Check if there are more elements
+                KVPair<K, V>[] pairs = AssociativeArray.this.pairs;
+                while (this.index < AssociativeArray.this.used && pairs[this.index] == null) {
+                    this.index++;  // Skip tombstones
+                }
+                return (this.index < AssociativeArray.this.used);  // Check if there are more elements
             } // hasNext()
 
             public KVPair<K, V> next() {
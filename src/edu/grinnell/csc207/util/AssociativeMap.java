@@ -0,0 +1,96 @@
+package edu.grinnell.csc207.util;
+
+import java.util.function.BiConsumer;
+
+/**
+ * The operations shared by all of our associative arrays. Iteration
+ * visits the key/value pairs in the order in which their keys were
+ * first added.
+ *
+ * @author Slok Rajbhandari
+ * @author Samuel A. Rebelsky
+ */
+public interface AssociativeMap<K, V> extends Iterable<KVPair<K, V>> {
+
+    /**
+     * Sets the value associated with a key. Future calls to get(key) will return the new value.
+     * @param key the key
+     * @param value the value to be associated with the key
+     * @throws NullKeyException if the key is null
+     */
+    public void set(K key, V value) throws NullKeyException;
+
+    /**
+     * Associates a value with a key only if the key is not already present.
+     * @param key the key
+     * @param value the value to be associated with the key
+     * @return the value already associated with the key, or null if the
+     *   new pair was added
+     * @throws NullKeyException if the key is null
+     */
+    public V putIfAbsent(K key, V value) throws NullKeyException;
+
+    /**
+     * Retrieves the value associated with a key.
+     * @param key the key
+     * @return the value associated with the key
+     * @throws KeyNotFoundException if the key is not found
+     */
+    public V get(K key) throws KeyNotFoundException;
+
+    /**
+     * Retrieves the value associated with a key without throwing when
+     * the key is missing.
+     * @param key the key
+     * @param defaultValue the value to return if the key is not present
+     * @return the value associated with the key, or defaultValue
+     */
+    public V getOrDefault(K key, V defaultValue);
+
+    /**
+     * Retrieves the value associated with a key, or null if the key is
+     * not present.
+     * @param key the key
+     * @return the value associated with the key, or null
+     */
+    public V getOrNull(K key);
+
+    /**
+     * Determines if the array contains a given key.
+     * @param key the key to check
+     * @return true if the key exists, false otherwise
+     */
+    public boolean hasKey(K key);
+
+    /**
+     * Removes the key-value pair associated with a key.
+     * @param key the key to remove
+     */
+    public void remove(K key);
+
+    /**
+     * Calls an action on every key and value, in iteration order,
+     * without creating an iterator.
+     * @param action the action to call
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action);
+
+    /**
+     * Returns the number of key-value pairs in the array.
+     * @return the size of the array
+     */
+    public int size();
+
+    /**
+     * Releases any storage not needed for the current pairs. Useful once
+     * an array has been filled and will not change again.
+     */
+    public void trimToSize();
+
+    /**
+     * Creates a copy of this array. Later changes to either array are
+     * not visible in the other.
+     * @return a copy of the array
+     */
+    public AssociativeMap<K, V> clone();
+}  // end of AssociativeMap interface
@@ -0,0 +1,222 @@
+package edu.grinnell.csc207.util;
+
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * An associative array that may be shared between threads. Readers
+ * never lock: they read the current immutable version through a
+ * volatile field. Writers take a lock, build a new version by copying
+ * the O(log n) nodes on the changed path (see PersistentAssociativeArray)
+ * and publish it with a single volatile write.
+ *
+ * Because published pairs are never modified, readers can never see a
+ * torn KVPair. Iterators are weakly consistent: each one walks the
+ * version that was current when it was created and never throws
+ * ConcurrentModificationException.
+ *
+ * @author Slok Rajbhandari
+ */
+public class ConcurrentAssociativeArray<K, V> implements AssociativeMap<K, V> {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The current version of the contents.
+   */
+  volatile PersistentAssociativeArray.Version<K, V> version;
+
+  /**
+   * Serializes writers.
+   */
+  final ReentrantLock writeLock = new ReentrantLock();
+
+    // +--------------+------------------------------------------------
+    // | Constructors |
+    // +--------------+
+
+    /**
+     * Creates a new, empty associative array.
+     */
+    public ConcurrentAssociativeArray() {
+        this(PersistentAssociativeArray.Version.empty());
+    }  // end of constructor
+
+    /**
+     * Creates an associative array that starts from an existing version.
+     * @param version the version to start from
+     */
+    ConcurrentAssociativeArray(PersistentAssociativeArray.Version<K, V> version) {
+        this.version = version;
+    }  // end of constructor
+
+    // +------------------+--------------------------------------------
+    // | Standard Methods |
+    // +------------------+
+
+    /**
+     * Creates a copy of this array in constant time.
+     * @return a copy of the array
+     */
+    public ConcurrentAssociativeArray<K, V> clone() {
+        return new ConcurrentAssociativeArray<>(this.version);
+    }  // end of clone method
+
+    /**
+     * Converts the array to a string representation.
+     * @return the string representation of the array
+     */
+    public String toString() {
+        return this.snapshot().toString();
+    }  // end of toString method
+
+    // +----------------+----------------------------------------------
+    // | Public Methods |
+    // +----------------+
+
+    /**
+     * Returns a consistent, unshared view of the current contents.
+     * @return the snapshot
+     */
+    public PersistentAssociativeArray<K, V> snapshot() {
+        return new PersistentAssociativeArray<>(this.version);
+    }  // end of snapshot method
+
+    /**
+     * Sets the value associated with a key. Future calls to get(key) will return the new value.
+     * @param key the key
+     * @param value the value to be associated with the key
+     * @throws NullKeyException if the key is null
+     */
+    public void set(K key, V value) throws NullKeyException {
+        if (key == null) {
+            throw new NullKeyException();  // Handle null keys
+        }
+        this.writeLock.lock();
+        try {
+            this.version = this.version.with(key, value);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }  // end of set method
+
+    /**
+     * Associates a value with a key only if the key is not already present.
+     * The check and the update happen atomically.
+     * @param key the key
+     * @param value the value to be associated with the key
+     * @return the value already associated with the key, or null if the
+     *   new pair was added
+     * @throws NullKeyException if the key is null
+     */
+    public V putIfAbsent(K key, V value) throws NullKeyException {
+        if (key == null) {
+            throw new NullKeyException();  // Handle null keys
+        }
+        this.writeLock.lock();
+        try {
+            KVPair<K, V> pair = this.version.lookup(key);
+            if (pair != null) {
+                return pair.val;  // Leave the existing pair alone
+            }
+            this.version = this.version.with(key, value);
+            return null;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }  // end of putIfAbsent method
+
+    /**
+     * Retrieves the value associated with a key.
+     * @param key the key
+     * @return the value associated with the key
+     * @throws KeyNotFoundException if the key is not found
+     */
+    public V get(K key) throws KeyNotFoundException {
+        KVPair<K, V> pair = this.version.lookup(key);
+        if (pair == null) {
+            throw new KeyNotFoundException();
+        }
+        return pair.val;
+    }  // end of get method
+
+    /**
+     * Retrieves the value associated with a key without throwing when
+     * the key is missing.
+     * @param key the key
+     * @param defaultValue the value to return if the key is not present
+     * @return the value associated with the key, or defaultValue
+     */
+    public V getOrDefault(K key, V defaultValue) {
+        KVPair<K, V> pair = this.version.lookup(key);
+        return (pair == null) ? defaultValue : pair.val;
+    }  // end of getOrDefault method
+
+    /**
+     * Retrieves the value associated with a key, or null if the key is
+     * not present.
+     * @param key the key
+     * @return the value associated with the key, or null
+     */
+    public V getOrNull(K key) {
+        return this.getOrDefault(key, null);
+    }  // end of getOrNull method
+
+    /**
+     * Determines if the array contains a given key.
+     * @param key the key to check
+     * @return true if the key exists, false otherwise
+     */
+    public boolean hasKey(K key) {
+        return this.version.lookup(key) != null;
+    }  // end of hasKey method
+
+    /**
+     * Removes the key-value pair associated with a key.
+     * @param key the key to remove
+     */
+    public void remove(K key) {
+        this.writeLock.lock();
+        try {
+            this.version = this.version.without(key);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }  // end of remove method
+
+    /**
+     * Calls an action on every key and value of the current version, in
+     * iteration order, without creating an iterator.
+     * @param action the action to call
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        this.version.forEach(action);
+    }  // end of forEach method
+
+    /**
+     * Returns the number of key-value pairs in the array.
+     * @return the size of the array
+     */
+    public int size() {
+        return this.version.size;
+    }  // end of size method
+
+    /**
+     * Does nothing: versions share their nodes, and nodes are already
+     * only as large as they need to be.
+     */
+    public void trimToSize() {
+    }  // end of trimToSize method
+
+    /**
+     * Iterates the pairs in insertion order, as of the moment the
+     * iterator is created.
+     */
+    @Override
+    public Iterator<KVPair<K, V>> iterator() {
+        return this.version.iterator();
+    }  // end of iterator method
+}  // end of ConcurrentAssociativeArray class
@@ -0,0 +1,274 @@
+package edu.grinnell.csc207.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compact image location such as "img/food/icons8-apple-96.png". The
+ * directory prefix ("img/food/") is interned and shared by every path in
+ * that directory, and only the file name is stored per path, as UTF-8
+ * bytes packed into a chunk shared with other names, so a path costs one
+ * small object and no array of its own.
+ *
+ * Paths are not interned themselves: two paths are equal when they spell
+ * the same location, and the hash (the hash of the full string) is
+ * computed once, so paths that differ almost always compare in O(1).
+ * A path is collected along with the last map that holds it. Only the
+ * directories are kept for the life of the program, in a concurrent
+ * table whose lookups take no lock.
+ *
+ * @author Slok Rajbhandari
+ */
+public class ImagePath {
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The size of the chunks that file names are packed into.
+   */
+  static final int CHUNK_SIZE = 1 << 14;
+
+  // +---------------+-----------------------------------------------
+  // | Static Fields |
+  // +---------------+
+
+  /**
+   * The interned directory prefixes.
+   */
+  static final ConcurrentHashMap<String, String> directories = new ConcurrentHashMap<>();
+
+  /**
+   * The chunk each thread is packing names into, so that threads parsing
+   * in parallel never wait for each other.
+   */
+  static final ThreadLocal<Chunk> chunks = ThreadLocal.withInitial(Chunk::new);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The shared directory prefix, including the trailing '/' (or "").
+   */
+  final String directory;
+
+  /**
+   * The bytes holding the file name, in UTF-8, among other names.
+   */
+  final byte[] bytes;
+
+  /**
+   * Where the file name starts in bytes.
+   */
+  final int offset;
+
+  /**
+   * The length of the file name in bytes.
+   */
+  final int length;
+
+  /**
+   * The hash code of the full path as a String.
+   */
+  final int hash;
+
+  /**
+   * Chunk
+   * Bytes that file names are appended to. Only ever used by one thread;
+   * the names in it are never moved, so paths can keep a reference to it.
+   */
+  static class Chunk {
+    byte[] bytes = new byte[CHUNK_SIZE];   // The names, one after another
+    int used;   // The bytes taken
+  } // end of Chunk class
+
+  /**
+   * Probe
+   * A path that is only used to look up another, which it compares with
+   * by spelling rather than by building its parts.
+   */
+  static final class Probe extends ImagePath {
+    final String path;   // The location looked for
+
+    /**
+     * Constructor
+     * @param path the location looked for
+     */
+    Probe(String path) {
+      super(null, null, 0, 0, path.hashCode());
+      this.path = path;
+    } // end of constructor
+
+    /**
+     * Returns the location looked for.
+     * @return the location
+     */
+    public String toString() {
+      return this.path;
+    } // end of toString method
+
+    /**
+     * Determines whether another path spells the location looked for.
+     * @param other the other path
+     * @return true if they are the same location
+     */
+    public boolean equals(Object other) {
+      if (other instanceof Probe) {
+        return this.path.equals(((Probe) other).path);
+      }
+      return (other instanceof ImagePath) && ((ImagePath) other).equals(this);
+    } // end of equals method
+  } // end of Probe class
+
+    // +--------------+------------------------------------------------
+    // | Constructors |
+    // +--------------+
+
+    /**
+     * Creates a path from its parts. Use of() instead.
+     */
+    private ImagePath(String directory, byte[] bytes, int offset, int length, int hash) {
+        this.directory = directory;
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.hash = hash;
+    }  // end of constructor
+
+    // +----------------+----------------------------------------------
+    // | Static Methods |
+    // +----------------+
+
+    /**
+     * Returns the compact form of an image location.
+     * @param path the image location
+     * @return the path
+     */
+    public static ImagePath of(String path) {
+        int split = path.lastIndexOf('/') + 1;
+        String directory = internDirectory(path.substring(0, split));
+        byte[] name = path.substring(split).getBytes(StandardCharsets.UTF_8);
+        if (name.length > CHUNK_SIZE / 8) {
+            return new ImagePath(directory, name, 0, name.length, path.hashCode());  // Too long to pack
+        }
+        Chunk chunk = chunks.get();
+        if (chunk.used + name.length > CHUNK_SIZE) {
+            chunk = new Chunk();  // The full one lives on as long as its names
+            chunks.set(chunk);
+        }
+        System.arraycopy(name, 0, chunk.bytes, chunk.used, name.length);
+        ImagePath result = new ImagePath(directory, chunk.bytes, chunk.used, name.length, path.hashCode());
+        chunk.used += name.length;
+        return result;
+    }  // end of of method
+
+    /**
+     * Returns a path to look up an image location with, without splitting
+     * or copying the location.
+     * @param path the image location
+     * @return a path equal to the compact form of the location
+     */
+    public static ImagePath probe(String path) {
+        return new Probe(path);
+    }  // end of probe method
+
+    /**
+     * Returns the shared copy of a directory prefix.
+     */
+    static String internDirectory(String directory) {
+        String shared = directories.putIfAbsent(directory, directory);
+        return (shared == null) ? directory : shared;
+    }  // end of internDirectory method
+
+    // +------------------+--------------------------------------------
+    // | Standard Methods |
+    // +------------------+
+
+    /**
+     * Returns the full image location.
+     * @return the image location
+     */
+    public String toString() {
+        return this.directory + new String(this.bytes, this.offset, this.length, StandardCharsets.UTF_8);
+    }  // end of toString method
+
+    /**
+     * Returns the hash code of the full image location.
+     * @return the hash code
+     */
+    public int hashCode() {
+        return this.hash;
+    }  // end of hashCode method
+
+    /**
+     * Determines whether another path is the same location.
+     * @param other the other path
+     * @return true if they are the same location
+     */
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ImagePath) || ((ImagePath) other).hash != this.hash) {
+            return false;
+        }
+        if (other instanceof Probe) {
+            return this.matches(((Probe) other).path);
+        }
+        ImagePath path = (ImagePath) other;
+        return this.directory == path.directory  // Interned
+            && Arrays.equals(this.bytes, this.offset, this.offset + this.length,
+                path.bytes, path.offset, path.offset + path.length);
+    }  // end of equals method
+
+    // +----------------+----------------------------------------------
+    // | Public Methods |
+    // +----------------+
+
+    /**
+     * Returns the directory part of the location, e.g. "img/food/".
+     * @return the directory prefix
+     */
+    public String getDirectory() {
+        return this.directory;
+    }  // end of getDirectory method
+
+    /**
+     * Determines whether this path spells out the given location,
+     * without building the full string.
+     * @param path the location to compare with
+     * @return true if they are the same location
+     */
+    public boolean matches(String path) {
+        int split = this.directory.length();
+        if (!path.startsWith(this.directory) || path.indexOf('/', split) >= 0) {
+            return false;
+        }
+        if (path.length() - split != this.length) {
+            // Different lengths can still match when the name is not ASCII
+            return this.name().equals(path.substring(split));
+        }
+        for (int i = 0; i < this.length; i++) {
+            char c = path.charAt(split + i);
+            byte b = this.bytes[this.offset + i];
+            if (c >= 0x80 || b < 0) {
+                return this.name().equals(path.substring(split));
+            }
+            if (c != b) {
+                return false;
+            }
+        }
+        return true;
+    }  // end of matches method
+
+    /**
+     * Returns the file name part of the location.
+     * @return the file name
+     */
+    String name() {
+        return new String(this.bytes, this.offset, this.length, StandardCharsets.UTF_8);
+    }  // end of name method
+}  // end of ImagePath class
@@ -0,0 +1,205 @@
+package edu.grinnell.csc207.util;
+
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+
+/**
+ * An associative array keyed by image locations. It offers the usual
+ * String-keyed API, but stores each key as a compact ImagePath, so
+ * directory prefixes are stored once and keys hash and compare in O(1).
+ * Lookups compare the String with the stored paths piece by piece, so
+ * they never build a path or take a lock.
+ *
+ * The String form of a key is only built as the iteration reaches it,
+ * and is never kept, so a map that has been iterated holds no more than
+ * one that has not.
+ *
+ * @author Slok Rajbhandari
+ */
+public class ImagePathMap<V> implements AssociativeMap<String, V> {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The pairs, keyed by interned path.
+   */
+  AssociativeArray<ImagePath, V> pairs;
+
+    // +--------------+------------------------------------------------
+    // | Constructors |
+    // +--------------+
+
+    /**
+     * Creates a new, empty map.
+     */
+    public ImagePathMap() {
+        this(new AssociativeArray<>());
+    }  // end of constructor
+
+    /**
+     * Creates a map that stores its pairs in the given array.
+     * @param pairs the pairs
+     */
+    ImagePathMap(AssociativeArray<ImagePath, V> pairs) {
+        this.pairs = pairs;
+    }  // end of constructor
+
+    // +------------------+--------------------------------------------
+    // | Standard Methods |
+    // +------------------+
+
+    /**
+     * Creates a copy of this map.
+     * @return a copy of the map
+     */
+    public ImagePathMap<V> clone() {
+        return new ImagePathMap<>(this.pairs.clone());
+    }  // end of clone method
+
+    /**
+     * Converts the map to a string representation.
+     * @return the string representation of the map
+     */
+    public String toString() {
+        return this.pairs.toString();
+    }  // end of toString method
+
+    // +----------------+----------------------------------------------
+    // | Public Methods |
+    // +----------------+
+
+    /**
+     * Sets the value associated with a key. Future calls to get(key) will return the new value.
+     * @param key the key
+     * @param value the value to be associated with the key
+     * @throws NullKeyException if the key is null
+     */
+    public void set(String key, V value) throws NullKeyException {
+        if (key == null) {
+            throw new NullKeyException();  // Handle null keys
+        }
+        ImagePath path = ImagePath.probe(key);
+        if (this.pairs.hasKey(path)) {
+            this.pairs.set(path, value);  // Keeps the stored key and its place
+        } else {
+            this.pairs.set(ImagePath.of(key), value);
+        }
+    }  // end of set method
+
+    /**
+     * Associates a value with a key only if the key is not already present.
+     * @param key the key
+     * @param value the value to be associated with the key
+     * @return the value already associated with the key, or null if the
+     *   new pair was added
+     * @throws NullKeyException if the key is null
+     */
+    public V putIfAbsent(String key, V value) throws NullKeyException {
+        if (key == null) {
+            throw new NullKeyException();  // Handle null keys
+        }
+        V existing = this.pairs.getOrNull(ImagePath.probe(key));
+        if (existing != null) {
+            return existing;
+        }
+        this.set(key, value);
+        return null;
+    }  // end of putIfAbsent method
+
+    /**
+     * Retrieves the value associated with a key.
+     * @param key the key
+     * @return the value associated with the key
+     * @throws KeyNotFoundException if the key is not found
+     */
+    public V get(String key) throws KeyNotFoundException {
+        if (key == null) {
+            throw new KeyNotFoundException();
+        }
+        return this.pairs.get(ImagePath.probe(key));
+    }  // end of get method
+
+    /**
+     * Retrieves the value associated with a key without throwing when
+     * the key is missing.
+     * @param key the key
+     * @param defaultValue the value to return if the key is not present
+     * @return the value associated with the key, or defaultValue
+     */
+    public V getOrDefault(String key, V defaultValue) {
+        return (key == null) ? defaultValue : this.pairs.getOrDefault(ImagePath.probe(key), defaultValue);
+    }  // end of getOrDefault method
+
+    /**
+     * Retrieves the value associated with a key, or null if the key is
+     * not present.
+     * @param key the key
+     * @return the value associated with the key, or null
+     */
+    public V getOrNull(String key) {
+        return this.getOrDefault(key, null);
+    }  // end of getOrNull method
+
+    /**
+     * Determines if the map contains a given key.
+     * @param key the key to check
+     * @return true if the key exists, false otherwise
+     */
+    public boolean hasKey(String key) {
+        return (key != null) && this.pairs.hasKey(ImagePath.probe(key));
+    }  // end of hasKey method
+
+    /**
+     * Removes the key-value pair associated with a key.
+     * @param key the key to remove
+     */
+    public void remove(String key) {
+        if (key != null && this.pairs.hasKey(ImagePath.probe(key))) {
+            this.pairs.remove(ImagePath.probe(key));
+        }
+    }  // end of remove method
+
+    /**
+     * Calls an action on every key and value, in iteration order.
+     * @param action the action to call
+     */
+    public void forEach(BiConsumer<? super String, ? super V> action) {
+        this.pairs.forEach((path, value) -> action.accept(path.toString(), value));
+    }  // end of forEach method
+
+    /**
+     * Returns the number of key-value pairs in the map.
+     * @return the size of the map
+     */
+    public int size() {
+        return this.pairs.size();
+    }  // end of size method
+
+    /**
+     * Releases the unused capacity of the map.
+     */
+    public void trimToSize() {
+        this.pairs.trimToSize();
+    }  // end of trimToSize method
+
+    /**
+     * Iterates the pairs in insertion order, with keys as Strings. Each
+     * pair is built as it is reached.
+     */
+    @Override
+    public Iterator<KVPair<String, V>> iterator() {
+        Iterator<KVPair<ImagePath, V>> paths = this.pairs.iterator();
+        return new Iterator<KVPair<String, V>>() {
+            public boolean hasNext() {
+                return paths.hasNext();
+            } // hasNext()
+
+            public KVPair<String, V> next() {
+                KVPair<ImagePath, V> pair = paths.next();
+                return new KVPair<>(pair.key.toString(), pair.val);
+            } // next()
+        };  // end Iterator
+    }  // end of iterator method
+}  // end of ImagePathMap class
@@ -0,0 +1,622 @@
+package edu.grinnell.csc207.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * An associative array whose contents are stored in immutable,
+ * structurally-shared trees. Each change builds a new version that
+ * reuses everything but the O(log n) nodes on the changed path, so
+ * clone() and snapshot() take constant time and never copy pairs.
+ *
+ * Keys are indexed by a hash array mapped trie (HAMT) that maps each
+ * key to a position in a persistent 32-way vector of pairs. The vector
+ * keeps pairs in insertion order; removal leaves a tombstone (null) in
+ * the vector, and the version is rebuilt once tombstones outnumber
+ * live pairs.
+ *
+ * @author Slok Rajbhandari
+ */
+public class PersistentAssociativeArray<K, V> implements AssociativeMap<K, V> {
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The current version of the contents.
+   */
+  Version<K, V> version;
+
+    // +--------------+------------------------------------------------
+    // | Constructors |
+    // +--------------+
+
+    /**
+     * Creates a new, empty associative array.
+     */
+    public PersistentAssociativeArray() {
+        this(Version.empty());
+    }  // end of constructor
+
+    /**
+     * Creates an associative array that starts from an existing version.
+     * @param version the version to start from
+     */
+    PersistentAssociativeArray(Version<K, V> version) {
+        this.version = version;
+    }  // end of constructor
+
+    // +------------------+--------------------------------------------
+    // | Standard Methods |
+    // +------------------+
+
+    /**
+     * Creates a copy of this array in constant time. The copy shares
+     * all of its structure with this array.
+     * @return a copy of the array
+     */
+    public PersistentAssociativeArray<K, V> clone() {
+        return new PersistentAssociativeArray<>(this.version);
+    }  // end of clone method
+
+    /**
+     * Converts the array to a string representation.
+     * @return the string representation of the array
+     */
+    public String toString() {
+        StringBuilder output = new StringBuilder("{");
+        String separator = " ";
+        for (KVPair<K, V> pair : this) {
+            output.append(separator).append(pair.key).append(": ").append(pair.val);
+            separator = ", ";
+        }
+        return output.append((this.size() == 0) ? "}" : " }").toString();
+    }  // end of toString method
+
+    // +----------------+----------------------------------------------
+    // | Public Methods |
+    // +----------------+
+
+    /**
+     * Returns a snapshot of the current contents. Later changes to this
+     * array do not affect the snapshot, and taking one costs O(1).
+     * @return the snapshot
+     */
+    public PersistentAssociativeArray<K, V> snapshot() {
+        return this.clone();
+    }  // end of snapshot method
+
+    /**
+     * Sets the value associated with a key. Future calls to get(key) will return the new value.
+     * @param key the key
+     * @param value the value to be associated with the key
+     * @throws NullKeyException if the key is null
+     */
+    public void set(K key, V value) throws NullKeyException {
+        if (key == null) {
+            throw new NullKeyException();  // Handle null keys
+        }
+        this.version = this.version.with(key, value);
+    }  // end of set method
+
+    /**
+     * Associates a value with a key only if the key is not already present.
+     * @param key the key
+     * @param value the value to be associated with the key
+     * @return the value already associated with the key, or null if the
+     *   new pair was added
+     * @throws NullKeyException if the key is null
+     */
+    public V putIfAbsent(K key, V value) throws NullKeyException {
+        if (key == null) {
+            throw new NullKeyException();  // Handle null keys
+        }
+        KVPair<K, V> pair = this.version.lookup(key);
+        if (pair != null) {
+            return pair.val;  // Leave the existing pair alone
+        }
+        this.version = this.version.with(key, value);
+        return null;
+    }  // end of putIfAbsent method
+
+    /**
+     * Retrieves the value associated with a key.
+     * @param key the key
+     * @return the value associated with the key
+     * @throws KeyNotFoundException if the key is not found
+     */
+    public V get(K key) throws KeyNotFoundException {
+        KVPair<K, V> pair = this.version.lookup(key);
+        if (pair == null) {
+            throw new KeyNotFoundException();
+        }
+        return pair.val;
+    }  // end of get method
+
+    /**
+     * Retrieves the value associated with a key without throwing when
+     * the key is missing.
+     * @param key the key
+     * @param defaultValue the value to return if the key is not present
+     * @return the value associated with the key, or defaultValue
+     */
+    public V getOrDefault(K key, V defaultValue) {
+        KVPair<K, V> pair = this.version.lookup(key);
+        return (pair == null) ? defaultValue : pair.val;
+    }  // end of getOrDefault method
+
+    /**
+     * Retrieves the value associated with a key, or null if the key is
+     * not present.
+     * @param key the key
+     * @return the value associated with the key, or null
+     */
+    public V getOrNull(K key) {
+        return this.getOrDefault(key, null);
+    }  // end of getOrNull method
+
+    /**
+     * Determines if the array contains a given key.
+     * @param key the key to check
+     * @return true if the key exists, false otherwise
+     */
+    public boolean hasKey(K key) {
+        return this.version.lookup(key) != null;
+    }  // end of hasKey method
+
+    /**
+     * Removes the key-value pair associated with a key.
+     * @param key the key to remove
+     */
+    public void remove(K key) {
+        this.version = this.version.without(key);
+    }  // end of remove method
+
+    /**
+     * Calls an action on every key and value, in iteration order,
+     * without creating an iterator.
+     * @param action the action to call
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        this.version.forEach(action);
+    }  // end of forEach method
+
+    /**
+     * Returns the number of key-value pairs in the array.
+     * @return the size of the array
+     */
+    public int size() {
+        return this.version.size;
+    }  // end of size method
+
+    /**
+     * Does nothing: versions share their nodes, and nodes are already
+     * only as large as they need to be.
+     */
+    public void trimToSize() {
+    }  // end of trimToSize method
+
+    /**
+     * Iterates the pairs in insertion order. The iterator reads the
+     * version that was current when it was created, so later changes
+     * to the array never disturb it.
+     */
+    @Override
+    public Iterator<KVPair<K, V>> iterator() {
+        return this.version.iterator();
+    }  // end of iterator method
+
+    // +---------------+-----------------------------------------------
+    // | Inner Classes |
+    // +---------------+
+
+    /**
+     * One immutable version of the contents of a persistent array.
+     */
+    static final class Version<K, V> implements Iterable<KVPair<K, V>> {
+        /**
+         * Bits of the hash or position consumed per tree level.
+         */
+        static final int BITS = 5;
+
+        /**
+         * Branching factor of both tries.
+         */
+        static final int WIDTH = 1 << BITS;
+
+        /**
+         * The shared empty version.
+         */
+        @SuppressWarnings("rawtypes")
+        static final Version EMPTY = new Version<>(null, new Object[WIDTH], 0, 0, 0);
+
+        /**
+         * The root of the HAMT: null, a Leaf, a Collision or a Node.
+         */
+        final Object keys;
+
+        /**
+         * The root of the vector of pairs, in insertion order.
+         */
+        final Object[] order;
+
+        /**
+         * The shift of the root of the vector (0 when it is a single leaf).
+         */
+        final int shift;
+
+        /**
+         * The number of used vector positions, including tombstones.
+         */
+        final int count;
+
+        /**
+         * The number of live pairs.
+         */
+        final int size;
+
+        /**
+         * Creates a version from its parts.
+         */
+        Version(Object keys, Object[] order, int shift, int count, int size) {
+            this.keys = keys;
+            this.order = order;
+            this.shift = shift;
+            this.count = count;
+            this.size = size;
+        }  // end of constructor
+
+        /**
+         * Returns the empty version.
+         * @return the empty version
+         */
+        @SuppressWarnings("unchecked")
+        static <K, V> Version<K, V> empty() {
+            return (Version<K, V>) EMPTY;
+        }  // end of empty method
+
+        /**
+         * Finds the pair for a key.
+         * @param key the key
+         * @return the pair, or null if the key is absent
+         */
+        @SuppressWarnings("unchecked")
+        KVPair<K, V> lookup(Object key) {
+            if (key == null) {
+                return null;
+            }
+            Leaf leaf = findLeaf(this.keys, key, AssociativeArray.hash(key));
+            return (leaf == null) ? null : (KVPair<K, V>) this.leafFor(leaf.pos)[leaf.pos & (WIDTH - 1)];
+        }  // end of lookup method
+
+        /**
+         * Returns a version in which key maps to value.
+         * @param key the key; must not be null
+         * @param value the value
+         * @return the new version
+         */
+        Version<K, V> with(K key, V value) {
+            int hash = AssociativeArray.hash(key);
+            Leaf leaf = findLeaf(this.keys, key, hash);
+            if (leaf != null) {
+                // Replace the pair in place; the key index is unchanged
+                Object[] order = assocVector(this.order, this.shift, leaf.pos, new KVPair<>(key, value));
+                return new Version<>(this.keys, order, this.shift, this.count, this.size);
+            }
+            Object[] order = this.order;
+            int shift = this.shift;
+            if (this.count == (WIDTH << shift)) {
+                // The vector is full, so grow it by one level
+                order = new Object[WIDTH];
+                order[0] = this.order;
+                shift += BITS;
+            }
+            order = assocVector(order, shift, this.count, new KVPair<>(key, value));
+            Object keys = insert(this.keys, 0, new Leaf(key, hash, this.count));
+            return new Version<>(keys, order, shift, this.count + 1, this.size + 1);
+        }  // end of with method
+
+        /**
+         * Returns a version without the given key.
+         * @param key the key
+         * @return the new version, or this version if the key is absent
+         */
+        Version<K, V> without(Object key) {
+            if (key == null) {
+                return this;
+            }
+            int hash = AssociativeArray.hash(key);
+            Leaf leaf = findLeaf(this.keys, key, hash);
+            if (leaf == null) {
+                return this;
+            }
+            Object keys = delete(this.keys, 0, key, hash);
+            Object[] order = assocVector(this.order, this.shift, leaf.pos, null);
+            Version<K, V> result = new Version<>(keys, order, this.shift, this.count, this.size - 1);
+            int tombstones = result.count - result.size;
+            if (tombstones > WIDTH && tombstones > result.size) {
+                result = result.compact();
+            }
+            return result;
+        }  // end of without method
+
+        /**
+         * Rebuilds this version without tombstones.
+         * @return an equivalent, compacted version
+         */
+        Version<K, V> compact() {
+            Version<K, V> result = empty();
+            for (KVPair<K, V> pair : this) {
+                result = result.with(pair.key, pair.val);
+            }
+            return result;
+        }  // end of compact method
+
+        /**
+         * Calls an action on every live pair of this version, in
+         * insertion order.
+         * @param action the action to call
+         */
+        void forEach(BiConsumer<? super K, ? super V> action) {
+            visit(this.order, this.shift, action);
+        }  // end of forEach method
+
+        /**
+         * Calls an action on every pair below a vector node.
+         */
+        @SuppressWarnings("unchecked")
+        static <K, V> void visit(Object[] node, int level, BiConsumer<? super K, ? super V> action) {
+            for (Object child : node) {
+                if (child == null) {
+                    continue;  // Tombstone or unused slot
+                }
+                if (level == 0) {
+                    KVPair<K, V> pair = (KVPair<K, V>) child;
+                    action.accept(pair.key, pair.val);
+                } else {
+                    visit((Object[]) child, level - BITS, action);
+                }
+            }
+        }  // end of visit method
+
+        /**
+         * Iterates the live pairs of this version in insertion order.
+         */
+        @Override
+        public Iterator<KVPair<K, V>> iterator() {
+            return new Iterator<KVPair<K, V>>() {
+                int pos = 0;  // Next vector position to examine
+                Object[] leaf = null;  // Vector leaf holding pos
+
+                public boolean hasNext() {
+                    while (this.pos < Version.this.count) {
+                        if ((this.pos & (WIDTH - 1)) == 0 || this.leaf == null) {
+                            this.leaf = Version.this.leafFor(this.pos);
+                        }
+                        if (this.leaf[this.pos & (WIDTH - 1)] != null) {
+                            return true;
+                        }
+                        this.pos++;  // Skip tombstones
+                    }
+                    return false;
+                }  // hasNext()
+
+                @SuppressWarnings("unchecked")
+                public KVPair<K, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return (KVPair<K, V>) this.leaf[this.pos++ & (WIDTH - 1)];
+                }  // next()
+            };
+        }  // end of iterator method
+
+        /**
+         * Finds the vector leaf that holds a position.
+         * @param pos the position
+         * @return the leaf array
+         */
+        Object[] leafFor(int pos) {
+            Object[] node = this.order;
+            for (int level = this.shift; level > 0; level -= BITS) {
+                node = (Object[]) node[(pos >>> level) & (WIDTH - 1)];
+            }
+            return node;
+        }  // end of leafFor method
+
+        /**
+         * Stores a value at a position of a vector, copying the path to it.
+         * @param node the vector node, or null to create one
+         * @param level the shift of the node
+         * @param pos the position
+         * @param value the value to store
+         * @return the new node
+         */
+        static Object[] assocVector(Object[] node, int level, int pos, Object value) {
+            Object[] copy = (node == null) ? new Object[WIDTH] : node.clone();
+            int slot = (pos >>> level) & (WIDTH - 1);
+            if (level == 0) {
+                copy[slot] = value;
+            } else {
+                copy[slot] = assocVector((Object[]) copy[slot], level - BITS, pos, value);
+            }
+            return copy;
+        }  // end of assocVector method
+
+        /**
+         * Finds the leaf for a key in a HAMT.
+         * @param node the root of the HAMT
+         * @param key the key
+         * @param hash the spread hash of the key
+         * @return the leaf, or null if the key is absent
+         */
+        static Leaf findLeaf(Object node, Object key, int hash) {
+            int shift = 0;
+            while (node instanceof Node) {
+                Node branch = (Node) node;
+                int bit = 1 << ((hash >>> shift) & (WIDTH - 1));
+                if ((branch.bitmap & bit) == 0) {
+                    return null;
+                }
+                node = branch.slots[Integer.bitCount(branch.bitmap & (bit - 1))];
+                shift += BITS;
+            }
+            if (node instanceof Leaf) {
+                Leaf leaf = (Leaf) node;
+                return (leaf.hash == hash && leaf.key.equals(key)) ? leaf : null;
+            }
+            if (node instanceof Collision) {
+                Collision collision = (Collision) node;
+                if (collision.hash == hash) {
+                    for (Leaf leaf : collision.leaves) {
+                        if (leaf.key.equals(key)) {
+                            return leaf;
+                        }
+                    }
+                }
+            }
+            return null;
+        }  // end of findLeaf method
+
+        /**
+         * Inserts a leaf for a key that is not yet in a HAMT.
+         * @param node the HAMT node, or null
+         * @param shift the shift of the node
+         * @param leaf the leaf to insert
+         * @return the new node
+         */
+        static Object insert(Object node, int shift, Leaf leaf) {
+            if (node == null) {
+                return leaf;
+            }
+            if (node instanceof Node) {
+                Node branch = (Node) node;
+                int bit = 1 << ((leaf.hash >>> shift) & (WIDTH - 1));
+                int i = Integer.bitCount(branch.bitmap & (bit - 1));
+                if ((branch.bitmap & bit) != 0) {
+                    Object[] slots = branch.slots.clone();
+                    slots[i] = insert(slots[i], shift + BITS, leaf);
+                    return new Node(branch.bitmap, slots);
+                }
+                Object[] slots = new Object[branch.slots.length + 1];
+                System.arraycopy(branch.slots, 0, slots, 0, i);
+                slots[i] = leaf;
+                System.arraycopy(branch.slots, i, slots, i + 1, branch.slots.length - i);
+                return new Node(branch.bitmap | bit, slots);
+            }
+            int hash = (node instanceof Leaf) ? ((Leaf) node).hash : ((Collision) node).hash;
+            if (hash == leaf.hash) {
+                Leaf[] others = (node instanceof Leaf) ? new Leaf[] { (Leaf) node } : ((Collision) node).leaves;
+                Leaf[] leaves = java.util.Arrays.copyOf(others, others.length + 1);
+                leaves[others.length] = leaf;
+                return new Collision(hash, leaves);
+            }
+            return split(node, hash, leaf, shift);
+        }  // end of insert method
+
+        /**
+         * Builds the branch nodes that separate two entries with
+         * different hashes.
+         */
+        static Node split(Object existing, int existingHash, Leaf leaf, int shift) {
+            int a = (existingHash >>> shift) & (WIDTH - 1);
+            int b = (leaf.hash >>> shift) & (WIDTH - 1);
+            if (a == b) {
+                return new Node(1 << a, new Object[] { split(existing, existingHash, leaf, shift + BITS) });
+            }
+            Object[] slots = (a < b) ? new Object[] { existing, leaf } : new Object[] { leaf, existing };
+            return new Node((1 << a) | (1 << b), slots);
+        }  // end of split method
+
+        /**
+         * Deletes a key that is known to be in a HAMT.
+         * @param node the HAMT node
+         * @param shift the shift of the node
+         * @param key the key
+         * @param hash the spread hash of the key
+         * @return the new node, or null if it is now empty
+         */
+        static Object delete(Object node, int shift, Object key, int hash) {
+            if (node instanceof Leaf) {
+                return null;
+            }
+            if (node instanceof Collision) {
+                Leaf[] leaves = ((Collision) node).leaves;
+                Leaf[] rest = new Leaf[leaves.length - 1];
+                int j = 0;
+                for (Leaf leaf : leaves) {
+                    if (!leaf.key.equals(key)) {
+                        rest[j++] = leaf;
+                    }
+                }
+                return (rest.length == 1) ? rest[0] : new Collision(hash, rest);
+            }
+            Node branch = (Node) node;
+            int bit = 1 << ((hash >>> shift) & (WIDTH - 1));
+            int i = Integer.bitCount(branch.bitmap & (bit - 1));
+            Object child = delete(branch.slots[i], shift + BITS, key, hash);
+            if (child == null) {
+                if (branch.slots.length == 1) {
+                    return null;
+                }
+                Object[] slots = new Object[branch.slots.length - 1];
+                System.arraycopy(branch.slots, 0, slots, 0, i);
+                System.arraycopy(branch.slots, i + 1, slots, i, slots.length - i);
+                if (slots.length == 1 && !(slots[0] instanceof Node)) {
+                    return slots[0];  // Pull a lone leaf up a level
+                }
+                return new Node(branch.bitmap & ~bit, slots);
+            }
+            if (branch.slots.length == 1 && !(child instanceof Node)) {
+                return child;  // Pull a lone leaf up a level
+            }
+            Object[] slots = branch.slots.clone();
+            slots[i] = child;
+            return new Node(branch.bitmap, slots);
+        }  // end of delete method
+    }  // end of Version class
+
+    /**
+     * A HAMT entry: a key and the vector position of its pair.
+     */
+    static final class Leaf {
+        final Object key;
+        final int hash;
+        final int pos;
+
+        Leaf(Object key, int hash, int pos) {
+            this.key = key;
+            this.hash = hash;
+            this.pos = pos;
+        }  // end of constructor
+    }  // end of Leaf class
+
+    /**
+     * A HAMT entry for several keys that share a full hash.
+     */
+    static final class Collision {
+        final int hash;
+        final Leaf[] leaves;
+
+        Collision(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }  // end of constructor
+    }  // end of Collision class
+
+    /**
+     * A HAMT branch. Bit i of the bitmap is set when the branch has a
+     * child for hash fragment i; children are stored densely in slots.
+     */
+    static final class Node {
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }  // end of constructor
+    }  // end of Node class
+}  // end of PersistentAssociativeArray class